@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+/**
+ * Creates and fills a table in an in-memory HSQLDB database for the benchmarks.
+ * <p/>
+ * The column types are picked by the type mix: {@code varchar} uses only VARCHAR columns,
+ * {@code numeric} alternates BIGINT and DOUBLE, and {@code mixed} rotates through VARCHAR,
+ * BIGINT, DOUBLE, DECIMAL and TIMESTAMP.
+ */
+public class BenchmarkDatabase
+  {
+  public static final String DRIVER = "org.hsqldb.jdbcDriver";
+
+  private static final String[] VARCHAR = {"VARCHAR(100)"};
+  private static final String[] NUMERIC = {"BIGINT", "DOUBLE"};
+  private static final String[] MIXED = {"VARCHAR(100)", "BIGINT", "DOUBLE", "DECIMAL(18,4)", "TIMESTAMP"};
+
+  private final String url;
+  private final String tableName;
+  private final String[] columnNames;
+  private final String[] columnDefs;
+
+  public BenchmarkDatabase( String name, int numColumns, String typeMix )
+    {
+    this.url = "jdbc:hsqldb:mem:" + name;
+    this.tableName = name;
+    this.columnNames = new String[numColumns];
+    this.columnDefs = new String[numColumns];
+
+    String[] types = getTypes( typeMix );
+
+    for( int i = 0; i < numColumns; i++ )
+      {
+      columnNames[ i ] = "c" + i;
+      columnDefs[ i ] = types[ i % types.length ];
+      }
+    }
+
+  private static String[] getTypes( String typeMix )
+    {
+    if( "varchar".equals( typeMix ) )
+      return VARCHAR;
+    else if( "numeric".equals( typeMix ) )
+      return NUMERIC;
+    else if( "mixed".equals( typeMix ) )
+      return MIXED;
+
+    throw new IllegalArgumentException( "unknown type mix: " + typeMix );
+    }
+
+  public String getUrl()
+    {
+    return url;
+    }
+
+  public String getTableName()
+    {
+    return tableName;
+    }
+
+  public String[] getColumnNames()
+    {
+    return columnNames;
+    }
+
+  public Fields getColumnFields()
+    {
+    return new Fields( columnNames );
+    }
+
+  public TableDesc getTableDesc()
+    {
+    return new TableDesc( tableName, columnNames, columnDefs, null );
+    }
+
+  public Connection getConnection() throws SQLException
+    {
+    try
+      {
+      Class.forName( DRIVER );
+      }
+    catch( ClassNotFoundException exception )
+      {
+      throw new SQLException( "unable to load driver: " + DRIVER );
+      }
+
+    return DriverManager.getConnection( url, "sa", "" );
+    }
+
+  /** Drops and creates the table, then inserts numRows rows. */
+  public void create( int numRows ) throws SQLException
+    {
+    Connection connection = getConnection();
+    Statement statement = connection.createStatement();
+
+    try
+      {
+      statement.executeUpdate( getTableDesc().getTableDropStatement() );
+      }
+    catch( SQLException exception )
+      {
+      // table did not exist
+      }
+
+    statement.executeUpdate( getTableDesc().getCreateTableStatement() );
+    statement.close();
+
+    PreparedStatement insert = connection.prepareStatement( getInsertQuery() );
+
+    for( int row = 0; row < numRows; row++ )
+      {
+      Tuple tuple = createTuple( row );
+
+      for( int i = 0; i < tuple.size(); i++ )
+        insert.setObject( i + 1, tuple.get( i ) );
+
+      insert.addBatch();
+
+      if( row % 1000 == 999 )
+        insert.executeBatch();
+      }
+
+    insert.executeBatch();
+    insert.close();
+    connection.close();
+    }
+
+  public String getInsertQuery()
+    {
+    StringBuilder query = new StringBuilder( "INSERT INTO " ).append( tableName ).append( " VALUES (" );
+
+    for( int i = 0; i < columnNames.length; i++ )
+      query.append( i == 0 ? "?" : ", ?" );
+
+    return query.append( ")" ).toString();
+    }
+
+  public String getSelectQuery()
+    {
+    return "SELECT * FROM " + tableName;
+    }
+
+  /** Returns a Tuple of values matching the column types, the first column holding a value unique to the row. */
+  public Tuple createTuple( int row )
+    {
+    Tuple tuple = new Tuple();
+
+    for( int i = 0; i < columnDefs.length; i++ )
+      {
+      String def = columnDefs[ i ];
+
+      if( i == 0 )
+        tuple.add( def.startsWith( "VARCHAR" ) ? (Comparable) ( "key-" + row ) : (Comparable) Long.valueOf( row ) );
+      else if( def.startsWith( "VARCHAR" ) )
+        tuple.add( "value-" + ( row % 100 ) + "-" + i );
+      else if( def.equals( "BIGINT" ) )
+        tuple.add( (long) row * i );
+      else if( def.equals( "DOUBLE" ) )
+        tuple.add( row / (double) i );
+      else if( def.startsWith( "DECIMAL" ) )
+        tuple.add( BigDecimal.valueOf( row * 10000L + i, 4 ) );
+      else
+        tuple.add( new Timestamp( 1230768000000L + row * 1000L ) );
+      }
+
+    return tuple;
+    }
+  }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import cascading.jdbc.db.DBConfiguration;
+import cascading.jdbc.db.DBOutputFormat;
+import cascading.tuple.Tuple;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the per row cost of the {@link DBOutputFormat} record writer, including the batched
+ * INSERT statements executed against the database.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DBRecordWriterBenchmark
+  {
+  @Param({"4", "16", "64"})
+  public int columns;
+
+  @Param({"varchar", "numeric", "mixed"})
+  public String typeMix;
+
+  @Param({"100", "1000"})
+  public int batchSize;
+
+  private BenchmarkDatabase database;
+  private JobConf conf;
+  private RecordWriter<TupleRecord, Object> writer;
+  private Tuple[] tuples;
+  private TupleRecord record = new TupleRecord();
+  private int next = 0;
+
+  @Setup(Level.Trial)
+  public void setup()
+    {
+    database = new BenchmarkDatabase( "writer", columns, typeMix );
+
+    conf = new JobConf();
+    DBConfiguration.configureDB( conf, BenchmarkDatabase.DRIVER, database.getUrl(), "sa", "" );
+    DBOutputFormat.setOutput( conf, DBOutputFormat.class, database.getTableName(), database.getColumnNames(), null, batchSize );
+
+    tuples = new Tuple[1024];
+
+    for( int i = 0; i < tuples.length; i++ )
+      tuples[ i ] = database.createTuple( i );
+    }
+
+  @Setup(Level.Iteration)
+  public void openWriter() throws IOException, SQLException
+    {
+    database.create( 0 );
+
+    writer = new DBOutputFormat<TupleRecord, Object>().getRecordWriter( null, conf, "benchmark", null );
+    }
+
+  @TearDown(Level.Iteration)
+  public void closeWriter() throws IOException
+    {
+    writer.close( null );
+    }
+
+  @Benchmark
+  public void write() throws IOException
+    {
+    record.setTuple( tuples[ next++ & ( tuples.length - 1 ) ] );
+    writer.write( record, null );
+    }
+  }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the per row cost of {@link JDBCScheme#source} and {@link JDBCScheme#sink}, the latter
+ * including the {@code selectTuple} and {@code cleanTuple} calls, with and without updateBy columns.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JDBCSchemeBenchmark
+  {
+  @Param({"4", "16", "64"})
+  public int columns;
+
+  @Param({"varchar", "numeric", "mixed"})
+  public String typeMix;
+
+  @Param({"false", "true"})
+  public boolean updateBy;
+
+  private JDBCScheme scheme;
+  private Tuple[] tuples;
+  private TupleEntry[] entries;
+  private TupleRecord record = new TupleRecord();
+  private LongWritable key = new LongWritable();
+  private LastCollector collector = new LastCollector();
+  private int next = 0;
+
+  /** Keeps the last collected key so it can be consumed. */
+  private static class LastCollector implements OutputCollector
+    {
+    Object last;
+
+    public void collect( Object key, Object value ) throws IOException
+      {
+      last = key;
+      }
+    }
+
+  @Setup(Level.Trial)
+  public void setup()
+    {
+    BenchmarkDatabase database = new BenchmarkDatabase( "scheme", columns, typeMix );
+    String[] columnNames = database.getColumnNames();
+
+    if( updateBy )
+      scheme = new JDBCScheme( columnNames, null, new String[]{columnNames[ 0 ]} );
+    else
+      scheme = new JDBCScheme( columnNames );
+
+    tuples = new Tuple[1024];
+    entries = new TupleEntry[tuples.length];
+
+    for( int i = 0; i < tuples.length; i++ )
+      {
+      tuples[ i ] = database.createTuple( i );
+      entries[ i ] = new TupleEntry( database.getColumnFields(), tuples[ i ] );
+      }
+    }
+
+  @Benchmark
+  public void source( Blackhole blackhole )
+    {
+    record.setTuple( tuples[ next++ & ( tuples.length - 1 ) ] );
+    blackhole.consume( scheme.source( key, record ) );
+    }
+
+  @Benchmark
+  public void sink( Blackhole blackhole ) throws IOException
+    {
+    scheme.sink( entries[ next++ & ( entries.length - 1 ) ], collector );
+    blackhole.consume( collector.last );
+    }
+  }
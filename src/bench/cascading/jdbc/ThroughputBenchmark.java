@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import cascading.flow.Flow;
+import cascading.flow.FlowConnector;
+import cascading.operation.Identity;
+import cascading.operation.regex.RegexSplitter;
+import cascading.pipe.Each;
+import cascading.pipe.Pipe;
+import cascading.scheme.TextLine;
+import cascading.tap.Lfs;
+import cascading.tap.SinkMode;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.TupleEntryIterator;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Loads rows into an embedded database through {@link JDBCTap} and reads them back, reporting rows per second,
+ * the time to the first row read, and the peak heap used by each phase.
+ * <p/>
+ * Each run is appended as a tab separated line to the {@code bench.output} file so runs of different versions can
+ * be compared. The following system properties control the sweep, lists being comma separated:
+ * <ul>
+ * <li>bench.url, bench.driver - the database, an in-memory HSQLDB database by default, use
+ * {@code jdbc:h2:mem:throughput;DB_CLOSE_DELAY=-1} and {@code org.h2.Driver} for H2</li>
+ * <li>bench.rows - the number of rows loaded, 1000000 by default</li>
+ * <li>bench.widths - the number of columns of each row</li>
+ * <li>bench.batchSizes - the {@link JDBCTap#setBatchSize(int)} values</li>
+ * <li>bench.concurrentReads - the {@link JDBCTap#setConcurrentReads(int)} values</li>
+ * <li>bench.strategies - {@code offset} for a single table read with LIMIT/OFFSET splits, or {@code partitioned}
+ * for the rows spread over bench.partitions tables read by a {@link PartitionedJDBCTap}</li>
+ * </ul>
+ * Flows run in Hadoop local mode, in this JVM, so an in-memory database is shared with the tasks.
+ */
+public class ThroughputBenchmark
+  {
+  private static final String HEADER = "timestamp\turl\trows\twidth\tbatchSize\tconcurrentReads\tstrategy\tloadSeconds\tloadRowsPerSecond\tloadPeakHeap\tfirstRowMillis\treadSeconds\treadRowsPerSecond\treadPeakHeap";
+
+  private final Properties properties;
+  private final String url;
+  private final String driver;
+  private final File workDir;
+  private final int partitions;
+
+  public static void main( String[] args ) throws IOException
+    {
+    new ThroughputBenchmark( System.getProperties() ).run();
+    }
+
+  public ThroughputBenchmark( Properties properties )
+    {
+    this.properties = properties;
+    this.url = properties.getProperty( "bench.url", "jdbc:hsqldb:mem:throughput" );
+    this.driver = properties.getProperty( "bench.driver", "org.hsqldb.jdbcDriver" );
+    this.workDir = new File( properties.getProperty( "bench.work", "build/bench-work" ) );
+    this.partitions = Integer.parseInt( properties.getProperty( "bench.partitions", "4" ) );
+    }
+
+  public void run() throws IOException
+    {
+    File output = new File( properties.getProperty( "bench.output", "build/bench-results/throughput.tsv" ) );
+    boolean writeHeader = !output.exists();
+
+    output.getParentFile().mkdirs();
+
+    PrintWriter writer = new PrintWriter( new BufferedWriter( new FileWriter( output, true ) ) );
+
+    if( writeHeader )
+      writer.println( HEADER );
+
+    try
+      {
+      for( int rows : getInts( "bench.rows", "1000000" ) )
+        {
+        for( int width : getInts( "bench.widths", "4,16" ) )
+          {
+          for( int batchSize : getInts( "bench.batchSizes", "100,1000,10000" ) )
+            {
+            for( int concurrentReads : getInts( "bench.concurrentReads", "1,4" ) )
+              {
+              for( String strategy : properties.getProperty( "bench.strategies", "offset,partitioned" ).split( "," ) )
+                {
+                String result = run( rows, width, batchSize, concurrentReads, strategy.trim() );
+
+                System.out.println( result );
+                writer.println( result );
+                writer.flush();
+                }
+              }
+            }
+          }
+        }
+      }
+    finally
+      {
+      writer.close();
+      }
+    }
+
+  private String run( int rows, int width, int batchSize, int concurrentReads, String strategy ) throws IOException
+    {
+    String[] columnNames = new String[width];
+    String[] columnDefs = new String[width];
+
+    for( int i = 0; i < width; i++ )
+      {
+      columnNames[ i ] = "c" + i;
+      columnDefs[ i ] = "VARCHAR(100)";
+      }
+
+    int numTables = "partitioned".equals( strategy ) ? partitions : 1;
+    List<String> tableNames = new ArrayList<String>();
+
+    // LOAD
+
+    resetPeakHeap();
+    long loadStart = System.currentTimeMillis();
+
+    for( int table = 0; table < numTables; table++ )
+      {
+      String tableName = "throughput_" + width + "_" + table;
+      int tableRows = rows / numTables + ( table < rows % numTables ? 1 : 0 );
+      File input = writeInput( tableName, tableRows, width );
+
+      tableNames.add( tableName );
+
+      Tap source = new Lfs( new TextLine(), input.getPath() );
+      Pipe parsePipe = new Each( "load", new Fields( "line" ), new RegexSplitter( new Fields( columnNames ), "\t" ) );
+      TableDesc tableDesc = new TableDesc( tableName, columnNames, columnDefs, null );
+      JDBCTap sink = new JDBCTap( url, driver, tableDesc, new JDBCScheme( columnNames ), SinkMode.REPLACE );
+
+      sink.setBatchSize( batchSize );
+
+      new FlowConnector( getFlowProperties() ).connect( source, sink, parsePipe ).complete();
+      }
+
+    long loadMillis = System.currentTimeMillis() - loadStart;
+    long loadPeakHeap = getPeakHeap();
+
+    // READ
+
+    JDBCTap source;
+
+    if( numTables == 1 )
+      source = new JDBCTap( url, driver, new TableDesc( tableNames.get( 0 ) ), new JDBCScheme( columnNames ) );
+    else
+      source = new PartitionedJDBCTap( url, driver, tableNames.toArray( new String[tableNames.size()] ), new JDBCScheme( columnNames ) );
+
+    source.setConcurrentReads( concurrentReads );
+
+    long firstRowStart = System.currentTimeMillis();
+    TupleEntryIterator iterator = source.openForRead( new JobConf() );
+
+    iterator.hasNext();
+
+    long firstRowMillis = System.currentTimeMillis() - firstRowStart;
+
+    iterator.close();
+
+    resetPeakHeap();
+    long readStart = System.currentTimeMillis();
+
+    Tap sink = new Lfs( new TextLine(), new File( workDir, "read" ).getPath(), SinkMode.REPLACE );
+    Flow readFlow = new FlowConnector( getFlowProperties() ).connect( source, sink, new Each( "read", new Identity() ) );
+
+    readFlow.complete();
+
+    long readMillis = System.currentTimeMillis() - readStart;
+    long readPeakHeap = getPeakHeap();
+
+    for( String tableName : tableNames )
+      source.executeUpdate( new TableDesc( tableName ).getTableDropStatement() );
+
+    StringBuilder result = new StringBuilder();
+
+    result.append( System.currentTimeMillis() ).append( '\t' ).append( url ).append( '\t' );
+    result.append( rows ).append( '\t' ).append( width ).append( '\t' ).append( batchSize ).append( '\t' );
+    result.append( concurrentReads ).append( '\t' ).append( strategy ).append( '\t' );
+    result.append( loadMillis / 1000.0 ).append( '\t' ).append( rowsPerSecond( rows, loadMillis ) ).append( '\t' ).append( loadPeakHeap ).append( '\t' );
+    result.append( firstRowMillis ).append( '\t' );
+    result.append( readMillis / 1000.0 ).append( '\t' ).append( rowsPerSecond( rows, readMillis ) ).append( '\t' ).append( readPeakHeap );
+
+    return result.toString();
+    }
+
+  private File writeInput( String tableName, int rows, int width ) throws IOException
+    {
+    File input = new File( workDir, tableName + ".txt" );
+
+    input.getParentFile().mkdirs();
+
+    PrintWriter writer = new PrintWriter( new BufferedWriter( new FileWriter( input ) ) );
+
+    try
+      {
+      for( int row = 0; row < rows; row++ )
+        {
+        writer.print( row );
+
+        for( int i = 1; i < width; i++ )
+          writer.append( '\t' ).append( "value-" ).print( ( row + i ) % 1000 );
+
+        writer.println();
+        }
+      }
+    finally
+      {
+      writer.close();
+      }
+
+    return input;
+    }
+
+  private Properties getFlowProperties()
+    {
+    Properties flowProperties = new Properties();
+
+    flowProperties.setProperty( "mapred.map.tasks", properties.getProperty( "bench.maps", "4" ) );
+
+    return flowProperties;
+    }
+
+  private int[] getInts( String name, String defaultValue )
+    {
+    String[] values = properties.getProperty( name, defaultValue ).split( "," );
+    int[] results = new int[values.length];
+
+    for( int i = 0; i < values.length; i++ )
+      results[ i ] = Integer.parseInt( values[ i ].trim() );
+
+    return results;
+    }
+
+  private static long rowsPerSecond( int rows, long millis )
+    {
+    return millis == 0 ? 0 : rows * 1000L / millis;
+    }
+
+  private static void resetPeakHeap()
+    {
+    System.gc();
+
+    for( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+      {
+      if( pool.getType() == MemoryType.HEAP )
+        pool.resetPeakUsage();
+      }
+    }
+
+  private static long getPeakHeap()
+    {
+    long peak = 0;
+
+    for( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+      {
+      if( pool.getType() == MemoryType.HEAP )
+        peak += pool.getPeakUsage().getUsed();
+      }
+
+    return peak;
+    }
+  }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import cascading.tuple.Tuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Measures the per row cost of {@link TupleRecord#readFields} and {@link TupleRecord#write}. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TupleRecordBenchmark
+  {
+  private static final int ROWS = 10000;
+
+  @Param({"4", "16", "64"})
+  public int columns;
+
+  @Param({"varchar", "numeric", "mixed"})
+  public String typeMix;
+
+  private BenchmarkDatabase database;
+  private Connection connection;
+  private Statement statement;
+  private PreparedStatement insert;
+  private Tuple[] tuples;
+  private TupleRecord record = new TupleRecord();
+  private int next = 0;
+
+  @Setup(Level.Trial)
+  public void setup() throws SQLException
+    {
+    database = new BenchmarkDatabase( "tuplerecord", columns, typeMix );
+    database.create( ROWS );
+
+    connection = database.getConnection();
+    statement = connection.createStatement( ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY );
+    insert = connection.prepareStatement( database.getInsertQuery() );
+
+    tuples = new Tuple[1024];
+
+    for( int i = 0; i < tuples.length; i++ )
+      tuples[ i ] = database.createTuple( i );
+    }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws SQLException
+    {
+    insert.close();
+    statement.close();
+    connection.close();
+    }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void readFields( Blackhole blackhole ) throws SQLException
+    {
+    ResultSet resultSet = statement.executeQuery( database.getSelectQuery() );
+
+    while( resultSet.next() )
+      {
+      record.readFields( resultSet );
+      blackhole.consume( record.getTuple() );
+      }
+
+    resultSet.close();
+    }
+
+  /** Only binds the values, the statement is never executed. */
+  @Benchmark
+  public void write() throws SQLException
+    {
+    record.setTuple( tuples[ next++ & ( tuples.length - 1 ) ] );
+    record.write( insert );
+    }
+  }
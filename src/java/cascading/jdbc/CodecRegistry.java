@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Array;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import cascading.tuple.Tuple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class CodecRegistry holds the {@link TypeCodec} instances used to read and write column values, registered by
+ * {@link java.sql.Types} type or by column name. A codec registered for a column name takes precedence over a codec
+ * registered for the column type. Columns without a codec are read with getObject and written with setObject.
+ * <p/>
+ * When writing, the type of each parameter is taken from {@link PreparedStatement#getParameterMetaData()}. If the
+ * driver does not support it, only codecs registered by column name are used when writing.
+ * <p/>
+ * For example, to hold timestamps as epoch milliseconds and prices as cents:
+ * <pre>
+ * CodecRegistry registry = new CodecRegistry()
+ *   .register( Types.TIMESTAMP, new CodecRegistry.EpochMillisCodec( Types.TIMESTAMP ) )
+ *   .register( "price", new CodecRegistry.ScaledLongCodec( 2 ) );
+ * </pre>
+ */
+public class CodecRegistry implements Serializable
+  {
+  /** Field LOG */
+  private static final Logger LOG = LoggerFactory.getLogger( CodecRegistry.class );
+
+  /** Field typeCodecs */
+  private Map<Integer, TypeCodec> typeCodecs = new HashMap<Integer, TypeCodec>();
+  /** Field columnCodecs, keyed by lower case column name */
+  private Map<String, TypeCodec> columnCodecs = new HashMap<String, TypeCodec>();
+  /** Field parameterCodecs, the codecs resolved for each statement written */
+  private transient Map<PreparedStatement, TypeCodec[]> parameterCodecs;
+  /** Field lastStatement, the statement the lastCodecs were resolved for */
+  private transient PreparedStatement lastStatement;
+  /** Field lastCodecs */
+  private transient TypeCodec[] lastCodecs;
+
+  /**
+   * Method register sets the codec used for all columns of the given type.
+   *
+   * @param sqlType of type int, one of {@link java.sql.Types}
+   * @param codec   of type TypeCodec
+   * @return CodecRegistry
+   */
+  public CodecRegistry register( int sqlType, TypeCodec codec )
+    {
+    typeCodecs.put( sqlType, codec );
+
+    return this;
+    }
+
+  /**
+   * Method register sets the codec used for the given column. Column names are compared ignoring case.
+   *
+   * @param columnName of type String
+   * @param codec      of type TypeCodec
+   * @return CodecRegistry
+   */
+  public CodecRegistry register( String columnName, TypeCodec codec )
+    {
+    columnCodecs.put( columnName.toLowerCase(), codec );
+
+    return this;
+    }
+
+  /**
+   * Method getCodec returns the codec for the given column, or null if there is none.
+   *
+   * @param columnName of type String, may be null if unknown
+   * @param sqlType    of type Integer, may be null if unknown
+   * @return TypeCodec
+   */
+  public TypeCodec getCodec( String columnName, Integer sqlType )
+    {
+    TypeCodec codec = columnName == null ? null : columnCodecs.get( columnName.toLowerCase() );
+
+    if( codec == null && sqlType != null )
+      codec = typeCodecs.get( sqlType );
+
+    return codec;
+    }
+
+  /** Returns the codec of each column of the given result, null for columns without one. */
+  TypeCodec[] getCodecs( ResultSetMetaData metaData ) throws SQLException
+    {
+    TypeCodec[] codecs = new TypeCodec[metaData.getColumnCount()];
+
+    for( int i = 0; i < codecs.length; i++ )
+      codecs[ i ] = getCodec( metaData.getColumnLabel( i + 1 ), metaData.getColumnType( i + 1 ) );
+
+    return codecs;
+    }
+
+  /** Returns the codec of each parameter of the given statement, null for parameters without one. */
+  synchronized TypeCodec[] getCodecs( PreparedStatement statement, String[] columnNames )
+    {
+    // compared by identity first, as the hashCode of a traced statement is a proxied call
+    if( statement == lastStatement )
+      return lastCodecs;
+
+    if( parameterCodecs == null )
+      parameterCodecs = new WeakHashMap<PreparedStatement, TypeCodec[]>();
+
+    TypeCodec[] codecs = parameterCodecs.get( statement );
+
+    if( codecs != null )
+      return remember( statement, codecs );
+
+    ParameterMetaData metaData = null;
+
+    try
+      {
+      metaData = statement.getParameterMetaData();
+      }
+    catch( SQLException exception )
+      {
+      LOG.warn( "parameter types are not available, only using codecs registered by column name", exception );
+      }
+
+    codecs = new TypeCodec[columnNames.length];
+
+    for( int i = 0; i < codecs.length; i++ )
+      codecs[ i ] = getCodec( columnNames[ i ], getParameterType( metaData, i + 1 ) );
+
+    parameterCodecs.put( statement, codecs );
+
+    return remember( statement, codecs );
+    }
+
+  private TypeCodec[] remember( PreparedStatement statement, TypeCodec[] codecs )
+    {
+    lastStatement = statement;
+    lastCodecs = codecs;
+
+    return codecs;
+    }
+
+  private static Integer getParameterType( ParameterMetaData metaData, int index )
+    {
+    if( metaData == null )
+      return null;
+
+    try
+      {
+      return metaData.getParameterType( index );
+      }
+    catch( SQLException exception )
+      {
+      return null;
+      }
+    }
+
+  @Override
+  public boolean equals( Object object )
+    {
+    if( this == object )
+      return true;
+    if( !( object instanceof CodecRegistry ) )
+      return false;
+
+    CodecRegistry that = (CodecRegistry) object;
+
+    return columnCodecs.equals( that.columnCodecs ) && typeCodecs.equals( that.typeCodecs );
+    }
+
+  @Override
+  public int hashCode()
+    {
+    return 31 * typeCodecs.hashCode() + columnCodecs.hashCode();
+    }
+
+  /**
+   * Class EpochMillisCodec holds DATE, TIME and TIMESTAMP values as a Long of milliseconds since the epoch.
+   * Fractions of a millisecond are dropped.
+   */
+  public static class EpochMillisCodec implements TypeCodec
+    {
+    /** Field sqlType */
+    private final int sqlType;
+
+    /**
+     * Constructor EpochMillisCodec creates a new EpochMillisCodec instance.
+     *
+     * @param sqlType of type int, one of Types.DATE, Types.TIME or Types.TIMESTAMP
+     */
+    public EpochMillisCodec( int sqlType )
+      {
+      this.sqlType = sqlType;
+      }
+
+    public Comparable decode( ResultSet resultSet, int column ) throws SQLException
+      {
+      java.util.Date value;
+
+      if( sqlType == Types.DATE )
+        value = resultSet.getDate( column );
+      else if( sqlType == Types.TIME )
+        value = resultSet.getTime( column );
+      else
+        value = resultSet.getTimestamp( column );
+
+      return value == null ? null : value.getTime();
+      }
+
+    public void encode( PreparedStatement statement, int index, Comparable value ) throws SQLException
+      {
+      long millis = ( (Number) value ).longValue();
+
+      if( sqlType == Types.DATE )
+        statement.setDate( index, new java.sql.Date( millis ) );
+      else if( sqlType == Types.TIME )
+        statement.setTime( index, new Time( millis ) );
+      else
+        statement.setTimestamp( index, new Timestamp( millis ) );
+      }
+
+    @Override
+    public boolean equals( Object object )
+      {
+      if( this == object )
+        return true;
+      if( !( object instanceof EpochMillisCodec ) )
+        return false;
+
+      return sqlType == ( (EpochMillisCodec) object ).sqlType;
+      }
+
+    @Override
+    public int hashCode()
+      {
+      return sqlType;
+      }
+    }
+
+  /**
+   * Class ScaledLongCodec holds DECIMAL and NUMERIC values of a fixed scale as a Long of the unscaled value, for
+   * example 12.34 as 1234 for a scale of 2. Reading a value with more decimal places than the scale fails.
+   */
+  public static class ScaledLongCodec implements TypeCodec
+    {
+    /** Field scale */
+    private final int scale;
+
+    /**
+     * Constructor ScaledLongCodec creates a new ScaledLongCodec instance.
+     *
+     * @param scale of type int
+     */
+    public ScaledLongCodec( int scale )
+      {
+      this.scale = scale;
+      }
+
+    public Comparable decode( ResultSet resultSet, int column ) throws SQLException
+      {
+      BigDecimal value = resultSet.getBigDecimal( column );
+
+      if( value == null )
+        return null;
+
+      BigInteger unscaled;
+
+      try
+        {
+        unscaled = value.setScale( scale ).unscaledValue();
+        }
+      catch( ArithmeticException exception )
+        {
+        throw new SQLException( "value: " + value + " of column: " + column + " has more than " + scale + " decimal places", exception );
+        }
+
+      if( unscaled.bitLength() > 63 )
+        throw new SQLException( "value: " + value + " of column: " + column + " does not fit a long at a scale of " + scale );
+
+      return unscaled.longValue();
+      }
+
+    public void encode( PreparedStatement statement, int index, Comparable value ) throws SQLException
+      {
+      statement.setBigDecimal( index, BigDecimal.valueOf( ( (Number) value ).longValue(), scale ) );
+      }
+
+    @Override
+    public boolean equals( Object object )
+      {
+      if( this == object )
+        return true;
+      if( !( object instanceof ScaledLongCodec ) )
+        return false;
+
+      return scale == ( (ScaledLongCodec) object ).scale;
+      }
+
+    @Override
+    public int hashCode()
+      {
+      return scale;
+      }
+    }
+
+  /**
+   * Class StringCodec holds values as their String form, for types like UUID or JSON that have no Comparable Java
+   * type. Values are written with setObject and the given target type, so the database converts them back.
+   */
+  public static class StringCodec implements TypeCodec
+    {
+    /** Field targetType */
+    private final int targetType;
+
+    /** Constructor StringCodec creates a new StringCodec instance, writing values as {@link Types#OTHER}. */
+    public StringCodec()
+      {
+      this( Types.OTHER );
+      }
+
+    /**
+     * Constructor StringCodec creates a new StringCodec instance.
+     *
+     * @param targetType of type int, the type values are written as
+     */
+    public StringCodec( int targetType )
+      {
+      this.targetType = targetType;
+      }
+
+    public Comparable decode( ResultSet resultSet, int column ) throws SQLException
+      {
+      return resultSet.getString( column );
+      }
+
+    public void encode( PreparedStatement statement, int index, Comparable value ) throws SQLException
+      {
+      statement.setObject( index, value.toString(), targetType );
+      }
+
+    @Override
+    public boolean equals( Object object )
+      {
+      if( this == object )
+        return true;
+      if( !( object instanceof StringCodec ) )
+        return false;
+
+      return targetType == ( (StringCodec) object ).targetType;
+      }
+
+    @Override
+    public int hashCode()
+      {
+      return targetType;
+      }
+    }
+
+  /** Class ArrayCodec holds ARRAY values as a Tuple of the array elements. */
+  public static class ArrayCodec implements TypeCodec
+    {
+    /** Field elementTypeName */
+    private final String elementTypeName;
+
+    /**
+     * Constructor ArrayCodec creates a new ArrayCodec instance.
+     *
+     * @param elementTypeName of type String, the database type name of the elements, used when writing
+     */
+    public ArrayCodec( String elementTypeName )
+      {
+      this.elementTypeName = elementTypeName;
+      }
+
+    public Comparable decode( ResultSet resultSet, int column ) throws SQLException
+      {
+      Array array = resultSet.getArray( column );
+
+      if( array == null )
+        return null;
+
+      Tuple tuple = new Tuple();
+
+      for( Object element : (Object[]) array.getArray() )
+        tuple.add( (Comparable) element );
+
+      return tuple;
+      }
+
+    public void encode( PreparedStatement statement, int index, Comparable value ) throws SQLException
+      {
+      Tuple tuple = (Tuple) value;
+      Object[] elements = new Object[tuple.size()];
+
+      for( int i = 0; i < elements.length; i++ )
+        elements[ i ] = tuple.get( i );
+
+      statement.setArray( index, statement.getConnection().createArrayOf( elementTypeName, elements ) );
+      }
+
+    @Override
+    public boolean equals( Object object )
+      {
+      if( this == object )
+        return true;
+      if( !( object instanceof ArrayCodec ) )
+        return false;
+
+      ArrayCodec that = (ArrayCodec) object;
+
+      return elementTypeName != null ? elementTypeName.equals( that.elementTypeName ) : that.elementTypeName == null;
+      }
+
+    @Override
+    public int hashCode()
+      {
+      return elementTypeName != null ? elementTypeName.hashCode() : 0;
+      }
+    }
+  }
@@ -0,0 +1,473 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cascading.jdbc.db.BatchDBWritable;
+import cascading.tuple.Tuple;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.JobConfigurable;
+
+/**
+ * Class ColumnBatch holds a batch of rows by column, so numeric values are read and consumed without boxing.
+ * <p/>
+ * Integral columns are held in a {@code long[]}, floating point columns in a {@code double[]}, and character
+ * columns as codes into a dictionary of the distinct strings of the batch. Any other column is held as objects.
+ * Nulls are held in a bitmap per column.
+ * <p/>
+ * Values are read by row and column with {@link #getLong(int, int)}, {@link #getDouble(int, int)} and
+ * {@link #getString(int, int)}, or as a Tuple per row with {@link #getTuple(int, Tuple)}.
+ * <p/>
+ * The same instance is refilled with every batch read, and it can not be written into a Tuple sent
+ * through a grouping, so consume it, or unroll it with {@link ColumnBatchRows}, before any GroupBy or CoGroup.
+ */
+public class ColumnBatch implements BatchDBWritable, Writable, JobConfigurable, Comparable<ColumnBatch>
+  {
+  /** The maximum number of rows held by each batch */
+  public static final String SIZE_PROPERTY = "cascading.jdbc.columnbatch.size";
+
+  /** Field LONG */
+  private static final byte LONG = 0;
+  /** Field DOUBLE */
+  private static final byte DOUBLE = 1;
+  /** Field STRING */
+  private static final byte STRING = 2;
+  /** Field OBJECT */
+  private static final byte OBJECT = 3;
+
+  private int capacity = 1024;
+  private int rows = 0;
+  private String[] names;
+  private byte[] kinds;
+  private long[][] nulls;
+  private long[][] longs;
+  private double[][] doubles;
+  private int[][] codes;
+  private List<String>[] dictionaries;
+  private Map<String, Integer>[] dictionaryCodes;
+  private Object[][] objects;
+
+  public ColumnBatch()
+    {
+    }
+
+  public void configure( JobConf job )
+    {
+    capacity = job.getInt( SIZE_PROPERTY, capacity );
+    }
+
+  /** @return the number of columns held */
+  public int getColumnCount()
+    {
+    return kinds == null ? 0 : kinds.length;
+    }
+
+  /**
+   * @param column the position of the column, starting at 0
+   * @return the label of the given column
+   */
+  public String getColumnName( int column )
+    {
+    return names[ column ];
+    }
+
+  public int getRows()
+    {
+    return rows;
+    }
+
+  public boolean isFull()
+    {
+    return rows == capacity;
+    }
+
+  public void clear()
+    {
+    rows = 0;
+
+    if( kinds == null )
+      return;
+
+    for( int i = 0; i < kinds.length; i++ )
+      {
+      Arrays.fill( nulls[ i ], 0 );
+
+      if( kinds[ i ] == STRING )
+        {
+        dictionaries[ i ].clear();
+        dictionaryCodes[ i ].clear();
+        }
+      }
+    }
+
+  public boolean isNull( int row, int column )
+    {
+    return ( nulls[ column ][ row >>> 6 ] & ( 1L << row ) ) != 0;
+    }
+
+  /** Returns the value at the given row and column as a long, or 0 if it is null. */
+  public long getLong( int row, int column )
+    {
+    if( kinds[ column ] == LONG )
+      return longs[ column ][ row ];
+
+    if( kinds[ column ] == DOUBLE )
+      return (long) doubles[ column ][ row ];
+
+    Object value = getObject( row, column );
+
+    return value == null ? 0 : value instanceof Number ? ( (Number) value ).longValue() : Long.parseLong( value.toString().trim() );
+    }
+
+  /** Returns the value at the given row and column as a double, or 0 if it is null. */
+  public double getDouble( int row, int column )
+    {
+    if( kinds[ column ] == DOUBLE )
+      return doubles[ column ][ row ];
+
+    if( kinds[ column ] == LONG )
+      return longs[ column ][ row ];
+
+    Object value = getObject( row, column );
+
+    return value == null ? 0 : value instanceof Number ? ( (Number) value ).doubleValue() : Double.parseDouble( value.toString().trim() );
+    }
+
+  /** Returns the value at the given row and column as a String, or null if it is null. */
+  public String getString( int row, int column )
+    {
+    if( isNull( row, column ) )
+      return null;
+
+    if( kinds[ column ] == STRING )
+      return dictionaries[ column ].get( codes[ column ][ row ] );
+
+    return getObject( row, column ).toString();
+    }
+
+  /**
+   * Returns the dictionary code of a character column value, the position of the value in {@link #getDictionary(int)}.
+   * Equal values of a batch have the same code.
+   */
+  public int getCode( int row, int column )
+    {
+    return codes[ column ][ row ];
+    }
+
+  /** Returns the distinct values of the given character column in this batch, or null for other columns. */
+  public List<String> getDictionary( int column )
+    {
+    return dictionaries[ column ];
+    }
+
+  /** Returns the value at the given row and column, boxing primitive values. */
+  public Comparable getObject( int row, int column )
+    {
+    if( isNull( row, column ) )
+      return null;
+
+    switch( kinds[ column ] )
+      {
+      case LONG:
+        return longs[ column ][ row ];
+      case DOUBLE:
+        return doubles[ column ][ row ];
+      case STRING:
+        return dictionaries[ column ].get( codes[ column ][ row ] );
+      default:
+        return (Comparable) objects[ column ][ row ];
+      }
+    }
+
+  /**
+   * Sets the values of the given row into the given Tuple, returning a new Tuple if the given Tuple is null or of
+   * another size.
+   */
+  public Tuple getTuple( int row, Tuple tuple )
+    {
+    if( tuple == null || tuple.size() != kinds.length )
+      tuple = Tuple.size( kinds.length );
+
+    for( int i = 0; i < kinds.length; i++ )
+      tuple.set( i, getObject( row, i ) );
+
+    return tuple;
+    }
+
+  /** Appends the current row of the given ResultSet to this batch. */
+  public void readFields( ResultSet resultSet ) throws SQLException
+    {
+    if( kinds == null )
+      initialize( resultSet.getMetaData() );
+
+    for( int i = 0; i < kinds.length; i++ )
+      {
+      switch( kinds[ i ] )
+        {
+        case LONG:
+          longs[ i ][ rows ] = resultSet.getLong( i + 1 );
+          break;
+        case DOUBLE:
+          doubles[ i ][ rows ] = resultSet.getDouble( i + 1 );
+          break;
+        case STRING:
+          String value = resultSet.getString( i + 1 );
+          codes[ i ][ rows ] = value == null ? -1 : getCode( i, value );
+          break;
+        default:
+          objects[ i ][ rows ] = resultSet.getObject( i + 1 );
+          break;
+        }
+
+      if( resultSet.wasNull() )
+        setNull( rows, i );
+      }
+
+    rows++;
+    }
+
+  public void write( PreparedStatement statement ) throws SQLException
+    {
+    throw new SQLException( "column batches can not be written to a table" );
+    }
+
+  public void write( DataOutput output ) throws IOException
+    {
+    WritableUtils.writeVInt( output, kinds.length );
+
+    for( int i = 0; i < kinds.length; i++ )
+      {
+      WritableUtils.writeString( output, names[ i ] );
+      output.writeByte( kinds[ i ] );
+      }
+
+    WritableUtils.writeVInt( output, rows );
+
+    for( int i = 0; i < kinds.length; i++ )
+      {
+      for( int word = 0; word < words( rows ); word++ )
+        output.writeLong( nulls[ i ][ word ] );
+
+      if( kinds[ i ] == STRING )
+        {
+        WritableUtils.writeVInt( output, dictionaries[ i ].size() );
+
+        for( String value : dictionaries[ i ] )
+          WritableUtils.writeString( output, value );
+        }
+
+      for( int row = 0; row < rows; row++ )
+        {
+        switch( kinds[ i ] )
+          {
+          case LONG:
+            WritableUtils.writeVLong( output, longs[ i ][ row ] );
+            break;
+          case DOUBLE:
+            output.writeDouble( doubles[ i ][ row ] );
+            break;
+          case STRING:
+            WritableUtils.writeVInt( output, codes[ i ][ row ] );
+            break;
+          default:
+            TupleRecord.writeValue( output, (Comparable) objects[ i ][ row ] );
+            break;
+          }
+        }
+      }
+    }
+
+  public void readFields( DataInput input ) throws IOException
+    {
+    int columns = WritableUtils.readVInt( input );
+    String[] names = new String[columns];
+    byte[] kinds = new byte[columns];
+
+    for( int i = 0; i < columns; i++ )
+      {
+      names[ i ] = WritableUtils.readString( input );
+      kinds[ i ] = input.readByte();
+      }
+
+    int rows = WritableUtils.readVInt( input );
+
+    if( this.kinds == null || !Arrays.equals( kinds, this.kinds ) || rows > capacity )
+      {
+      capacity = Math.max( capacity, rows );
+      allocate( names, kinds );
+      }
+
+    // the columns may only differ by their labels
+    this.names = names;
+
+    clear();
+
+    for( int i = 0; i < columns; i++ )
+      {
+      for( int word = 0; word < words( rows ); word++ )
+        nulls[ i ][ word ] = input.readLong();
+
+      if( kinds[ i ] == STRING )
+        {
+        int size = WritableUtils.readVInt( input );
+
+        for( int code = 0; code < size; code++ )
+          getCode( i, WritableUtils.readString( input ) );
+        }
+
+      for( int row = 0; row < rows; row++ )
+        {
+        switch( kinds[ i ] )
+          {
+          case LONG:
+            longs[ i ][ row ] = WritableUtils.readVLong( input );
+            break;
+          case DOUBLE:
+            doubles[ i ][ row ] = input.readDouble();
+            break;
+          case STRING:
+            codes[ i ][ row ] = WritableUtils.readVInt( input );
+            break;
+          default:
+            objects[ i ][ row ] = TupleRecord.readValue( input );
+            break;
+          }
+        }
+      }
+
+    this.rows = rows;
+    }
+
+  /** Batches have no natural order, they are only ordered by their number of rows. */
+  public int compareTo( ColumnBatch batch )
+    {
+    return rows < batch.rows ? -1 : rows == batch.rows ? 0 : 1;
+    }
+
+  private void initialize( ResultSetMetaData metaData ) throws SQLException
+    {
+    String[] names = new String[metaData.getColumnCount()];
+    byte[] kinds = new byte[names.length];
+
+    for( int i = 0; i < names.length; i++ )
+      {
+      names[ i ] = metaData.getColumnLabel( i + 1 );
+      kinds[ i ] = getKind( metaData.getColumnType( i + 1 ), metaData.getPrecision( i + 1 ), metaData.getScale( i + 1 ) );
+      }
+
+    allocate( names, kinds );
+    }
+
+  private static byte getKind( int type, int precision, int scale )
+    {
+    switch( type )
+      {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+        return LONG;
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        return scale == 0 && precision > 0 && precision <= 18 ? LONG : OBJECT;
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return DOUBLE;
+      case Types.CHAR:
+      case Types.VARCHAR:
+      case Types.NCHAR:
+      case Types.NVARCHAR:
+        return STRING;
+      default:
+        return OBJECT;
+      }
+    }
+
+  @SuppressWarnings("unchecked")
+  private void allocate( String[] names, byte[] kinds )
+    {
+    this.names = names;
+    this.kinds = kinds;
+
+    nulls = new long[kinds.length][];
+    longs = new long[kinds.length][];
+    doubles = new double[kinds.length][];
+    codes = new int[kinds.length][];
+    dictionaries = new List[kinds.length];
+    dictionaryCodes = new Map[kinds.length];
+    objects = new Object[kinds.length][];
+
+    for( int i = 0; i < kinds.length; i++ )
+      {
+      nulls[ i ] = new long[words( capacity )];
+
+      switch( kinds[ i ] )
+        {
+        case LONG:
+          longs[ i ] = new long[capacity];
+          break;
+        case DOUBLE:
+          doubles[ i ] = new double[capacity];
+          break;
+        case STRING:
+          codes[ i ] = new int[capacity];
+          dictionaries[ i ] = new ArrayList<String>();
+          dictionaryCodes[ i ] = new HashMap<String, Integer>();
+          break;
+        default:
+          objects[ i ] = new Object[capacity];
+          break;
+        }
+      }
+    }
+
+  private int getCode( int column, String value )
+    {
+    Integer code = dictionaryCodes[ column ].get( value );
+
+    if( code == null )
+      {
+      code = dictionaries[ column ].size();
+      dictionaries[ column ].add( value );
+      dictionaryCodes[ column ].put( value, code );
+      }
+
+    return code;
+    }
+
+  private void setNull( int row, int column )
+    {
+    nulls[ column ][ row >>> 6 ] |= 1L << row;
+    }
+
+  private static int words( int rows )
+    {
+    return ( rows + 63 ) >>> 6;
+    }
+  }
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.tuple.Fields;
+
+/**
+ * Class ColumnBatchRows is a {@link Function} that unrolls the {@link ColumnBatch} argument into one Tuple per row,
+ * declared as the given fieldDeclaration.
+ * <p/>
+ * Use it after any operations consuming the batches directly, and before any grouping.
+ */
+public class ColumnBatchRows extends BaseOperation implements Function
+  {
+  /**
+   * Constructor ColumnBatchRows creates a new ColumnBatchRows instance.
+   *
+   * @param fieldDeclaration of type Fields
+   */
+  public ColumnBatchRows( Fields fieldDeclaration )
+    {
+    super( 1, fieldDeclaration );
+    }
+
+  public void operate( FlowProcess flowProcess, FunctionCall functionCall )
+    {
+    ColumnBatch batch = (ColumnBatch) functionCall.getArguments().getTuple().get( 0 );
+
+    for( int row = 0; row < batch.getRows(); row++ )
+      functionCall.getOutputCollector().add( batch.getTuple( row, null ) );
+    }
+  }
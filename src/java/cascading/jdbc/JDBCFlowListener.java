@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import cascading.flow.Flow;
+import cascading.flow.FlowListener;
+import cascading.tap.Tap;
+
+/**
+ * Class JDBCFlowListener completes the work of the {@link JDBCTap} sinks of a {@link Flow} once all its tasks
+ * have committed, like adding the primary key and indexes of tables created with
+ * {@link TableDesc#setDeferIndexes(boolean)}, or swapping in the tables loaded with
+ * {@link JDBCTap.ReplaceStrategy#SWAP}. It also releases the snapshots exported for the JDBCTap sources
+ * read with {@link JDBCTap#setSnapshot(boolean)}.
+ * <p/>
+ * Add an instance to each Flow reading or writing a JDBCTap with deferred work, before the Flow is started:
+ * <pre>
+ * flow.addListener( new JDBCFlowListener() );
+ * </pre>
+ * The snapshots are released however the Flow ends, nothing else is done if the Flow fails or is stopped.
+ */
+public class JDBCFlowListener implements FlowListener
+  {
+  /** Field failed, true if the Flow failed or was stopped */
+  private boolean failed = false;
+
+  public void onStarting( Flow flow )
+    {
+    failed = false;
+    }
+
+  public void onStopping( Flow flow )
+    {
+    failed = true;
+    }
+
+  public void onCompleted( Flow flow )
+    {
+    sourcesCompleted( flow );
+
+    if( failed )
+      return;
+
+    for( Tap sink : flow.getSinks().values() )
+      {
+      if( sink instanceof JDBCTap )
+        ( (JDBCTap) sink ).sinkCompleted();
+      }
+    }
+
+  public boolean onThrowable( Flow flow, Throwable throwable )
+    {
+    failed = true;
+
+    sourcesCompleted( flow );
+
+    return false;
+    }
+
+  private void sourcesCompleted( Flow flow )
+    {
+    for( Tap source : flow.getSources().values() )
+      {
+      if( source instanceof JDBCTap )
+        ( (JDBCTap) source ).sourceCompleted();
+      }
+    }
+  }
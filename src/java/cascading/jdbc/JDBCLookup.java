@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.tap.TapException;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class JDBCLookup is a {@link Function} that joins each argument key against a table by querying the database
+ * directly, instead of reading the whole table through a {@link JDBCTap} and performing a CoGroup.
+ * <p/>
+ * The connection settings and table name are taken from the given JDBCTap. The single argument is the key value,
+ * and the result is the given valueColumns of the matching row, declared as the given fieldDeclaration.
+ * <p/>
+ * Each task keeps a least recently used cache of up to {@link #setCacheSize(int)} keys, each entry expiring after
+ * {@link #setTimeToLive(long)} milliseconds. Keys with no matching row are cached as well, so repeated misses do not
+ * query the database. By default nothing is emitted for a missing key, call {@link #setOuterJoin(boolean)} to emit
+ * {@code null} values instead.
+ * <p/>
+ * The hits, negative hits and misses are reported through the {@link Counters} enum, each miss querying the
+ * database once.
+ */
+public class JDBCLookup extends BaseOperation<JDBCLookup.Context> implements Function<JDBCLookup.Context>
+  {
+  /** Field LOG */
+  private static final Logger LOG = LoggerFactory.getLogger( JDBCLookup.class );
+
+  /** Counters reported by this Function. */
+  public enum Counters
+    {
+      Hits, NegativeHits, Misses
+    }
+
+  /** Field tap */
+  private JDBCTap tap;
+  /** Field keyColumn */
+  private String keyColumn;
+  /** Field valueColumns */
+  private String[] valueColumns;
+  /** Field cacheSize */
+  private int cacheSize = 10000;
+  /** Field timeToLive */
+  private long timeToLive = -1;
+  /** Field outerJoin */
+  private boolean outerJoin = false;
+
+  /** Class CacheEntry holds the values found for a key, or null if none were found. */
+  private static class CacheEntry
+    {
+    Tuple values;
+    long expires;
+
+    CacheEntry( Tuple values, long expires )
+      {
+      this.values = values;
+      this.expires = expires;
+      }
+    }
+
+  /** Class Context holds the per task connection and cache. */
+  public static class Context
+    {
+    Connection connection;
+    PreparedStatement statement;
+    Map<Object, CacheEntry> cache;
+    /** the values found by the last fetch, null if none */
+    Tuple values;
+    }
+
+  /**
+   * Constructor JDBCLookup creates a new JDBCLookup instance.
+   *
+   * @param fieldDeclaration of type Fields
+   * @param tap              of type JDBCTap
+   * @param keyColumn        of type String
+   * @param valueColumns     of type String[]
+   */
+  public JDBCLookup( Fields fieldDeclaration, JDBCTap tap, String keyColumn, String[] valueColumns )
+    {
+    super( 1, fieldDeclaration );
+    this.tap = tap;
+    this.keyColumn = keyColumn;
+    this.valueColumns = valueColumns;
+
+    if( fieldDeclaration.size() != valueColumns.length )
+      throw new IllegalArgumentException( "fieldDeclaration and valueColumns must be the same size" );
+    }
+
+  /**
+   * Method setCacheSize sets the maximum number of keys cached by each task.
+   *
+   * @param cacheSize the cacheSize of this JDBCLookup object.
+   */
+  public void setCacheSize( int cacheSize )
+    {
+    this.cacheSize = cacheSize;
+    }
+
+  /**
+   * Method getCacheSize returns the maximum number of keys cached by each task.
+   *
+   * @return the cacheSize (type int) of this JDBCLookup object.
+   */
+  public int getCacheSize()
+    {
+    return cacheSize;
+    }
+
+  /**
+   * Method setTimeToLive sets the number of milliseconds a cached key remains valid. A value of -1, the default,
+   * keeps entries until they are evicted.
+   *
+   * @param timeToLive the timeToLive of this JDBCLookup object.
+   */
+  public void setTimeToLive( long timeToLive )
+    {
+    this.timeToLive = timeToLive;
+    }
+
+  /**
+   * Method getTimeToLive returns the number of milliseconds a cached key remains valid.
+   *
+   * @return the timeToLive (type long) of this JDBCLookup object.
+   */
+  public long getTimeToLive()
+    {
+    return timeToLive;
+    }
+
+  /**
+   * Method setOuterJoin sets if a Tuple of {@code null} values should be emitted for keys with no matching row.
+   *
+   * @param outerJoin the outerJoin of this JDBCLookup object.
+   */
+  public void setOuterJoin( boolean outerJoin )
+    {
+    this.outerJoin = outerJoin;
+    }
+
+  /**
+   * Method isOuterJoin returns true if a Tuple of {@code null} values is emitted for keys with no matching row.
+   *
+   * @return the outerJoin (type boolean) of this JDBCLookup object.
+   */
+  public boolean isOuterJoin()
+    {
+    return outerJoin;
+    }
+
+  @Override
+  public void prepare( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    operationCall.setContext( openContext() );
+    }
+
+  Context openContext()
+    {
+    Context context = new Context();
+
+    context.connection = tap.createConnection();
+    context.cache = new LinkedHashMap<Object, CacheEntry>( 16, 0.75f, true )
+    {
+    @Override
+    protected boolean removeEldestEntry( Map.Entry<Object, CacheEntry> eldest )
+      {
+      return size() > cacheSize;
+      }
+    };
+
+    String query = getLookupQuery();
+
+    try
+      {
+      context.statement = context.connection.prepareStatement( query );
+      }
+    catch( SQLException exception )
+      {
+      throw new TapException( "unable to prepare lookup query: " + query, exception );
+      }
+
+    return context;
+    }
+
+  /**
+   * Returns the query used to look up the values of a single key,
+   * subclasses can override this for custom behaviour.
+   */
+  protected String getLookupQuery()
+    {
+    return String.format( "SELECT %s FROM %s WHERE %s = ?", Util.join( valueColumns, ", " ), tap.getTableName(), keyColumn );
+    }
+
+  public void operate( FlowProcess flowProcess, FunctionCall<Context> functionCall )
+    {
+    Context context = functionCall.getContext();
+    Object key = functionCall.getArguments().getTuple().get( 0 );
+
+    flowProcess.increment( fetch( context, key, System.currentTimeMillis() ), 1 );
+
+    if( context.values != null )
+      functionCall.getOutputCollector().add( context.values );
+    else if( outerJoin )
+      functionCall.getOutputCollector().add( Tuple.size( valueColumns.length ) );
+    }
+
+  /**
+   * Sets the values of the given key on the given context, from the cache or else the database, and returns
+   * where they were found.
+   */
+  Counters fetch( Context context, Object key, long now )
+    {
+    CacheEntry entry = context.cache.get( key );
+
+    if( entry != null && entry.expires != -1 && entry.expires < now )
+      entry = null;
+
+    if( entry != null )
+      {
+      context.values = entry.values;
+
+      return entry.values != null ? Counters.Hits : Counters.NegativeHits;
+      }
+
+    entry = new CacheEntry( lookup( context, key ), timeToLive == -1 ? -1 : now + timeToLive );
+    context.cache.put( key, entry );
+    context.values = entry.values;
+
+    return Counters.Misses;
+    }
+
+  private Tuple lookup( Context context, Object key )
+    {
+    try
+      {
+      context.statement.setObject( 1, key );
+
+      ResultSet resultSet = context.statement.executeQuery();
+
+      try
+        {
+        if( !resultSet.next() )
+          return null;
+
+        Tuple values = new Tuple();
+
+        for( int i = 0; i < valueColumns.length; i++ )
+          values.add( (Comparable) resultSet.getObject( i + 1 ) );
+
+        return values;
+        }
+      finally
+        {
+        resultSet.close();
+        }
+      }
+    catch( SQLException exception )
+      {
+      throw new TapException( "unable to look up key: " + key, exception );
+      }
+    }
+
+  @Override
+  public void cleanup( FlowProcess flowProcess, OperationCall<Context> operationCall )
+    {
+    closeContext( operationCall.getContext() );
+
+    operationCall.setContext( null );
+    }
+
+  void closeContext( Context context )
+    {
+    if( context == null )
+      return;
+
+    try
+      {
+      context.statement.close();
+      context.connection.commit();
+      context.connection.close();
+      }
+    catch( SQLException exception )
+      {
+      // ignore
+      LOG.warn( "ignoring connection close exception", exception );
+      }
+    }
+  }
@@ -0,0 +1,513 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cascading.operation.Filter;
+import cascading.operation.Identity;
+import cascading.operation.Operation;
+import cascading.operation.aggregator.Average;
+import cascading.operation.aggregator.Count;
+import cascading.operation.aggregator.Max;
+import cascading.operation.aggregator.Min;
+import cascading.operation.aggregator.Sum;
+import cascading.pipe.Each;
+import cascading.pipe.Every;
+import cascading.pipe.GroupBy;
+import cascading.pipe.Pipe;
+import cascading.tap.Tap;
+import cascading.tap.TapException;
+import cascading.tuple.Fields;
+import cascading.util.Util;
+import org.apache.hadoop.mapred.JobConf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class JDBCPlanner rewrites {@link JDBCTap} sources so that work done directly downstream of them in a pipe
+ * assembly is instead performed by the database.
+ * <p/>
+ * Call {@link #pushDown(java.util.Map, cascading.pipe.Pipe[])} with the sources map and assembly tails before
+ * handing them to the {@link cascading.flow.FlowConnector}. For every JDBCTap source, the pipes following its
+ * head are inspected in order:
+ * <ul>
+ * <li>{@link Each} pipes with a {@link SQLFilter} have their condition added to the select query WHERE clause</li>
+ * <li>the first other {@link Each} pipe, if it only selects column fields as arguments and only keeps its results,
+ * limits the select query to those columns, along with the columns read by the preceding filters</li>
+ * </ul>
+ * Inspection stops at the first pipe that is not one of the above, or that has more than one successor.
+ * The pipe assembly itself is left unchanged, so the results are the same with or without push down.
+ * <p/>
+ * When reading from and writing to the same database, {@link #executeInDatabase(Tap, Tap, Pipe)} can run
+ * simple assemblies entirely as SQL.
+ */
+public class JDBCPlanner
+  {
+  /** Field LOG */
+  private static final Logger LOG = LoggerFactory.getLogger( JDBCPlanner.class );
+
+  /**
+   * Method pushDown returns a copy of the given sources map with every eligible {@link JDBCTap} replaced by a copy
+   * that performs the filtering and projection of its directly downstream pipes.
+   *
+   * @param sources of type Map<String, Tap>
+   * @param tails   of type Pipe...
+   * @return Map<String, Tap>
+   */
+  public static Map<String, Tap> pushDown( Map<String, Tap> sources, Pipe... tails )
+    {
+    Map<Pipe, List<Pipe>> successors = getSuccessors( tails );
+    Map<String, Tap> results = new HashMap<String, Tap>( sources );
+
+    for( Pipe head : successors.keySet() )
+      {
+      if( head.getPrevious().length != 0 )
+        continue;
+
+      Tap tap = sources.get( head.getName() );
+
+      if( !( tap instanceof JDBCTap ) || !( tap.getScheme() instanceof JDBCScheme ) )
+        continue;
+
+      JDBCScheme scheme = (JDBCScheme) tap.getScheme();
+
+      // column batches hold every column of many rows in a single field
+      if( scheme.getSelectQuery() != null || scheme.getBatchSize() > 0 )
+        continue;
+
+      JDBCScheme narrowed = pushDown( scheme, head, successors );
+
+      if( narrowed != scheme )
+        results.put( head.getName(), ( (JDBCTap) tap ).copyWith( narrowed ) );
+      }
+
+    return results;
+    }
+
+  /**
+   * Method executeInDatabase runs the given single branch pipe assembly as one {@code INSERT INTO ... SELECT}
+   * statement when both source and sink are {@link JDBCTap} instances on the same database, skipping the
+   * MapReduce job entirely. Returns {@code false} without doing anything if the assembly cannot be expressed
+   * in SQL, in which case the Flow should be run as usual.
+   * <p/>
+   * Supported assemblies consist of exact {@link SQLFilter} and {@link Identity} {@link Each} pipes, optionally followed
+   * by a {@link GroupBy} and {@link Every} pipes with the {@link Count}, {@link Sum}, {@link Max}, {@link Min} and
+   * {@link Average} aggregators. The sink fields are bound to the resulting fields by name. Filters are only run
+   * as SQL if {@link SQLFilter#isExact()} returns true.
+   *
+   * @param source of type Tap
+   * @param sink   of type Tap
+   * @param tail   of type Pipe
+   * @return boolean
+   * @throws IOException when the sink table cannot be dropped or created
+   */
+  public static boolean executeInDatabase( Tap source, Tap sink, Pipe tail ) throws IOException
+    {
+    if( !( source instanceof JDBCTap ) || !( sink instanceof JDBCTap ) || source instanceof PartitionedJDBCTap )
+      return false;
+
+    JDBCTap sourceTap = (JDBCTap) source;
+    JDBCTap sinkTap = (JDBCTap) sink;
+
+    if( !sinkTap.isSink() || !sameDatabase( sourceTap, sinkTap ) )
+      return false;
+
+    JDBCScheme sourceScheme = (JDBCScheme) sourceTap.getScheme();
+    JDBCScheme sinkScheme = (JDBCScheme) sinkTap.getScheme();
+
+    if( sourceScheme.getSelectQuery() != null || sourceScheme.getLimit() != -1 || sinkScheme.getUpdateBy() != null )
+      return false;
+
+    if( sourceScheme.getBatchSize() > 0 || sinkScheme.getBatchSize() > 0 )
+      return false;
+
+    String insert = getInsertSelect( sourceTap, sinkTap, tail );
+
+    if( insert == null )
+      return false;
+
+    JobConf conf = new JobConf();
+
+    if( sinkTap.isReplace() && !sinkTap.deletePath( conf ) )
+      throw new TapException( sinkTap.getReplaceFailure() );
+
+    if( !sinkTap.makeDirs( conf ) )
+      throw new TapException( "unable to create table: " + sinkTap.getSinkTableName() );
+
+    int rows = sinkTap.executeUpdate( insert );
+
+    LOG.info( "inserted {} rows into: {}", rows, sinkTap.getSinkTableName() );
+
+    sinkTap.sinkCompleted();
+
+    return true;
+    }
+
+  private static boolean sameDatabase( JDBCTap source, JDBCTap sink )
+    {
+    if( source.connectionUrl == null || !source.connectionUrl.equals( sink.connectionUrl ) )
+      return false;
+
+    return source.username == null ? sink.username == null : source.username.equals( sink.username );
+    }
+
+  private static String getInsertSelect( JDBCTap source, JDBCTap sink, Pipe tail )
+    {
+    List<Pipe> pipes = new ArrayList<Pipe>();
+
+    for( Pipe current = tail; current != null; )
+      {
+      pipes.add( 0, current );
+
+      Pipe[] previous = current.getPrevious();
+
+      if( previous.length > 1 )
+        return null;
+
+      current = previous.length == 0 ? null : previous[ 0 ];
+      }
+
+    JDBCScheme sourceScheme = (JDBCScheme) source.getScheme();
+    Fields columnFields = sourceScheme.getColumnFields();
+    String[] columns = sourceScheme.getColumns();
+
+    // field name to select expression, in field order
+    Map<Comparable, String> expressions = new LinkedHashMap<Comparable, String>();
+
+    for( int i = 0; i < columnFields.size(); i++ )
+      expressions.put( columnFields.get( i ), columns[ i ] );
+
+    List<String> conditions = new ArrayList<String>();
+
+    if( sourceScheme.getConditions() != null )
+      conditions.add( sourceScheme.getConditions() );
+
+    List<String> groupBy = null;
+
+    for( Pipe pipe : pipes )
+      {
+      if( pipe.getClass() == Pipe.class )
+        continue;
+
+      if( pipe instanceof Each && groupBy == null )
+        {
+        Operation operation = ( (Each) pipe ).getOperation();
+
+        if( operation instanceof SQLFilter && ( (SQLFilter) operation ).isExact() )
+          conditions.add( ( (SQLFilter) operation ).getCondition() );
+        else if( !( operation instanceof Identity ) || !operation.getFieldDeclaration().isArguments() || !selectExpressions( (Each) pipe, expressions ) )
+          return null;
+        }
+      else if( pipe instanceof GroupBy && groupBy == null )
+        {
+        Map<String, Fields> selectors = ( (GroupBy) pipe ).getGroupingSelectors();
+
+        if( selectors.size() != 1 )
+          return null;
+
+        Fields groupFields = selectors.values().iterator().next();
+        Map<Comparable, String> grouped = new LinkedHashMap<Comparable, String>();
+
+        for( int i = 0; i < groupFields.size(); i++ )
+          {
+          String expression = expressions.get( groupFields.get( i ) );
+
+          if( expression == null )
+            return null;
+
+          grouped.put( groupFields.get( i ), expression );
+          }
+
+        groupBy = new ArrayList<String>( grouped.values() );
+        expressions = grouped;
+        }
+      else if( pipe instanceof Every && groupBy != null )
+        {
+        Every every = (Every) pipe;
+
+        if( every.getOutputSelector() == null || !every.getOutputSelector().isAll() )
+          return null;
+
+        Fields declared = every.getOperation().getFieldDeclaration();
+
+        if( declared.size() != 1 )
+          return null;
+
+        String aggregate = getAggregate( every, columnFields, columns );
+
+        if( aggregate == null )
+          return null;
+
+        expressions.put( declared.get( 0 ), aggregate );
+        }
+      else
+        {
+        return null;
+        }
+      }
+
+    JDBCScheme sinkScheme = (JDBCScheme) sink.getScheme();
+    Fields sinkFields = sinkScheme.getColumnFields();
+    List<String> selects = new ArrayList<String>();
+
+    for( int i = 0; i < sinkFields.size(); i++ )
+      {
+      String expression = expressions.get( sinkFields.get( i ) );
+
+      if( expression == null )
+        return null;
+
+      selects.add( expression );
+      }
+
+    StringBuilder query = new StringBuilder();
+
+    query.append( "INSERT INTO " ).append( sink.getSinkTableName() );
+    query.append( " ( " ).append( Util.join( sinkScheme.getColumns(), ", " ) ).append( " )" );
+    query.append( " SELECT " ).append( Util.join( selects, ", " ) );
+    query.append( " FROM " ).append( source.getTableName() );
+
+    if( !conditions.isEmpty() )
+      query.append( " WHERE (" ).append( Util.join( conditions, ") AND (" ) ).append( ")" );
+
+    if( groupBy != null )
+      query.append( " GROUP BY " ).append( Util.join( groupBy, ", " ) );
+
+    return query.toString();
+    }
+
+  /** Narrows the given expressions to the argument fields of the given Identity, if any. */
+  private static boolean selectExpressions( Each each, Map<Comparable, String> expressions )
+    {
+    Fields argumentSelector = each.getArgumentSelector();
+
+    if( argumentSelector == null || argumentSelector.size() == 0 )
+      return true;
+
+    if( each.getOutputSelector() == null || !each.getOutputSelector().isResults() )
+      return false;
+
+    Map<Comparable, String> selected = new LinkedHashMap<Comparable, String>();
+
+    for( int i = 0; i < argumentSelector.size(); i++ )
+      {
+      String expression = expressions.get( argumentSelector.get( i ) );
+
+      if( expression == null )
+        return false;
+
+      selected.put( argumentSelector.get( i ), expression );
+      }
+
+    expressions.clear();
+    expressions.putAll( selected );
+
+    return true;
+    }
+
+  private static String getAggregate( Every every, Fields columnFields, String[] columns )
+    {
+    Operation operation = every.getOperation();
+
+    if( operation instanceof Count )
+      return "COUNT(*)";
+
+    Fields argumentSelector = every.getArgumentSelector();
+
+    if( argumentSelector == null || argumentSelector.size() != 1 )
+      return null;
+
+    String column = null;
+
+    for( int i = 0; i < columnFields.size(); i++ )
+      {
+      if( columnFields.get( i ).equals( argumentSelector.get( 0 ) ) )
+        column = columns[ i ];
+      }
+
+    if( column == null )
+      return null;
+
+    // the Cascading aggregators read their arguments as doubles, so MAX and MIN of text columns compare
+    // numerically, and integer averages do not truncate
+    String argument = "CAST(" + column + " AS DOUBLE PRECISION)";
+
+    if( operation instanceof Sum )
+      return "SUM(" + argument + ")";
+    else if( operation instanceof Max )
+      return "MAX(" + argument + ")";
+    else if( operation instanceof Min )
+      return "MIN(" + argument + ")";
+    else if( operation instanceof Average )
+      return "AVG(" + argument + ")";
+
+    return null;
+    }
+
+  private static JDBCScheme pushDown( JDBCScheme scheme, Pipe head, Map<Pipe, List<Pipe>> successors )
+    {
+    List<String> conditions = new ArrayList<String>();
+    List<Comparable> filterFields = new ArrayList<Comparable>();
+    boolean projectable = true;
+    Fields projection = null;
+    Pipe current = head;
+
+    while( current != null )
+      {
+      if( current instanceof Each )
+        {
+        Operation operation = ( (Each) current ).getOperation();
+
+        if( operation instanceof SQLFilter )
+          {
+          conditions.add( ( (SQLFilter) operation ).getCondition() );
+
+          // filters reading all fields read them by position, so the columns must not change
+          projectable &= addFields( filterFields, ( (Each) current ).getArgumentSelector() );
+          }
+        else
+          {
+          if( !( operation instanceof Filter ) && projectable )
+            projection = getProjection( (Each) current, scheme.getColumnFields(), filterFields );
+
+          break;
+          }
+        }
+      else if( current.getClass() != Pipe.class )
+        {
+        break;
+        }
+
+      List<Pipe> next = successors.get( current );
+
+      current = next.size() == 1 ? next.get( 0 ) : null;
+      }
+
+    if( conditions.isEmpty() && projection == null )
+      return scheme;
+
+    String condition = null;
+
+    for( String value : conditions )
+      condition = condition == null ? "(" + value + ")" : condition + " AND (" + value + ")";
+
+    LOG.info( "pushing down to: {}, condition: {}, projection: {}", new Object[]{head.getName(), condition, projection} );
+
+    return scheme.pushDown( condition, projection );
+    }
+
+  /** Adds the given argument fields to the given list, returns false if they are not a defined set of fields. */
+  private static boolean addFields( List<Comparable> fields, Fields argumentSelector )
+    {
+    if( argumentSelector == null || !argumentSelector.isDefined() || argumentSelector.size() == 0 )
+      return false;
+
+    for( int i = 0; i < argumentSelector.size(); i++ )
+      {
+      if( !fields.contains( argumentSelector.get( i ) ) )
+        fields.add( argumentSelector.get( i ) );
+      }
+
+    return true;
+    }
+
+  /**
+   * Returns the argument fields and the given filter fields if they are all column fields and nothing else from
+   * the input is kept.
+   */
+  private static Fields getProjection( Each each, Fields columnFields, List<Comparable> filterFields )
+    {
+    Fields outputSelector = each.getOutputSelector();
+
+    if( outputSelector == null || !outputSelector.isResults() )
+      return null;
+
+    List<Comparable> fields = new ArrayList<Comparable>();
+
+    if( !addFields( fields, each.getArgumentSelector() ) )
+      return null;
+
+    for( Comparable field : filterFields )
+      {
+      if( !fields.contains( field ) )
+        fields.add( field );
+      }
+
+    if( fields.size() == columnFields.size() )
+      return null;
+
+    for( Comparable field : fields )
+      {
+      boolean found = false;
+
+      for( int j = 0; j < columnFields.size(); j++ )
+        found |= columnFields.get( j ).equals( field );
+
+      if( !found )
+        return null;
+      }
+
+    return new Fields( fields.toArray( new Comparable[fields.size()] ) );
+    }
+
+  private static Map<Pipe, List<Pipe>> getSuccessors( Pipe... tails )
+    {
+    Map<Pipe, List<Pipe>> successors = new IdentityHashMap<Pipe, List<Pipe>>();
+    List<Pipe> pending = new ArrayList<Pipe>();
+
+    for( Pipe tail : tails )
+      {
+      if( !successors.containsKey( tail ) )
+        successors.put( tail, new ArrayList<Pipe>() );
+
+      pending.add( tail );
+      }
+
+    while( !pending.isEmpty() )
+      {
+      Pipe pipe = pending.remove( pending.size() - 1 );
+
+      for( Pipe previous : pipe.getPrevious() )
+        {
+        if( !successors.containsKey( previous ) )
+          {
+          successors.put( previous, new ArrayList<Pipe>() );
+          pending.add( previous );
+          }
+
+        if( !containsPipe( successors.get( previous ), pipe ) )
+          successors.get( previous ).add( pipe );
+        }
+      }
+
+    return successors;
+    }
+
+  private static boolean containsPipe( List<Pipe> pipes, Pipe pipe )
+    {
+    for( Pipe value : pipes )
+      {
+      if( value == pipe )
+        return true;
+      }
+
+    return false;
+    }
+  }
@@ -13,10 +13,13 @@
 package cascading.jdbc;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import cascading.jdbc.db.DBInputFormat;
 import cascading.jdbc.db.DBOutputFormat;
+import cascading.jdbc.db.DBWritable;
 import cascading.scheme.Scheme;
 import cascading.tap.Tap;
 import cascading.tap.TapException;
@@ -40,7 +43,7 @@ import org.apache.hadoop.mapred.OutputCollector;
  * <p/>
  * Override this class, {@link DBInputFormat}, and {@link DBOutputFormat} to specialize for a given vendor database.
  */
-public class JDBCScheme extends Scheme
+public class JDBCScheme extends Scheme implements Cloneable
   {
   private Class<? extends DBInputFormat> inputFormatClass;
   private Class<? extends DBOutputFormat> outputFormatClass;
@@ -55,6 +58,28 @@ public class JDBCScheme extends Scheme
   private String selectQuery;
   private String countQuery;
   private long limit = -1;
+  private boolean updateAuto = false;
+  private boolean reuse = false;
+  private String lobPath;
+  private String[] lobColumns;
+  private int batchSize = 0;
+  private int dictionarySize = 0;
+  private CodecRegistry codecs;
+
+  /** Field positionsFields, the incoming fields the sink positions were computed for */
+  private transient Fields positionsFields;
+  /** Field valuePositions */
+  private transient int[] valuePositions;
+  /** Field updatePositions */
+  private transient int[] updatePositions;
+  /** Field sinkValues */
+  private transient Tuple sinkValues;
+  /** Field sinkRecord */
+  private transient TupleRecord sinkRecord;
+  /** Field lobPositions, the sink values streamed from files */
+  private transient boolean[] lobPositions;
+  /** Field sinkColumnNames, the column name of each sink value */
+  private transient String[] sinkColumnNames;
 
   /**
    * Constructor JDBCScheme creates a new JDBCScheme instance.
@@ -506,21 +531,332 @@ public class JDBCScheme extends Scheme
     return orderBy;
     }
 
+  /**
+   * Method getColumnFields returns the columnFields of this JDBCScheme object.
+   *
+   * @return the columnFields (type Fields) of this JDBCScheme object.
+   */
+  public Fields getColumnFields()
+    {
+    return columnFields;
+    }
+
+  /**
+   * Method getConditions returns the conditions of this JDBCScheme object.
+   *
+   * @return the conditions (type String) of this JDBCScheme object.
+   */
+  public String getConditions()
+    {
+    return conditions;
+    }
+
+  /**
+   * Method getUpdateBy returns the updateBy column names of this JDBCScheme object.
+   *
+   * @return the updateBy (type String[]) of this JDBCScheme object.
+   */
+  public String[] getUpdateBy()
+    {
+    return updateBy;
+    }
+
+  /**
+   * Method setUpdateAuto sets if each sunk Tuple should be routed to an UPDATE or INSERT statement by checking if
+   * its updateBy values already exist in the table, instead of by the values being {@code null}.
+   * <p/>
+   * Each task loads the existing updateBy values with a single streamed query when it starts. Large tables are
+   * held as a Bloom filter, where each possible match is confirmed with a per row query.
+   *
+   * @param updateAuto the updateAuto of this JDBCScheme object.
+   */
+  public void setUpdateAuto( boolean updateAuto )
+    {
+    if( updateAuto && updateBy == null )
+      throw new IllegalStateException( "updateBy column names are required to route updates" );
+
+    this.updateAuto = updateAuto;
+    }
+
+  /**
+   * Method isUpdateAuto returns true if sunk Tuples are routed by checking if their updateBy values exist.
+   *
+   * @return the updateAuto (type boolean) of this JDBCScheme object.
+   */
+  public boolean isUpdateAuto()
+    {
+    return updateAuto;
+    }
+
+  /**
+   * Method setReuse sets if a single Tuple instance should be reused for every row read and written, instead of
+   * allocating new Tuples per row.
+   * <p/>
+   * Only enable this if no downstream operation holds on to the source Tuples across calls, as their values will
+   * change with every row read.
+   *
+   * @param reuse the reuse of this JDBCScheme object.
+   */
+  public void setReuse( boolean reuse )
+    {
+    this.reuse = reuse;
+    }
+
+  /**
+   * Method isReuse returns true if a single Tuple instance is reused for every row read and written.
+   *
+   * @return the reuse (type boolean) of this JDBCScheme object.
+   */
+  public boolean isReuse()
+    {
+    return reuse;
+    }
+
+  /**
+   * Method setLobPath sets the path large object values read are streamed into, so they are never held in memory.
+   * <p/>
+   * Each BLOB, CLOB and LONGVAR column value, and each value of the columns given to {@link #setLobColumns(String[])},
+   * is copied into its own file under the given path, and the Tuple holds the fully qualified path of that file
+   * instead of the value. Character values are written as UTF-8 into files ending with {@code .clob}, binary values
+   * into files ending with {@code .blob}. The files are not removed when the Flow completes.
+   * <p/>
+   * Cannot be combined with row prefetching, which reads whole values ahead of the current row, see
+   * {@link JDBCTap#setPrefetch(int)}.
+   *
+   * @param lobPath the lobPath of this JDBCScheme object.
+   */
+  public void setLobPath( String lobPath )
+    {
+    this.lobPath = lobPath;
+    }
+
+  /**
+   * Method getLobPath returns the path large object values read are streamed into, if any.
+   *
+   * @return the lobPath (type String) of this JDBCScheme object.
+   */
+  public String getLobPath()
+    {
+    return lobPath;
+    }
+
+  /**
+   * Method setLobColumns sets the columns whose values are streamed through files.
+   * <p/>
+   * When reading, the values of these columns are streamed into files under the {@link #setLobPath(String)} path,
+   * even if they are not BLOB or CLOB columns. When writing, the sunk values of these columns must be paths to files,
+   * whose content is streamed into the statement. Paths ending with {@code .clob} are bound as UTF-8 character
+   * streams, any other path as a binary stream.
+   *
+   * @param lobColumns the lobColumns of this JDBCScheme object.
+   */
+  public void setLobColumns( String... lobColumns )
+    {
+    this.lobColumns = lobColumns;
+    }
+
+  /**
+   * Method setCodecRegistry sets the {@link CodecRegistry} used to convert column values when read and written,
+   * instead of the driver default conversions of getObject and setObject.
+   *
+   * @param codecs the codecs of this JDBCScheme object.
+   */
+  public void setCodecRegistry( CodecRegistry codecs )
+    {
+    this.codecs = codecs;
+    }
+
+  /**
+   * Method getCodecRegistry returns the {@link CodecRegistry} of this JDBCScheme object, if any.
+   *
+   * @return the codecs (type CodecRegistry) of this JDBCScheme object.
+   */
+  public CodecRegistry getCodecRegistry()
+    {
+    return codecs;
+    }
+
+  /**
+   * Method setDictionarySize sets the maximum number of distinct String values of each column that are shared
+   * between the Tuples read, so repeated values of low cardinality columns are held once per task.
+   * <p/>
+   * Sharing stops for any column with more distinct values than the given size. A value of 0, the default,
+   * does not share values.
+   *
+   * @param dictionarySize the dictionarySize of this JDBCScheme object.
+   */
+  public void setDictionarySize( int dictionarySize )
+    {
+    this.dictionarySize = dictionarySize;
+    }
+
+  /**
+   * Method getDictionarySize returns the maximum number of distinct String values shared per column.
+   *
+   * @return the dictionarySize (type int) of this JDBCScheme object.
+   */
+  public int getDictionarySize()
+    {
+    return dictionarySize;
+    }
+
+  /**
+   * Method setColumnBatch sets this Scheme to source a single field holding a {@link ColumnBatch} of up to
+   * batchSize rows per Tuple, instead of a Tuple per row.
+   * <p/>
+   * Operations reading the batch consume numeric values as primitives, without boxing each value. Use
+   * {@link ColumnBatchRows} to unroll the batches into rows before any grouping.
+   * <p/>
+   * The Scheme can then no longer be used as a sink, and {@link JDBCPlanner} pushes no conditions or
+   * projections down into it.
+   *
+   * @param batchField of type Fields
+   * @param batchSize  of type int
+   */
+  public void setColumnBatch( Fields batchField, int batchSize )
+    {
+    if( batchField.size() != 1 )
+      throw new IllegalArgumentException( "batchField must declare a single field" );
+
+    this.batchSize = batchSize;
+    setSourceFields( batchField );
+    }
+
+  /**
+   * Method getBatchSize returns the maximum number of rows of each {@link ColumnBatch} sourced, or 0 if a Tuple is
+   * sourced per row.
+   *
+   * @return the batchSize (type int) of this JDBCScheme object.
+   */
+  public int getBatchSize()
+    {
+    return batchSize;
+    }
+
+  /**
+   * Method getLobColumns returns the columns whose values are streamed through files, if any.
+   *
+   * @return the lobColumns (type String[]) of this JDBCScheme object.
+   */
+  public String[] getLobColumns()
+    {
+    return lobColumns;
+    }
+
+  /**
+   * Method getLimit returns the limit of this JDBCScheme object.
+   *
+   * @return the limit (type long) of this JDBCScheme object.
+   */
+  public long getLimit()
+    {
+    return limit;
+    }
+
+  /**
+   * Method getSelectQuery returns the custom selectQuery of this JDBCScheme object, if any.
+   *
+   * @return the selectQuery (type String) of this JDBCScheme object.
+   */
+  public String getSelectQuery()
+    {
+    return selectQuery;
+    }
+
+  /**
+   * Method pushDown returns a copy of this JDBCScheme that also applies the given SQL condition and only selects
+   * the columns bound to the given projection Fields. Either argument may be null.
+   * <p/>
+   * The copy may only be used as a source. Custom select queries and column batches cannot be narrowed.
+   *
+   * @param condition  of type String
+   * @param projection of type Fields
+   * @return JDBCScheme
+   */
+  public JDBCScheme pushDown( String condition, Fields projection )
+    {
+    if( selectQuery != null )
+      throw new IllegalStateException( "cannot push down into a custom select query" );
+
+    if( batchSize > 0 )
+      throw new IllegalStateException( "cannot push down into a column batch" );
+
+    JDBCScheme scheme;
+
+    try
+      {
+      scheme = (JDBCScheme) clone();
+      }
+    catch( CloneNotSupportedException exception )
+      {
+      throw new IllegalStateException( "unable to copy scheme", exception );
+      }
+
+    if( condition != null )
+      scheme.conditions = conditions == null ? condition : "(" + conditions + ") AND (" + condition + ")";
+
+    if( projection != null )
+      {
+      List<Comparable> fields = new ArrayList<Comparable>();
+      List<String> names = new ArrayList<String>();
+
+      for( int i = 0; i < columnFields.size(); i++ )
+        {
+        for( int j = 0; j < projection.size(); j++ )
+          {
+          if( !columnFields.get( i ).equals( projection.get( j ) ) )
+            continue;
+
+          fields.add( columnFields.get( i ) );
+          names.add( columns[ i ] );
+          }
+        }
+
+      scheme.columnFields = new Fields( fields.toArray( new Comparable[fields.size()] ) );
+      scheme.columns = names.toArray( new String[names.size()] );
+      scheme.setSourceFields( scheme.columnFields );
+      }
+
+    return scheme;
+    }
+
   public void sourceInit( Tap tap, JobConf conf ) throws IOException
     {
     int concurrentReads = ( (JDBCTap) tap ).concurrentReads;
+    Class<? extends DBWritable> inputClass = batchSize > 0 ? ColumnBatch.class : TupleRecord.class;
 
     if( selectQuery != null )
       {
-      DBInputFormat.setInput( conf, TupleRecord.class, selectQuery, countQuery, limit, concurrentReads );
+      DBInputFormat.setInput( conf, inputClass, selectQuery, countQuery, limit, concurrentReads );
       }
     else
       {
       String tableName = ( (JDBCTap) tap ).getTableName();
       String joinedOrderBy = orderBy != null ? Util.join( orderBy, ", " ) : null;
-      DBInputFormat.setInput( conf, TupleRecord.class, tableName, conditions, joinedOrderBy, limit, concurrentReads, columns );
+      DBInputFormat.setInput( conf, inputClass, tableName, conditions, joinedOrderBy, limit, concurrentReads, columns );
       }
 
+    if( reuse )
+      conf.setBoolean( TupleRecord.REUSE_PROPERTY, true );
+
+    if( batchSize > 0 )
+      conf.setInt( ColumnBatch.SIZE_PROPERTY, batchSize );
+
+    if( dictionarySize > 0 )
+      conf.setInt( TupleRecord.DICTIONARY_SIZE_PROPERTY, dictionarySize );
+
+    if( codecs != null )
+      conf.set( TupleRecord.CODECS_PROPERTY, Util.serializeBase64( codecs ) );
+
+    if( lobPath != null )
+      conf.set( TupleRecord.LOB_PATH_PROPERTY, lobPath );
+
+    if( lobPath != null && lobColumns != null )
+      conf.setStrings( TupleRecord.LOB_COLUMNS_PROPERTY, lobColumns );
+
+    // cached rows are only replayed into records decoding them the same way
+    DBInputFormat.setInputCacheKeyProperties( conf, ColumnBatch.SIZE_PROPERTY, TupleRecord.DICTIONARY_SIZE_PROPERTY, TupleRecord.CODECS_PROPERTY, TupleRecord.LOB_PATH_PROPERTY, TupleRecord.LOB_COLUMNS_PROPERTY );
+
     if( inputFormatClass != null )
       conf.setInputFormat( inputFormatClass );
     }
@@ -530,21 +866,46 @@ public class JDBCScheme extends Scheme
     if( selectQuery != null )
       throw new TapException( "cannot sink to this Scheme" );
 
-    String tableName = ( (JDBCTap) tap ).getTableName();
+    if( batchSize > 0 )
+      throw new TapException( "cannot sink to a Scheme sourcing column batches" );
+
+    String tableName = ( (JDBCTap) tap ).getSinkTableName();
     int batchSize = ( (JDBCTap) tap ).getBatchSize();
     DBOutputFormat.setOutput( conf, DBOutputFormat.class, tableName, columns, updateBy, batchSize );
 
+    if( updateAuto )
+      DBOutputFormat.setUpdateAuto( conf, true );
+
+    // records written may be recreated from their serialized form, as when sorted before writing
+    if( codecs != null || lobColumns != null )
+      conf.setStrings( TupleRecord.SINK_COLUMNS_PROPERTY, getSinkColumnNames() );
+
+    if( codecs != null )
+      conf.set( TupleRecord.SINK_CODECS_PROPERTY, Util.serializeBase64( codecs ) );
+
+    if( lobColumns != null )
+      conf.setStrings( TupleRecord.SINK_LOB_COLUMNS_PROPERTY, lobColumns );
+
     if( outputFormatClass != null )
       conf.setOutputFormat( outputFormatClass );
     }
 
   public Tuple source( Object key, Object value )
     {
+    if( value instanceof ColumnBatch )
+      return new Tuple( (ColumnBatch) value );
+
     return ( (TupleRecord) value ).getTuple();
     }
 
   public void sink( TupleEntry tupleEntry, OutputCollector outputCollector ) throws IOException
     {
+    if( reuse )
+      {
+      sinkReused( tupleEntry, outputCollector );
+      return;
+      }
+
     if( updateBy != null )
       {
       Tuple allValues = tupleEntry.selectTuple( updateValueFields );
@@ -554,7 +915,10 @@ public class JDBCScheme extends Scheme
 
       TupleRecord key = new TupleRecord( allValues );
 
-      if( updateValues.equals( updateIfTuple ) )
+      key.setLobPositions( getLobPositions() );
+      key.setCodecs( codecs, getSinkColumnNames() );
+
+      if( !updateAuto && updateValues.equals( updateIfTuple ) )
         outputCollector.collect( key, null );
       else
         outputCollector.collect( key, key );
@@ -566,7 +930,85 @@ public class JDBCScheme extends Scheme
 
     result = cleanTuple( result );
 
-    outputCollector.collect( new TupleRecord( result ), null );
+    TupleRecord record = new TupleRecord( result );
+
+    record.setLobPositions( getLobPositions() );
+    record.setCodecs( codecs, getSinkColumnNames() );
+
+    outputCollector.collect( record, null );
+    }
+
+  private boolean[] getLobPositions()
+    {
+    if( lobColumns == null || lobPositions != null )
+      return lobPositions;
+
+    lobPositions = LobFiles.getPositions( getSinkColumnNames(), lobColumns );
+
+    return lobPositions;
+    }
+
+  private String[] getSinkColumnNames()
+    {
+    if( sinkColumnNames != null )
+      return sinkColumnNames;
+
+    // with updateBy, the updateBy values are moved after all other values
+    Fields valueFields = updateBy != null ? updateValueFields : getSinkFields();
+    String[] names = new String[valueFields.size()];
+
+    for( int i = 0; i < names.length; i++ )
+      {
+      for( int j = 0; j < columnFields.size(); j++ )
+        {
+        if( columnFields.get( j ).equals( valueFields.get( i ) ) )
+          names[ i ] = columns[ j ];
+        }
+      }
+
+    sinkColumnNames = names;
+
+    return sinkColumnNames;
+    }
+
+  private void sinkReused( TupleEntry tupleEntry, OutputCollector outputCollector ) throws IOException
+    {
+    Fields incomingFields = tupleEntry.getFields();
+
+    // the incoming fields are the same instance for every tuple of a flow step
+    if( incomingFields != positionsFields )
+      {
+      valuePositions = incomingFields.getPos( updateBy != null ? updateValueFields : getSinkFields() );
+      updatePositions = updateBy != null ? incomingFields.getPos( updateByFields ) : null;
+      sinkValues = Tuple.size( valuePositions.length );
+      sinkRecord = new TupleRecord();
+      sinkRecord.setLobPositions( getLobPositions() );
+      sinkRecord.setCodecs( codecs, getSinkColumnNames() );
+      positionsFields = incomingFields;
+      }
+
+    Tuple incoming = tupleEntry.getTuple();
+
+    for( int i = 0; i < valuePositions.length; i++ )
+      sinkValues.set( i, incoming.get( valuePositions[ i ] ) );
+
+    sinkRecord.setTuple( cleanTuple( sinkValues ) );
+
+    if( updateBy == null )
+      {
+      outputCollector.collect( sinkRecord, null );
+      return;
+      }
+
+    boolean updateValuesNull = true;
+
+    for( int position : updatePositions )
+      updateValuesNull &= incoming.get( position ) == null;
+
+    if( !updateAuto && updateValuesNull )
+      outputCollector.collect( sinkRecord, null );
+    else
+      outputCollector.collect( sinkRecord, sinkRecord );
     }
 
   /**
@@ -594,6 +1036,20 @@ public class JDBCScheme extends Scheme
 
     if( limit != that.limit )
       return false;
+    if( updateAuto != that.updateAuto )
+      return false;
+    if( reuse != that.reuse )
+      return false;
+    if( batchSize != that.batchSize )
+      return false;
+    if( dictionarySize != that.dictionarySize )
+      return false;
+    if( codecs != null ? !codecs.equals( that.codecs ) : that.codecs != null )
+      return false;
+    if( lobPath != null ? !lobPath.equals( that.lobPath ) : that.lobPath != null )
+      return false;
+    if( !Arrays.equals( lobColumns, that.lobColumns ) )
+      return false;
     if( columnFields != null ? !columnFields.equals( that.columnFields ) : that.columnFields != null )
       return false;
     if( !Arrays.equals( columns, that.columns ) )
@@ -639,6 +1095,13 @@ public class JDBCScheme extends Scheme
     result = 31 * result + ( selectQuery != null ? selectQuery.hashCode() : 0 );
     result = 31 * result + ( countQuery != null ? countQuery.hashCode() : 0 );
     result = 31 * result + (int) ( limit ^ ( limit >>> 32 ) );
+    result = 31 * result + ( updateAuto ? 1 : 0 );
+    result = 31 * result + ( reuse ? 1 : 0 );
+    result = 31 * result + batchSize;
+    result = 31 * result + dictionarySize;
+    result = 31 * result + ( codecs != null ? codecs.hashCode() : 0 );
+    result = 31 * result + ( lobPath != null ? lobPath.hashCode() : 0 );
+    result = 31 * result + ( lobColumns != null ? Arrays.hashCode( lobColumns ) : 0 );
     return result;
     }
   }
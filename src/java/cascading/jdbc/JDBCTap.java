@@ -21,8 +21,12 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
 
 import cascading.jdbc.db.DBConfiguration;
+import cascading.jdbc.db.DBInputFormat;
+import cascading.jdbc.db.DBOutputFormat;
+import cascading.jdbc.db.DBTrace;
 import cascading.tap.SinkMode;
 import cascading.tap.Tap;
 import cascading.tap.TapException;
@@ -53,6 +57,8 @@ import org.slf4j.LoggerFactory;
  * Use {@link #setBatchSize(int)} to set the number of INSERT/UPDATES should be grouped together before being
  * executed. The default vaue is 1,000.
  * <p/>
+ * Use {@link #setReplaceStrategy(ReplaceStrategy)} to keep the table available to readers while it is replaced.
+ * <p/>
  * Use {@link #executeQuery(String, int)} or {@link #executeUpdate(String)} to invoke SQL statements against
  * the underlying Table.
  * <p/>
@@ -64,11 +70,30 @@ import org.slf4j.LoggerFactory;
  * @see cascading.jdbc.db.DBInputFormat
  * @see cascading.jdbc.db.DBOutputFormat
  */
-public class JDBCTap extends Tap
+public class JDBCTap extends Tap implements Cloneable
   {
   /** Field LOG */
   private static final Logger LOG = LoggerFactory.getLogger( JDBCTap.class );
 
+  /** Field SHADOW_SUFFIX, appended to the table name to name the table loaded by {@link ReplaceStrategy#SWAP} */
+  static final String SHADOW_SUFFIX = "_shadow";
+  /** Field OLD_SUFFIX, appended to the table name to name the table replaced by {@link ReplaceStrategy#SWAP} */
+  static final String OLD_SUFFIX = "_old";
+
+  /** Enum ReplaceStrategy sets how the table is replaced when using {@link SinkMode#REPLACE}. */
+  public enum ReplaceStrategy
+    {
+      /** Drop the table and create it again before loading it. Readers see no table while it is loaded. */
+      DROP,
+      /** Remove all rows of the table, creating it only if missing. Readers see an empty table while it is loaded. */
+      TRUNCATE,
+      /**
+       * Load a shadow table, and rename it to the table once the Flow completes. Readers see the previous rows
+       * while it is loaded. Requires a {@link JDBCFlowListener} on the Flow.
+       */
+      SWAP
+    }
+
   /** Field connectionUrl */
   String connectionUrl;
   /** Field username */
@@ -83,6 +108,34 @@ public class JDBCTap extends Tap
   int batchSize = 1000;
   /** Field concurrentReads */
   int concurrentReads = 0;
+  /** Field dynamicChunks */
+  int dynamicChunks = 0;
+  /** Field trace */
+  boolean trace = false;
+  /** Field isolationLevel */
+  int isolationLevel = Connection.TRANSACTION_SERIALIZABLE;
+  /** Field readOnly */
+  boolean readOnly = false;
+  /** Field snapshot */
+  boolean snapshot = false;
+  /** Field prefetch */
+  int prefetch = 0;
+  /** Field cacheDir */
+  String cacheDir;
+  /** Field cacheTimeToLive */
+  long cacheTimeToLive = -1;
+  /** Field cacheToken */
+  String cacheToken;
+  /** Field sortedWrites */
+  boolean sortedWrites = false;
+  /** Field sortBufferRows */
+  int sortBufferRows = -1;
+  /** Field replaceStrategy */
+  ReplaceStrategy replaceStrategy = ReplaceStrategy.DROP;
+  /** Field snapshotOwner, the id the snapshots exported for this Tap are released by */
+  transient String snapshotOwner;
+  /** Field indexesDeferred, true if this Tap created the table without its primary key and indexes */
+  transient boolean indexesDeferred = false;
 
   /**
    * Constructor JDBCTap creates a new JDBCTap instance.
@@ -217,6 +270,66 @@ public class JDBCTap extends Tap
     return tableDesc.tableName;
     }
 
+  /**
+   * Method getSinkTableName returns the name of the table written to, the shadow table when using
+   * {@link ReplaceStrategy#SWAP}, otherwise the tableName.
+   *
+   * @return the sinkTableName (type String) of this JDBCTap object.
+   */
+  public String getSinkTableName()
+    {
+    return getSinkTableDesc().tableName;
+    }
+
+  private TableDesc getSinkTableDesc()
+    {
+    if( isSwap() )
+      return tableDesc.copyWith( tableDesc.tableName + SHADOW_SUFFIX );
+
+    return tableDesc;
+    }
+
+  private boolean isSwap()
+    {
+    return replaceStrategy == ReplaceStrategy.SWAP && isReplace();
+    }
+
+  /** Returns the message of a failure to replace the table, naming the action of the replaceStrategy. */
+  String getReplaceFailure()
+    {
+    if( isSwap() )
+      return "unable to drop shadow table: " + getSinkTableName();
+
+    if( replaceStrategy == ReplaceStrategy.TRUNCATE )
+      return "unable to truncate table: " + tableDesc.getTableName();
+
+    return "unable to drop table: " + tableDesc.getTableName();
+    }
+
+  /**
+   * Method copyWith returns a copy of this JDBCTap bound to the given scheme.
+   *
+   * @param scheme of type JDBCScheme
+   * @return JDBCTap
+   */
+  public JDBCTap copyWith( JDBCScheme scheme )
+    {
+    JDBCTap tap;
+
+    try
+      {
+      tap = (JDBCTap) clone();
+      }
+    catch( CloneNotSupportedException exception )
+      {
+      throw new IllegalStateException( "unable to copy tap", exception );
+      }
+
+    tap.setScheme( scheme );
+
+    return tap;
+    }
+
   /**
    * Method setBatchSize sets the batchSize of this JDBCTap object.
    *
@@ -263,6 +376,265 @@ public class JDBCTap extends Tap
     this.concurrentReads = concurrentReads;
     }
 
+  /**
+   * Method getDynamicChunks returns the dynamicChunks of this JDBCTap object.
+   *
+   * @return the dynamicChunks (type int) of this JDBCTap object.
+   */
+  public int getDynamicChunks()
+    {
+    return dynamicChunks;
+    }
+
+  /**
+   * Method setDynamicChunks sets the dynamicChunks of this JDBCTap object.
+   * <p/>
+   * When greater than 0, the rows are divided into this many chunks, and each of the concurrent readers
+   * claims chunks from a queue shared through the job FileSystem until none are left, instead of reading a
+   * fixed range of rows. This balances the readers when some ranges are much slower to read than others.
+   *
+   * @param dynamicChunks the dynamicChunks of this JDBCTap object.
+   * @see DBInputFormat#setInputDynamic(JobConf, int)
+   */
+  public void setDynamicChunks( int dynamicChunks )
+    {
+    this.dynamicChunks = dynamicChunks;
+    }
+
+  /**
+   * Method getIsolationLevel returns the transaction isolation level used when reading from this JDBCTap object.
+   *
+   * @return the isolationLevel (type int) of this JDBCTap object.
+   */
+  public int getIsolationLevel()
+    {
+    return isolationLevel;
+    }
+
+  /**
+   * Method setIsolationLevel sets the transaction isolation level used when reading from this JDBCTap object.
+   * <p/>
+   * Use one of the {@link Connection} TRANSACTION_ constants, or -1 to keep the driver default. The default
+   * is {@link Connection#TRANSACTION_SERIALIZABLE}, which may cause serialization failures under concurrent load.
+   *
+   * @param isolationLevel the isolationLevel of this JDBCTap object.
+   */
+  public void setIsolationLevel( int isolationLevel )
+    {
+    this.isolationLevel = isolationLevel;
+    }
+
+  /**
+   * Method isReadOnly returns true if connections reading from this JDBCTap object are marked read only.
+   *
+   * @return the readOnly (type boolean) of this JDBCTap object.
+   */
+  public boolean isReadOnly()
+    {
+    return readOnly;
+    }
+
+  /**
+   * Method setReadOnly sets if connections reading from this JDBCTap object are marked read only, a hint
+   * some drivers use to route queries to replicas or avoid locking.
+   *
+   * @param readOnly the readOnly of this JDBCTap object.
+   */
+  public void setReadOnly( boolean readOnly )
+    {
+    this.readOnly = readOnly;
+    }
+
+  /**
+   * Method isSnapshot returns true if all readers of this JDBCTap object share an exported snapshot.
+   *
+   * @return the snapshot (type boolean) of this JDBCTap object.
+   */
+  public boolean isSnapshot()
+    {
+    return snapshot;
+    }
+
+  /**
+   * Method setSnapshot sets if the snapshot of the transaction planning the splits is exported and imported
+   * by every reader, so all splits see the same data without SERIALIZABLE transactions. By default this uses
+   * the PostgreSQL pg_export_snapshot() function, see {@link DBInputFormat#getSnapshotExportQuery()}.
+   * <p/>
+   * Add a {@link JDBCFlowListener} to the Flow to end the transaction holding the snapshot once the Flow
+   * completes, otherwise it is held until the {@link DBConfiguration#INPUT_SNAPSHOT_HOLD_PROPERTY} timeout.
+   *
+   * @param snapshot the snapshot of this JDBCTap object.
+   */
+  public void setSnapshot( boolean snapshot )
+    {
+    this.snapshot = snapshot;
+    }
+
+  /**
+   * Method getPrefetch returns the number of rows fetched ahead by the readers of this JDBCTap object.
+   *
+   * @return the prefetch (type int) of this JDBCTap object.
+   */
+  public int getPrefetch()
+    {
+    return prefetch;
+    }
+
+  /**
+   * Method setPrefetch sets the number of rows each reader of this JDBCTap object fetches ahead on a background
+   * thread, overlapping database round trips with the processing of the rows. Use 0, the default, to fetch rows
+   * on demand.
+   * <p/>
+   * Prefetching fails when the {@link JDBCScheme} streams large objects, see {@link JDBCScheme#setLobPath(String)}.
+   *
+   * @param prefetch the prefetch of this JDBCTap object.
+   */
+  public void setPrefetch( int prefetch )
+    {
+    this.prefetch = prefetch;
+    }
+
+  /**
+   * Method setCache enables caching the rows read by each split query in a SequenceFile under the given
+   * directory, so a second read of this JDBCTap object within the timeToLive replays the cached rows instead
+   * of querying the database.
+   * <p/>
+   * The token should change when the data changes, like a high watermark, so stale rows are never replayed.
+   * It may be null.
+   *
+   * @param cacheDir   the directory on the job FileSystem holding the cached rows
+   * @param timeToLive the milliseconds cached rows are replayed, -1 for no limit
+   * @param token      the token identifying the state of the data
+   */
+  public void setCache( String cacheDir, long timeToLive, String token )
+    {
+    this.cacheDir = cacheDir;
+    this.cacheTimeToLive = timeToLive;
+    this.cacheToken = token;
+    }
+
+  /**
+   * Method getCacheDir returns the directory caching the rows read from this JDBCTap object, or null.
+   *
+   * @return the cacheDir (type String) of this JDBCTap object.
+   */
+  public String getCacheDir()
+    {
+    return cacheDir;
+    }
+
+  /**
+   * Method isTrace returns true if the JDBC calls made through this JDBCTap object are timed.
+   *
+   * @return the trace (type boolean) of this JDBCTap object.
+   */
+  public boolean isTrace()
+    {
+    return trace;
+    }
+
+  /**
+   * Method setTrace sets if the JDBC calls made through this JDBCTap object, both by the tasks and
+   * the ad-hoc statements, are timed per SQL statement shape.
+   * <p/>
+   * Task totals are reported as counters in the {@link DBTrace#COUNTER_GROUP} group, and a summary is logged
+   * when each connection is closed.
+   *
+   * @param trace the trace of this JDBCTap object.
+   * @see DBTrace
+   */
+  public void setTrace( boolean trace )
+    {
+    this.trace = trace;
+    }
+
+  /**
+   * Method isSortedWrites returns true if each task sorts its rows by the primary key before writing them.
+   *
+   * @return the sortedWrites (type boolean) of this JDBCTap object.
+   */
+  public boolean isSortedWrites()
+    {
+    return sortedWrites;
+    }
+
+  /**
+   * Method setSortedWrites sets if each task sorts the rows it writes by the primary keys of the {@link TableDesc}
+   * before batching them, so rows are inserted in index order instead of splitting index pages and contending for
+   * locks across the whole index.
+   * <p/>
+   * Rows beyond {@link #setSortBufferRows(int)} are spilled to local disk as sorted runs, and merged when the task
+   * completes, so no rows are written until then.
+   *
+   * @param sortedWrites the sortedWrites of this JDBCTap object.
+   */
+  public void setSortedWrites( boolean sortedWrites )
+    {
+    this.sortedWrites = sortedWrites;
+    }
+
+  /**
+   * Method setSortBufferRows sets the number of rows each task sorts in memory before spilling them to local disk.
+   *
+   * @param sortBufferRows the sortBufferRows of this JDBCTap object.
+   */
+  public void setSortBufferRows( int sortBufferRows )
+    {
+    this.sortBufferRows = sortBufferRows;
+    }
+
+  /**
+   * Method getReplaceStrategy returns the replaceStrategy of this JDBCTap object.
+   *
+   * @return the replaceStrategy (type ReplaceStrategy) of this JDBCTap object.
+   */
+  public ReplaceStrategy getReplaceStrategy()
+    {
+    return replaceStrategy;
+    }
+
+  /**
+   * Method setReplaceStrategy sets how the table is replaced when using {@link SinkMode#REPLACE}, the default is
+   * {@link ReplaceStrategy#DROP}.
+   * <p/>
+   * With {@link ReplaceStrategy#SWAP}, rows are written to a table named after the table with {@link #SHADOW_SUFFIX}
+   * appended. Once the Flow completes, {@link JDBCFlowListener} renames the table with {@link #OLD_SUFFIX} appended,
+   * renames the shadow table to the table, in one transaction, and drops the previous table. Any indexes added with
+   * {@link TableDesc#addIndex(String, String[])} are created after the swap. If the Flow fails, the table is left as
+   * is, and the shadow table is dropped by the next Flow.
+   * <p/>
+   * The swap is only atomic on databases with transactional DDL, like PostgreSQL. MySQL and Oracle commit each
+   * rename on its own, so readers may briefly find no table between the two renames.
+   *
+   * @param replaceStrategy the replaceStrategy of this JDBCTap object.
+   */
+  public void setReplaceStrategy( ReplaceStrategy replaceStrategy )
+    {
+    this.replaceStrategy = replaceStrategy;
+    }
+
+  /**
+   * Method isScratch returns true if the table is created as a scratch table.
+   *
+   * @return the scratch (type boolean) of this JDBCTap object.
+   */
+  public boolean isScratch()
+    {
+    return tableDesc.isScratch();
+    }
+
+  /**
+   * Method setScratch sets if the table is created with the scratch storage clauses of its {@link TableDesc}, see
+   * {@link TableDesc#setScratchStorage(String, String)}. Use for intermediate tables rebuilt on every run, that
+   * need not survive a database failure. Tables that already exist are not changed.
+   *
+   * @param scratch the scratch of this JDBCTap object.
+   */
+  public void setScratch( boolean scratch )
+    {
+    tableDesc.setScratch( scratch );
+    }
+
   /**
    * Method getPath returns the path of this JDBCTap object.
    *
@@ -301,6 +673,10 @@ public class JDBCTap extends Tap
   @Override
   public void sourceInit( JobConf conf ) throws IOException
     {
+    // prefetched rows hold whole values, defeating the streaming of large objects
+    if( prefetch > 0 && ( (JDBCScheme) getScheme() ).getLobPath() != null )
+      throw new TapException( "cannot prefetch rows while streaming large objects to: " + ( (JDBCScheme) getScheme() ).getLobPath() );
+
     // a hack for MultiInputFormat to see that there is a child format
     FileInputFormat.setInputPaths( conf, getPath() );
 
@@ -309,6 +685,25 @@ public class JDBCTap extends Tap
     else
       DBConfiguration.configureDB( conf, driverClassName, connectionUrl, username, password );
 
+    if( trace )
+      DBConfiguration.configureTrace( conf, true );
+
+    if( dynamicChunks > 0 )
+      DBInputFormat.setInputDynamic( conf, dynamicChunks );
+
+    DBInputFormat.setInputIsolation( conf, isolationLevel, readOnly );
+
+    if( snapshot && snapshotOwner == null )
+      snapshotOwner = UUID.randomUUID().toString();
+
+    DBInputFormat.setInputSnapshot( conf, snapshot, snapshotOwner );
+
+    if( prefetch > 0 )
+      DBInputFormat.setInputPrefetch( conf, prefetch );
+
+    if( cacheDir != null )
+      DBInputFormat.setInputCache( conf, cacheDir, cacheTimeToLive, cacheToken );
+
     super.sourceInit( conf );
     }
 
@@ -320,20 +715,31 @@ public class JDBCTap extends Tap
 
     // do not delete if initialized from within a task
     if( isReplace() && conf.get( "mapred.task.partition" ) == null && !deletePath( conf ) )
-      throw new TapException( "unable to drop table: " + tableDesc.getTableName() );
+      throw new TapException( getReplaceFailure() );
 
     if( !makeDirs( conf ) )
-      throw new TapException( "unable to create table: " + tableDesc.getTableName() );
+      throw new TapException( "unable to create table: " + getSinkTableName() );
 
     if( username == null )
       DBConfiguration.configureDB( conf, driverClassName, connectionUrl );
     else
       DBConfiguration.configureDB( conf, driverClassName, connectionUrl, username, password );
 
+    if( trace )
+      DBConfiguration.configureTrace( conf, true );
+
     super.sinkInit( conf );
+
+    if( !sortedWrites )
+      return;
+
+    if( !tableDesc.hasPrimaryKey() )
+      throw new TapException( "sorted writes require primary keys on table: " + tableDesc.getTableName() );
+
+    DBOutputFormat.setOutputSort( conf, tableDesc.getPrimaryKeys(), sortBufferRows );
     }
 
-  private Connection createConnection()
+  Connection createConnection()
     {
     try
       {
@@ -350,6 +756,9 @@ public class JDBCTap extends Tap
 
       connection.setAutoCommit( false );
 
+      if( trace )
+        connection = DBTrace.wrap( connection, -1 );
+
       return connection;
       }
     catch( ClassNotFoundException exception )
@@ -488,24 +897,133 @@ public class JDBCTap extends Tap
 
   public boolean makeDirs( JobConf conf ) throws IOException
     {
-    if( pathExists( conf ) )
+    TableDesc sinkDesc = getSinkTableDesc();
+
+    if( tableExists( sinkDesc ) )
       return true;
 
     try
       {
-      LOG.info( "creating table: {}", tableDesc.tableName );
+      LOG.info( "creating table: {}", sinkDesc.tableName );
+
+      executeUpdate( sinkDesc.getCreateTableStatement() );
 
-      executeUpdate( tableDesc.getCreateTableStatement() );
+      if( sinkDesc.isDeferIndexes() )
+        indexesDeferred = true;
+      else
+        executeUpdates( sinkDesc.getCreateIndexStatements() );
       }
     catch( TapException exception )
       {
-      LOG.warn( "unable to create table: {}", tableDesc.tableName );
+      LOG.warn( "unable to create table: {}", sinkDesc.tableName );
       LOG.warn( "sql failure", exception.getCause() );
 
       return false;
       }
 
-    return pathExists( conf );
+    return true;
+    }
+
+  private void executeUpdates( List<String> updateStrings )
+    {
+    if( updateStrings.isEmpty() )
+      return;
+
+    Connection connection = null;
+    String updateString = null;
+
+    try
+      {
+      connection = createConnection();
+
+      try
+        {
+        Statement statement = connection.createStatement();
+
+        for( int i = 0; i < updateStrings.size(); i++ )
+          {
+          updateString = updateStrings.get( i );
+
+          LOG.info( "executing update: {}", updateString );
+
+          statement.executeUpdate( updateString );
+          }
+
+        connection.commit();
+        statement.close();
+        }
+      catch( SQLException exception )
+        {
+        throw new TapException( "unable to execute update statement: " + updateString, exception );
+        }
+      }
+    finally
+      {
+      try
+        {
+        if( connection != null )
+          connection.close();
+        }
+      catch( SQLException exception )
+        {
+        // ignore
+        LOG.warn( "ignoring connection close exception", exception );
+        }
+      }
+    }
+
+  /**
+   * Method sourceCompleted is called by {@link JDBCFlowListener} once the Flow reading from this JDBCTap object
+   * completes or fails. It ends the transactions holding the snapshots exported for its readers.
+   */
+  void sourceCompleted()
+    {
+    if( snapshotOwner != null )
+      DBInputFormat.releaseSnapshots( snapshotOwner );
+    }
+
+  /**
+   * Method sinkCompleted is called by {@link JDBCFlowListener} once the Flow writing to this JDBCTap object
+   * completes. It adds any primary key and indexes deferred when the table was created, then swaps in the
+   * shadow table when using {@link ReplaceStrategy#SWAP}.
+   */
+  void sinkCompleted()
+    {
+    TableDesc sinkDesc = getSinkTableDesc();
+
+    if( indexesDeferred )
+      {
+      LOG.info( "adding deferred primary key and indexes to table: {}", sinkDesc.tableName );
+
+      executeUpdates( sinkDesc.getDeferredStatements() );
+
+      indexesDeferred = false;
+      }
+
+    if( isSwap() )
+      swapTables( sinkDesc );
+    }
+
+  private void swapTables( TableDesc sinkDesc )
+    {
+    // already swapped by another listener, or never created
+    if( !tableExists( sinkDesc ) )
+      return;
+
+    TableDesc oldDesc = tableDesc.copyWith( tableDesc.tableName + OLD_SUFFIX );
+
+    if( !dropTable( oldDesc ) )
+      throw new TapException( "unable to drop table: " + oldDesc.tableName );
+
+    LOG.info( "swapping table: {} with: {}", tableDesc.tableName, sinkDesc.tableName );
+
+    executeUpdates( tableDesc.getSwapStatements( sinkDesc.tableName, oldDesc.tableName, tableExists( tableDesc ) ) );
+
+    // drop before creating indexes, as the replaced table still holds the index names
+    if( !dropTable( oldDesc ) )
+      throw new TapException( "unable to drop table: " + oldDesc.tableName );
+
+    executeUpdates( tableDesc.getCreateIndexStatements() );
     }
 
   public boolean deletePath( JobConf conf ) throws IOException
@@ -513,7 +1031,36 @@ public class JDBCTap extends Tap
     if( !isSink() )
       return false;
 
-    if( !pathExists( conf ) )
+    // the table is only replaced once the shadow table is loaded
+    if( isSwap() )
+      return dropTable( getSinkTableDesc() );
+
+    if( replaceStrategy != ReplaceStrategy.TRUNCATE )
+      return dropTable( tableDesc );
+
+    if( !tableExists( tableDesc ) )
+      return true;
+
+    try
+      {
+      LOG.info( "truncating table: {}", tableDesc.tableName );
+
+      executeUpdate( tableDesc.getTruncateStatement() );
+      }
+    catch( TapException exception )
+      {
+      LOG.warn( "unable to truncate table: {}", tableDesc.tableName );
+      LOG.warn( "sql failure", exception.getCause() );
+
+      return false;
+      }
+
+    return true;
+    }
+
+  private boolean dropTable( TableDesc tableDesc )
+    {
+    if( !tableExists( tableDesc ) )
       return true;
 
     try
@@ -530,7 +1077,7 @@ public class JDBCTap extends Tap
       return false;
       }
 
-    return !pathExists( conf );
+    return true;
     }
 
   public boolean pathExists( JobConf conf ) throws IOException
@@ -538,6 +1085,11 @@ public class JDBCTap extends Tap
     if( !isSink() )
       return true;
 
+    return tableExists( tableDesc );
+    }
+
+  private boolean tableExists( TableDesc tableDesc )
+    {
     try
       {
       LOG.info( "test table exists: {}", tableDesc.tableName );
@@ -585,6 +1137,22 @@ public class JDBCTap extends Tap
       return false;
     if( username != null ? !username.equals( jdbcTap.username ) : jdbcTap.username != null )
       return false;
+    if( dynamicChunks != jdbcTap.dynamicChunks || trace != jdbcTap.trace )
+      return false;
+    if( isolationLevel != jdbcTap.isolationLevel || readOnly != jdbcTap.readOnly || snapshot != jdbcTap.snapshot )
+      return false;
+    if( prefetch != jdbcTap.prefetch )
+      return false;
+    if( cacheDir != null ? !cacheDir.equals( jdbcTap.cacheDir ) : jdbcTap.cacheDir != null )
+      return false;
+    if( cacheTimeToLive != jdbcTap.cacheTimeToLive )
+      return false;
+    if( cacheToken != null ? !cacheToken.equals( jdbcTap.cacheToken ) : jdbcTap.cacheToken != null )
+      return false;
+    if( sortedWrites != jdbcTap.sortedWrites || sortBufferRows != jdbcTap.sortBufferRows )
+      return false;
+    if( replaceStrategy != jdbcTap.replaceStrategy )
+      return false;
 
     return true;
     }
@@ -599,6 +1167,18 @@ public class JDBCTap extends Tap
     result = 31 * result + ( driverClassName != null ? driverClassName.hashCode() : 0 );
     result = 31 * result + ( tableDesc != null ? tableDesc.hashCode() : 0 );
     result = 31 * result + batchSize;
+    result = 31 * result + dynamicChunks;
+    result = 31 * result + ( trace ? 1 : 0 );
+    result = 31 * result + isolationLevel;
+    result = 31 * result + ( readOnly ? 1 : 0 );
+    result = 31 * result + ( snapshot ? 1 : 0 );
+    result = 31 * result + prefetch;
+    result = 31 * result + ( cacheDir != null ? cacheDir.hashCode() : 0 );
+    result = 31 * result + (int) ( cacheTimeToLive ^ ( cacheTimeToLive >>> 32 ) );
+    result = 31 * result + ( cacheToken != null ? cacheToken.hashCode() : 0 );
+    result = 31 * result + ( sortedWrites ? 1 : 0 );
+    result = 31 * result + sortBufferRows;
+    result = 31 * result + ( replaceStrategy != null ? replaceStrategy.hashCode() : 0 );
     return result;
     }
   }
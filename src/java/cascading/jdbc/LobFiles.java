@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Class LobFiles streams large object column values to and from files, so they are never held in memory.
+ * <p/>
+ * Each value read is copied into its own file, and replaced by the fully qualified path of that file. Binary
+ * values are written to files ending with {@link #BINARY_SUFFIX}, character values are written as UTF-8 to files
+ * ending with {@link #CHARACTER_SUFFIX}. When writing, a path ending with {@link #CHARACTER_SUFFIX} is bound as a
+ * character stream, any other path as a binary stream.
+ */
+class LobFiles
+  {
+  /** Field NONE, a column that is not streamed */
+  static final int NONE = 0;
+  /** Field BINARY, a column streamed as bytes */
+  static final int BINARY = 1;
+  /** Field CHARACTER, a column streamed as characters */
+  static final int CHARACTER = 2;
+
+  /** Field BINARY_SUFFIX */
+  static final String BINARY_SUFFIX = ".blob";
+  /** Field CHARACTER_SUFFIX */
+  static final String CHARACTER_SUFFIX = ".clob";
+
+  /** Field BUFFER_SIZE */
+  private static final int BUFFER_SIZE = 64 * 1024;
+  /** Field count, so files of the same task are unique */
+  private static final AtomicLong count = new AtomicLong();
+
+  private final FileSystem fileSystem;
+  private final Path lobPath;
+  private final String prefix;
+
+  LobFiles( JobConf job, String lobPath ) throws IOException
+    {
+    this.lobPath = new Path( lobPath );
+    this.fileSystem = this.lobPath.getFileSystem( job );
+    this.prefix = job.get( "mapred.task.id", "local" );
+    }
+
+  /**
+   * Returns how each column of the given result should be read. Large object columns, and the named
+   * columns, are streamed.
+   */
+  static int[] getTypes( ResultSetMetaData metaData, Set<String> columns ) throws SQLException
+    {
+    int[] types = new int[metaData.getColumnCount()];
+
+    for( int i = 0; i < types.length; i++ )
+      {
+      int type = metaData.getColumnType( i + 1 );
+
+      if( !isLob( type ) && !columns.contains( metaData.getColumnLabel( i + 1 ).toLowerCase() ) )
+        types[ i ] = NONE;
+      else
+        types[ i ] = isCharacter( type ) ? CHARACTER : BINARY;
+      }
+
+    return types;
+    }
+
+  /** Returns true for each of the given column names that is one of the given lob columns. */
+  static boolean[] getPositions( String[] columnNames, String[] lobColumns )
+    {
+    boolean[] positions = new boolean[columnNames.length];
+
+    for( int i = 0; i < columnNames.length; i++ )
+      {
+      for( String lobColumn : lobColumns )
+        positions[ i ] |= columnNames[ i ].equalsIgnoreCase( lobColumn );
+      }
+
+    return positions;
+    }
+
+  private static boolean isLob( int type )
+    {
+    return type == Types.BLOB || type == Types.LONGVARBINARY || type == Types.CLOB || type == Types.NCLOB || type == Types.LONGVARCHAR || type == Types.LONGNVARCHAR;
+    }
+
+  private static boolean isCharacter( int type )
+    {
+    return type == Types.CLOB || type == Types.NCLOB || type == Types.LONGVARCHAR || type == Types.LONGNVARCHAR || type == Types.VARCHAR || type == Types.NVARCHAR || type == Types.CHAR || type == Types.NCHAR;
+    }
+
+  /**
+   * Copies the given column of the current row into a new file.
+   *
+   * @return the qualified path of the file, or null if the value is null
+   */
+  String read( ResultSet resultSet, int column, int type ) throws SQLException
+    {
+    Path path = new Path( lobPath, prefix + "-" + count.incrementAndGet() + ( type == CHARACTER ? CHARACTER_SUFFIX : BINARY_SUFFIX ) );
+
+    try
+      {
+      if( type == CHARACTER )
+        {
+        Reader reader = resultSet.getCharacterStream( column );
+
+        if( reader == null )
+          return null;
+
+        copy( reader, new OutputStreamWriter( fileSystem.create( path, false ), "UTF-8" ) );
+        }
+      else
+        {
+        InputStream input = resultSet.getBinaryStream( column );
+
+        if( input == null )
+          return null;
+
+        copy( input, fileSystem.create( path, false ) );
+        }
+      }
+    catch( IOException exception )
+      {
+      throw new SQLException( "unable to write column " + column + " to: " + path, exception );
+      }
+
+    return fileSystem.makeQualified( path ).toString();
+    }
+
+  /**
+   * Binds the file at the given path as the value of the given parameter, resolving its file system with
+   * the given job configuration.
+   *
+   * @return the stream bound, to be closed once the statement has been executed
+   */
+  static Closeable bind( JobConf job, PreparedStatement statement, int index, String value ) throws SQLException
+    {
+    Path path = new Path( value );
+
+    try
+      {
+      FileSystem fileSystem = path.getFileSystem( job );
+      InputStream input = fileSystem.open( path );
+
+      if( value.endsWith( CHARACTER_SUFFIX ) )
+        {
+        Reader reader = new InputStreamReader( input, "UTF-8" );
+
+        statement.setCharacterStream( index, reader );
+
+        return reader;
+        }
+
+      long length = fileSystem.getFileStatus( path ).getLen();
+
+      if( length <= Integer.MAX_VALUE )
+        statement.setBinaryStream( index, input, (int) length );
+      else
+        statement.setBinaryStream( index, input, length );
+
+      return input;
+      }
+    catch( IOException exception )
+      {
+      throw new SQLException( "unable to open parameter " + index + " from: " + path, exception );
+      }
+    }
+
+  private static void copy( InputStream input, OutputStream output ) throws IOException
+    {
+    try
+      {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+
+      while( ( read = input.read( buffer ) ) != -1 )
+        output.write( buffer, 0, read );
+      }
+    finally
+      {
+      input.close();
+      output.close();
+      }
+    }
+
+  private static void copy( Reader reader, Writer writer ) throws IOException
+    {
+    try
+      {
+      char[] buffer = new char[BUFFER_SIZE / 2];
+      int read;
+
+      while( ( read = reader.read( buffer ) ) != -1 )
+        writer.write( buffer, 0, read );
+      }
+    finally
+      {
+      reader.close();
+      writer.close();
+      }
+    }
+  }
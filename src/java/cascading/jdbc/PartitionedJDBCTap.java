@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import cascading.jdbc.db.DBInputFormat;
+import cascading.tap.TapException;
+import org.apache.hadoop.mapred.JobConf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class PartitionedJDBCTap is a {@link JDBCTap} sub-class that reads from a set of identically structured tables
+ * as if they were a single table, for example tables partitioned by date like {@code events_20090101}.
+ * <p/>
+ * The tables are either given as a list, or found by a table name pattern through {@link java.sql.DatabaseMetaData#getTables}.
+ * The pattern uses the SQL LIKE syntax, and is matched by the database, so it must use the same case the database
+ * stores table names in.
+ * <p/>
+ * All matching tables are planned as a single input, so their row counts are retrieved in one query and splits
+ * are sized by table. Use {@link #setPartitionRange(String, String)} to skip tables outside a given range of names.
+ * <p/>
+ * This Tap may only be used as a data source.
+ */
+public class PartitionedJDBCTap extends JDBCTap
+  {
+  /** Field LOG */
+  private static final Logger LOG = LoggerFactory.getLogger( PartitionedJDBCTap.class );
+
+  /** Field tableNamePattern */
+  String tableNamePattern;
+  /** Field tableNames */
+  String[] tableNames;
+  /** Field fromTableName */
+  String fromTableName;
+  /** Field toTableName */
+  String toTableName;
+
+  /**
+   * Constructor PartitionedJDBCTap creates a new PartitionedJDBCTap instance that reads all tables matching the
+   * given tableNamePattern.
+   *
+   * @param connectionUrl    of type String
+   * @param username         of type String
+   * @param password         of type String
+   * @param driverClassName  of type String
+   * @param tableNamePattern of type String
+   * @param scheme           of type JDBCScheme
+   */
+  public PartitionedJDBCTap( String connectionUrl, String username, String password, String driverClassName, String tableNamePattern, JDBCScheme scheme )
+    {
+    super( connectionUrl, username, password, driverClassName, new TableDesc( tableNamePattern ), scheme );
+    this.tableNamePattern = tableNamePattern;
+    }
+
+  /**
+   * Constructor PartitionedJDBCTap creates a new PartitionedJDBCTap instance that reads all tables matching the
+   * given tableNamePattern.
+   *
+   * @param connectionUrl    of type String
+   * @param driverClassName  of type String
+   * @param tableNamePattern of type String
+   * @param scheme           of type JDBCScheme
+   */
+  public PartitionedJDBCTap( String connectionUrl, String driverClassName, String tableNamePattern, JDBCScheme scheme )
+    {
+    this( connectionUrl, null, null, driverClassName, tableNamePattern, scheme );
+    }
+
+  /**
+   * Constructor PartitionedJDBCTap creates a new PartitionedJDBCTap instance that reads the given tables.
+   *
+   * @param connectionUrl   of type String
+   * @param username        of type String
+   * @param password        of type String
+   * @param driverClassName of type String
+   * @param tableNames      of type String[]
+   * @param scheme          of type JDBCScheme
+   */
+  public PartitionedJDBCTap( String connectionUrl, String username, String password, String driverClassName, String[] tableNames, JDBCScheme scheme )
+    {
+    super( connectionUrl, username, password, driverClassName, new TableDesc( tableNames[ 0 ] ), scheme );
+    this.tableNames = tableNames;
+    }
+
+  /**
+   * Constructor PartitionedJDBCTap creates a new PartitionedJDBCTap instance that reads the given tables.
+   *
+   * @param connectionUrl   of type String
+   * @param driverClassName of type String
+   * @param tableNames      of type String[]
+   * @param scheme          of type JDBCScheme
+   */
+  public PartitionedJDBCTap( String connectionUrl, String driverClassName, String[] tableNames, JDBCScheme scheme )
+    {
+    this( connectionUrl, null, null, driverClassName, tableNames, scheme );
+    }
+
+  /**
+   * Method setPartitionRange restricts the tables read to those whose names fall between fromTableName and
+   * toTableName, inclusive. Names are compared ignoring case. Either value may be null for an open range.
+   * <p/>
+   * For date partitioned tables, use names like {@code events_20090101} and {@code events_20090131}.
+   *
+   * @param fromTableName of type String
+   * @param toTableName   of type String
+   */
+  public void setPartitionRange( String fromTableName, String toTableName )
+    {
+    this.fromTableName = fromTableName;
+    this.toTableName = toTableName;
+    }
+
+  @Override
+  public boolean isSink()
+    {
+    return false;
+    }
+
+  @Override
+  public void sourceInit( JobConf conf ) throws IOException
+    {
+    super.sourceInit( conf );
+
+    // tables are only needed when planning splits, each split carries its own table name
+    if( conf.get( "mapred.task.partition" ) == null )
+      DBInputFormat.setInputTables( conf, resolveTableNames() );
+    }
+
+  /**
+   * Method resolveTableNames returns the sorted names of all the tables this Tap will read from.
+   *
+   * @return String[]
+   */
+  public String[] resolveTableNames()
+    {
+    List<String> names = new ArrayList<String>();
+
+    if( tableNames != null )
+      names.addAll( Arrays.asList( tableNames ) );
+    else
+      names.addAll( findTableNames() );
+
+    List<String> results = new ArrayList<String>();
+
+    for( String name : names )
+      {
+      if( fromTableName != null && name.compareToIgnoreCase( fromTableName ) < 0 )
+        continue;
+
+      if( toTableName != null && name.compareToIgnoreCase( toTableName ) > 0 )
+        continue;
+
+      results.add( name );
+      }
+
+    if( results.isEmpty() )
+      throw new TapException( "no tables found for: " + ( tableNames != null ? Arrays.asList( tableNames ) : tableNamePattern ) );
+
+    Collections.sort( results, String.CASE_INSENSITIVE_ORDER );
+
+    LOG.info( "reading from tables: {}", results );
+
+    return results.toArray( new String[results.size()] );
+    }
+
+  private List<String> findTableNames()
+    {
+    Connection connection = createConnection();
+
+    try
+      {
+      List<String> results = new ArrayList<String>();
+      ResultSet resultSet = connection.getMetaData().getTables( null, null, tableNamePattern, new String[]{"TABLE"} );
+
+      while( resultSet.next() )
+        results.add( resultSet.getString( "TABLE_NAME" ) );
+
+      resultSet.close();
+
+      return results;
+      }
+    catch( SQLException exception )
+      {
+      throw new TapException( "unable to find tables matching: " + tableNamePattern, exception );
+      }
+    finally
+      {
+      try
+        {
+        connection.close();
+        }
+      catch( SQLException exception )
+        {
+        // ignore
+        LOG.warn( "ignoring connection close exception", exception );
+        }
+      }
+    }
+
+  @Override
+  public String toString()
+    {
+    return "PartitionedJDBCTap{" + "connectionUrl='" + connectionUrl + '\'' + ", driverClassName='" + driverClassName + '\'' + ", tableNamePattern='" + tableNamePattern + '\'' + ", tableNames=" + ( tableNames == null ? null : Arrays.asList( tableNames ) ) + '}';
+    }
+
+  @Override
+  public boolean equals( Object object )
+    {
+    if( this == object )
+      return true;
+    if( !( object instanceof PartitionedJDBCTap ) )
+      return false;
+    if( !super.equals( object ) )
+      return false;
+
+    PartitionedJDBCTap that = (PartitionedJDBCTap) object;
+
+    if( fromTableName != null ? !fromTableName.equals( that.fromTableName ) : that.fromTableName != null )
+      return false;
+    if( tableNamePattern != null ? !tableNamePattern.equals( that.tableNamePattern ) : that.tableNamePattern != null )
+      return false;
+    if( !Arrays.equals( tableNames, that.tableNames ) )
+      return false;
+    if( toTableName != null ? !toTableName.equals( that.toTableName ) : that.toTableName != null )
+      return false;
+
+    return true;
+    }
+
+  @Override
+  public int hashCode()
+    {
+    int result = super.hashCode();
+    result = 31 * result + ( tableNamePattern != null ? tableNamePattern.hashCode() : 0 );
+    result = 31 * result + ( tableNames != null ? Arrays.hashCode( tableNames ) : 0 );
+    result = 31 * result + ( fromTableName != null ? fromTableName.hashCode() : 0 );
+    result = 31 * result + ( toTableName != null ? toTableName.hashCode() : 0 );
+    return result;
+    }
+  }
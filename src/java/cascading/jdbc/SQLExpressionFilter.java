@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import cascading.operation.expression.ExpressionFilter;
+
+/**
+ * Class SQLExpressionFilter is an {@link ExpressionFilter} that carries the equivalent SQL condition, allowing
+ * {@link JDBCPlanner} to push it into the select query of a directly upstream {@link JDBCTap}.
+ * <p/>
+ * Note the expression removes a Tuple when it evaluates to {@code true}, where the condition keeps the
+ * rows it matches. For example, {@code "num < 10"} with condition {@code "num >= 10"}.
+ */
+public class SQLExpressionFilter extends ExpressionFilter implements SQLFilter
+  {
+  /** Field condition */
+  private String condition;
+  /** Field exact */
+  private boolean exact = false;
+
+  /**
+   * Constructor SQLExpressionFilter creates a new SQLExpressionFilter instance.
+   *
+   * @param expression    of type String
+   * @param parameterType of type Class
+   * @param condition     of type String
+   */
+  public SQLExpressionFilter( String expression, Class parameterType, String condition )
+    {
+    super( expression, parameterType );
+    this.condition = condition;
+    }
+
+  /**
+   * Constructor SQLExpressionFilter creates a new SQLExpressionFilter instance.
+   *
+   * @param expression     of type String
+   * @param parameterNames of type String[]
+   * @param parameterTypes of type Class[]
+   * @param condition      of type String
+   */
+  public SQLExpressionFilter( String expression, String[] parameterNames, Class[] parameterTypes, String condition )
+    {
+    super( expression, parameterNames, parameterTypes );
+    this.condition = condition;
+    }
+
+  public String getCondition()
+    {
+    return condition;
+    }
+
+  public boolean isExact()
+    {
+    return exact;
+    }
+
+  /**
+   * Method setExact sets if the condition removes exactly the rows the expression removes, allowing
+   * {@link JDBCPlanner#executeInDatabase(cascading.tap.Tap, cascading.tap.Tap, cascading.pipe.Pipe)} to run this
+   * filter as SQL. Note SQL comparisons with NULL never match, where the expression may.
+   *
+   * @param exact the exact of this SQLExpressionFilter object.
+   */
+  public void setExact( boolean exact )
+    {
+    this.exact = exact;
+    }
+
+  @Override
+  public boolean equals( Object object )
+    {
+    if( this == object )
+      return true;
+    if( !( object instanceof SQLExpressionFilter ) )
+      return false;
+    if( !super.equals( object ) )
+      return false;
+
+    SQLExpressionFilter that = (SQLExpressionFilter) object;
+
+    if( condition != null ? !condition.equals( that.condition ) : that.condition != null )
+      return false;
+    if( exact != that.exact )
+      return false;
+
+    return true;
+    }
+
+  @Override
+  public int hashCode()
+    {
+    int result = super.hashCode();
+    result = 31 * result + ( condition != null ? condition.hashCode() : 0 );
+    result = 31 * result + ( exact ? 1 : 0 );
+    return result;
+    }
+  }
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+/**
+ * Interface SQLFilter is implemented by {@link cascading.operation.Filter} classes that can also be expressed
+ * as a SQL condition. When such a filter directly follows a {@link JDBCTap} source, {@link JDBCPlanner} will
+ * add the condition to the WHERE clause of the select query so that filtered rows never leave the database.
+ * <p/>
+ * The filter is still applied in the pipe assembly, so the condition only needs to remove a subset of the
+ * rows the filter itself removes. {@link JDBCPlanner#executeInDatabase(cascading.tap.Tap, cascading.tap.Tap,
+ * cascading.pipe.Pipe)} replaces the filter by its condition, so only does so if {@link #isExact()} returns true.
+ *
+ * @see SQLExpressionFilter
+ * @see JDBCPlanner
+ */
+public interface SQLFilter
+  {
+  /**
+   * Method getCondition returns the SQL condition equivalent to this filter, in terms of the table column names.
+   * Rows not matching the condition are removed.
+   *
+   * @return the condition (type String) of this SQLFilter object.
+   */
+  String getCondition();
+
+  /**
+   * Method isExact returns true if the condition removes exactly the rows this filter removes, so the filter may
+   * be replaced by the condition.
+   *
+   * @return the exact (type boolean) of this SQLFilter object.
+   */
+  boolean isExact();
+  }
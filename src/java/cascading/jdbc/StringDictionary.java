@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class StringDictionary shares a single instance of each distinct String value of a column.
+ * <p/>
+ * The dictionary holds up to maxSize values. Once a column has more distinct values, the dictionary is
+ * dropped and further values are returned as is, since a high cardinality column gains little from sharing.
+ */
+class StringDictionary
+  {
+  private final int maxSize;
+  private Map<String, String> values = new HashMap<String, String>();
+
+  StringDictionary( int maxSize )
+    {
+    this.maxSize = maxSize;
+    }
+
+  /** @return false once the column had too many distinct values */
+  boolean isEnabled()
+    {
+    return values != null;
+    }
+
+  /** Returns the shared instance equal to the given value. */
+  String intern( String value )
+    {
+    if( values == null )
+      return value;
+
+    String shared = values.get( value );
+
+    if( shared != null )
+      return shared;
+
+    if( values.size() == maxSize )
+      {
+      values = null;
+      return value;
+      }
+
+    values.put( value, value );
+
+    return value;
+    }
+  }
@@ -15,18 +15,30 @@ package cascading.jdbc;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import cascading.util.Util;
 
 /**
  * Class TableDesc describes a SQL based table, this description is used by the {@link JDBCTap} when
  * creating a missing table.
+ * <p/>
+ * Secondary indexes added with {@link #addIndex(String, String[])} are created with the table. Call
+ * {@link #setDeferIndexes(boolean)} to create the table without its primary key and indexes, and add them
+ * in one pass once the Flow writing the table completes, see {@link JDBCFlowListener}.
+ * <p/>
+ * Call {@link #setScratchStorage(String, String)} and {@link #setScratch(boolean)} to create tables rebuilt on
+ * every run with cheaper storage, like {@code UNLOGGED} on PostgreSQL or {@code ENGINE=MyISAM} on MySQL.
+ * <p/>
+ * Sub-classes should override the protected format methods for databases with another syntax for creating,
+ * truncating or renaming tables.
  *
  * @see JDBCTap
  * @see JDBCScheme
  */
-public class TableDesc implements Serializable
+public class TableDesc implements Serializable, Cloneable
   {
   /** Field tableName */
   String tableName;
@@ -36,6 +48,18 @@ public class TableDesc implements Serializable
   String[] columnDefs;
   /** Field primaryKeys */
   String[] primaryKeys;
+  /** Field indexes, the columns of each index by index name */
+  Map<String, String[]> indexes = new LinkedHashMap<String, String[]>();
+  /** Field deferIndexes */
+  boolean deferIndexes = false;
+  /** Field analyze */
+  boolean analyze = false;
+  /** Field scratchModifier, placed before TABLE in the create statement of scratch tables */
+  String scratchModifier;
+  /** Field scratchOptions, placed after the column definitions in the create statement of scratch tables */
+  String scratchOptions;
+  /** Field scratch */
+  boolean scratch = false;
 
   /**
    * Constructor TableDesc creates a new TableDesc instance.
@@ -83,6 +107,102 @@ public class TableDesc implements Serializable
     return primaryKeys;
     }
 
+  /**
+   * Method addIndex adds a secondary index on the given columns.
+   *
+   * @param indexName   of type String
+   * @param columnNames of type String[]
+   */
+  public void addIndex( String indexName, String... columnNames )
+    {
+    indexes.put( indexName, columnNames );
+    }
+
+  /**
+   * Method setDeferIndexes sets if a table created by a {@link JDBCTap} is created without its primary key and
+   * secondary indexes, so bulk loads do not pay for index maintenance on every insert. The primary key and indexes
+   * are added once the Flow completes.
+   *
+   * @param deferIndexes the deferIndexes of this TableDesc object.
+   */
+  public void setDeferIndexes( boolean deferIndexes )
+    {
+    this.deferIndexes = deferIndexes;
+    }
+
+  /**
+   * Method isDeferIndexes returns true if the primary key and indexes are added after the table is loaded.
+   *
+   * @return the deferIndexes (type boolean) of this TableDesc object.
+   */
+  public boolean isDeferIndexes()
+    {
+    return deferIndexes;
+    }
+
+  /**
+   * Method setAnalyze sets if table statistics are gathered with {@link #getAnalyzeStatement()} once the deferred
+   * primary key and indexes are added.
+   * <p/>
+   * The statement differs by database, so nothing is done unless a sub-class overrides getAnalyzeStatement, for
+   * example returning {@code ANALYZE <table>} on PostgreSQL or {@code ANALYZE TABLE <table>} on MySQL.
+   *
+   * @param analyze the analyze of this TableDesc object.
+   */
+  public void setAnalyze( boolean analyze )
+    {
+    this.analyze = analyze;
+    }
+
+  /**
+   * Method isAnalyze returns true if table statistics are gathered after the deferred indexes are added.
+   *
+   * @return the analyze (type boolean) of this TableDesc object.
+   */
+  public boolean isAnalyze()
+    {
+    return analyze;
+    }
+
+  /**
+   * Method setScratchStorage sets the storage clauses used when creating this table as a scratch table, see
+   * {@link #setScratch(boolean)}. Either may be null.
+   * <p/>
+   * For example, {@code UNLOGGED} as the modifier on PostgreSQL skips the write ahead log, and
+   * {@code ENGINE=MyISAM} as the options on MySQL skips the transaction log. Note {@code TEMPORARY} tables are
+   * only visible to the connection creating them, so cannot be written by the tasks of a Flow.
+   *
+   * @param scratchModifier of type String, placed before TABLE, like {@code UNLOGGED}
+   * @param scratchOptions  of type String, placed after the column definitions, like {@code ENGINE=MyISAM}
+   */
+  public void setScratchStorage( String scratchModifier, String scratchOptions )
+    {
+    this.scratchModifier = scratchModifier;
+    this.scratchOptions = scratchOptions;
+    }
+
+  /**
+   * Method setScratch sets if this table is created with the storage clauses given to
+   * {@link #setScratchStorage(String, String)}. Scratch tables hold intermediate results rebuilt on every run,
+   * and may lose their rows if the database fails.
+   *
+   * @param scratch the scratch of this TableDesc object.
+   */
+  public void setScratch( boolean scratch )
+    {
+    this.scratch = scratch;
+    }
+
+  /**
+   * Method isScratch returns true if this table is created as a scratch table.
+   *
+   * @return the scratch (type boolean) of this TableDesc object.
+   */
+  public boolean isScratch()
+    {
+    return scratch;
+    }
+
   /**
    * Method getTableCreateStatement returns the tableCreateStatement of this TableDesc object.
    *
@@ -107,7 +227,31 @@ public class TableDesc implements Serializable
 
   protected String getCreateTableFormat()
     {
-    return "CREATE TABLE %s ( %s )";
+    return "CREATE " + getStorageModifier() + "TABLE %s ( %s )" + getStorageOptions();
+    }
+
+  /**
+   * Returns the storage modifier followed by a space, or an empty String, for use by sub-classes overriding
+   * {@link #getCreateTableFormat()}.
+   */
+  protected String getStorageModifier()
+    {
+    if( !scratch || scratchModifier == null )
+      return "";
+
+    return scratchModifier.replace( "%", "%%" ) + " ";
+    }
+
+  /**
+   * Returns the storage options preceded by a space, or an empty String, for use by sub-classes overriding
+   * {@link #getCreateTableFormat()}.
+   */
+  protected String getStorageOptions()
+    {
+    if( !scratch || scratchOptions == null )
+      return "";
+
+    return " " + scratchOptions.replace( "%", "%%" );
     }
 
   protected List<String> addDefinitionsTo( List<String> createTableStatement )
@@ -125,12 +269,69 @@ public class TableDesc implements Serializable
 
   protected List<String> addPrimaryKeyTo( List<String> createTableStatement )
     {
-    if( hasPrimaryKey() )
+    if( hasPrimaryKey() && !deferIndexes )
       createTableStatement.add( String.format( "PRIMARY KEY( %s )", Util.join( primaryKeys, ", " ) ) );
 
     return createTableStatement;
     }
 
+  /**
+   * Method getCreateIndexStatements returns the statements creating the secondary indexes of this TableDesc object.
+   *
+   * @return the createIndexStatements (type List<String>) of this TableDesc object.
+   */
+  public List<String> getCreateIndexStatements()
+    {
+    List<String> statements = new ArrayList<String>();
+
+    for( Map.Entry<String, String[]> index : indexes.entrySet() )
+      statements.add( String.format( getCreateIndexFormat(), index.getKey(), tableName, Util.join( index.getValue(), ", " ) ) );
+
+    return statements;
+    }
+
+  protected String getCreateIndexFormat()
+    {
+    return "CREATE INDEX %s ON %s ( %s )";
+    }
+
+  /**
+   * Method getDeferredStatements returns the statements adding the primary key and indexes of a table created
+   * without them, followed by the analyze statement if enabled.
+   *
+   * @return the deferredStatements (type List<String>) of this TableDesc object.
+   */
+  public List<String> getDeferredStatements()
+    {
+    List<String> statements = new ArrayList<String>();
+
+    if( hasPrimaryKey() )
+      statements.add( String.format( getAddPrimaryKeyFormat(), tableName, Util.join( primaryKeys, ", " ) ) );
+
+    statements.addAll( getCreateIndexStatements() );
+
+    if( analyze && getAnalyzeStatement() != null )
+      statements.add( getAnalyzeStatement() );
+
+    return statements;
+    }
+
+  protected String getAddPrimaryKeyFormat()
+    {
+    return "ALTER TABLE %s ADD PRIMARY KEY ( %s )";
+    }
+
+  /**
+   * Method getAnalyzeStatement returns the statement gathering the statistics of this table, or null if there is
+   * none. There is no standard syntax, so sub-classes should override this for their database, the default is null.
+   *
+   * @return the analyzeStatement (type String) of this TableDesc object.
+   */
+  public String getAnalyzeStatement()
+    {
+    return null;
+    }
+
   /**
    * Method getTableDropStatement returns the tableDropStatement of this TableDesc object.
    *
@@ -146,6 +347,71 @@ public class TableDesc implements Serializable
     return "DROP TABLE %s";
     }
 
+  /**
+   * Method getTruncateStatement returns the statement removing all rows of this table, without dropping it.
+   *
+   * @return the truncateStatement (type String) of this TableDesc object.
+   */
+  public String getTruncateStatement()
+    {
+    return String.format( getTruncateTableFormat(), tableName );
+    }
+
+  protected String getTruncateTableFormat()
+    {
+    return "TRUNCATE TABLE %s";
+    }
+
+  /**
+   * Method getSwapStatements returns the statements replacing this table by the given loaded table, renaming this
+   * table to the given old table name first if it exists. The statements are executed in one transaction, which
+   * only makes the swap atomic on databases with transactional DDL. MySQL and Oracle commit each statement.
+   *
+   * @param loadedTableName of type String
+   * @param oldTableName    of type String
+   * @param exists          of type boolean, true if this table exists
+   * @return List<String>
+   */
+  public List<String> getSwapStatements( String loadedTableName, String oldTableName, boolean exists )
+    {
+    List<String> statements = new ArrayList<String>();
+
+    if( exists )
+      statements.add( String.format( getRenameTableFormat(), tableName, oldTableName ) );
+
+    statements.add( String.format( getRenameTableFormat(), loadedTableName, tableName ) );
+
+    return statements;
+    }
+
+  protected String getRenameTableFormat()
+    {
+    return "ALTER TABLE %s RENAME TO %s";
+    }
+
+  /**
+   * Returns a copy of this TableDesc describing the given table. Named indexes are not copied, as index names
+   * are unique across tables on most databases.
+   */
+  TableDesc copyWith( String tableName )
+    {
+    TableDesc tableDesc;
+
+    try
+      {
+      tableDesc = (TableDesc) clone();
+      }
+    catch( CloneNotSupportedException exception )
+      {
+      throw new IllegalStateException( "unable to copy table description", exception );
+      }
+
+    tableDesc.tableName = tableName;
+    tableDesc.indexes = new LinkedHashMap<String, String[]>();
+
+    return tableDesc;
+    }
+
   /**
    * Method getTableExistsQuery returns the tableExistsQuery of this TableDesc object.
    *
@@ -156,7 +422,7 @@ public class TableDesc implements Serializable
     return String.format( "select 1 from %s where 1 = 0", tableName );
     }
 
-  private boolean hasPrimaryKey()
+  boolean hasPrimaryKey()
     {
     return primaryKeys != null && primaryKeys.length != 0;
     }
@@ -164,7 +430,7 @@ public class TableDesc implements Serializable
   @Override
   public String toString()
     {
-    return "TableDesc{" + "tableName='" + tableName + '\'' + ", columnNames=" + ( columnNames == null ? null : Arrays.asList( columnNames ) ) + ", columnDefs=" + ( columnDefs == null ? null : Arrays.asList( columnDefs ) ) + ", primaryKeys=" + ( primaryKeys == null ? null : Arrays.asList( primaryKeys ) ) + '}';
+    return "TableDesc{" + "tableName='" + tableName + '\'' + ", columnNames=" + ( columnNames == null ? null : Arrays.asList( columnNames ) ) + ", columnDefs=" + ( columnDefs == null ? null : Arrays.asList( columnDefs ) ) + ", primaryKeys=" + ( primaryKeys == null ? null : Arrays.asList( primaryKeys ) ) + ", indexes=" + indexes.keySet() + ", deferIndexes=" + deferIndexes + ", scratch=" + scratch + '}';
     }
 
   @Override
@@ -183,6 +449,16 @@ public class TableDesc implements Serializable
       return false;
     if( !Arrays.equals( primaryKeys, tableDesc.primaryKeys ) )
       return false;
+    if( deferIndexes != tableDesc.deferIndexes || analyze != tableDesc.analyze )
+      return false;
+    if( scratch != tableDesc.scratch )
+      return false;
+    if( scratchModifier != null ? !scratchModifier.equals( tableDesc.scratchModifier ) : tableDesc.scratchModifier != null )
+      return false;
+    if( scratchOptions != null ? !scratchOptions.equals( tableDesc.scratchOptions ) : tableDesc.scratchOptions != null )
+      return false;
+    if( !indexes.keySet().equals( tableDesc.indexes.keySet() ) )
+      return false;
     if( tableName != null ? !tableName.equals( tableDesc.tableName ) : tableDesc.tableName != null )
       return false;
 
@@ -196,6 +472,9 @@ public class TableDesc implements Serializable
     result = 31 * result + ( columnNames != null ? Arrays.hashCode( columnNames ) : 0 );
     result = 31 * result + ( columnDefs != null ? Arrays.hashCode( columnDefs ) : 0 );
     result = 31 * result + ( primaryKeys != null ? Arrays.hashCode( primaryKeys ) : 0 );
+    result = 31 * result + indexes.keySet().hashCode();
+    result = 31 * result + ( deferIndexes ? 1 : 0 );
+    result = 31 * result + ( scratch ? 1 : 0 );
     return result;
     }
   }
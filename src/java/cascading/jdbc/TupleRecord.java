@@ -12,19 +12,115 @@
 
 package cascading.jdbc;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
-import cascading.jdbc.db.DBWritable;
+import cascading.jdbc.db.IndexedDBWritable;
+import cascading.jdbc.db.StreamingDBWritable;
+import cascading.tap.TapException;
 import cascading.tuple.Tuple;
+import cascading.util.Util;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.JobConfigurable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- *
+ * Class TupleRecord holds a single row as a {@link Tuple}.
+ * <p/>
+ * It is also a {@link Writable}, so read rows can be cached in a SequenceFile. Each value is written as
+ * a type tag followed by a compact encoding of the common JDBC types, other values are written with Java
+ * serialization.
+ * <p/>
+ * When {@link #REUSE_PROPERTY} is true, each row read is set into the same Tuple instance, instead of a new
+ * Tuple per row. Consumers must then copy the Tuple if they hold on to it past the next row.
+ * <p/>
+ * When {@link #LOB_PATH_PROPERTY} is set, large object columns, and the columns named by
+ * {@link #LOB_COLUMNS_PROPERTY}, are streamed into files under that path, and the Tuple holds the path of each
+ * file instead of the value. Values at the positions given to {@link #setLobPositions(boolean[])} are paths to
+ * files streamed into the statement when written.
+ * <p/>
+ * When {@link #DICTIONARY_SIZE_PROPERTY} is set, each String value read is replaced by a single shared instance
+ * per distinct value and column. A column is no longer shared once it had more distinct values than the given size.
+ * <p/>
+ * When {@link #CODECS_PROPERTY} is set, columns are read with the {@link TypeCodec} found in the serialized
+ * {@link CodecRegistry}. Values are written with the codecs given to {@link #setCodecs(CodecRegistry, String[])}, or
+ * found in {@link #SINK_CODECS_PROPERTY}.
  */
-public class TupleRecord implements DBWritable
+public class TupleRecord implements IndexedDBWritable, Writable, JobConfigurable, StreamingDBWritable
   {
+  /** If the Tuple instance is reused for every row read */
+  public static final String REUSE_PROPERTY = "cascading.jdbc.tuplerecord.reuse";
+  /** The path large object values read are streamed into */
+  public static final String LOB_PATH_PROPERTY = "cascading.jdbc.tuplerecord.lob.path";
+  /** Comma separated names of additional columns to stream into files */
+  public static final String LOB_COLUMNS_PROPERTY = "cascading.jdbc.tuplerecord.lob.columns";
+  /** The maximum number of distinct String values shared per column, 0 to not share values */
+  public static final String DICTIONARY_SIZE_PROPERTY = "cascading.jdbc.tuplerecord.dictionary.size";
+  /** The base64 serialized CodecRegistry used to read columns */
+  public static final String CODECS_PROPERTY = "cascading.jdbc.tuplerecord.codecs";
+  /** The column name of each value written */
+  public static final String SINK_COLUMNS_PROPERTY = "cascading.jdbc.tuplerecord.sink.columns";
+  /** The base64 serialized CodecRegistry used to write values */
+  public static final String SINK_CODECS_PROPERTY = "cascading.jdbc.tuplerecord.sink.codecs";
+  /** Comma separated names of the columns written from files */
+  public static final String SINK_LOB_COLUMNS_PROPERTY = "cascading.jdbc.tuplerecord.sink.lob.columns";
+
+  /** Field LOG */
+  private static final Logger LOG = LoggerFactory.getLogger( TupleRecord.class );
+
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte INTEGER = 2;
+  private static final byte LONG = 3;
+  private static final byte DOUBLE = 4;
+  private static final byte FLOAT = 5;
+  private static final byte BOOLEAN = 6;
+  private static final byte SHORT = 7;
+  private static final byte BYTE = 8;
+  private static final byte DECIMAL = 9;
+  private static final byte TIMESTAMP = 10;
+  private static final byte DATE = 11;
+  private static final byte TIME = 12;
+  private static final byte SERIALIZED = 13;
+
   private Tuple tuple;
+  private boolean reuse = false;
+  private int columnCount = -1;
+  private LobFiles lobFiles;
+  private Set<String> lobColumns;
+  private int[] lobTypes;
+  private boolean[] lobPositions;
+  private List<Closeable> streams;
+  private int dictionarySize = 0;
+  private StringDictionary[] dictionaries;
+  private CodecRegistry codecs;
+  private TypeCodec[] readCodecs;
+  private CodecRegistry sinkCodecs;
+  private String[] columnNames;
+  private PreparedStatement codecStatement;
+  private TypeCodec[] statementCodecs;
+  private JobConf job;
 
   public TupleRecord()
     {
@@ -35,6 +131,79 @@ public class TupleRecord implements DBWritable
     this.tuple = tuple;
     }
 
+  public void configure( JobConf job )
+    {
+    this.job = job;
+    reuse = job.getBoolean( REUSE_PROPERTY, false );
+    dictionarySize = job.getInt( DICTIONARY_SIZE_PROPERTY, 0 );
+
+    codecs = getCodecs( job, CODECS_PROPERTY );
+
+    columnNames = job.getStrings( SINK_COLUMNS_PROPERTY );
+    sinkCodecs = getCodecs( job, SINK_CODECS_PROPERTY );
+
+    if( columnNames != null && job.getStrings( SINK_LOB_COLUMNS_PROPERTY ) != null )
+      lobPositions = LobFiles.getPositions( columnNames, job.getStrings( SINK_LOB_COLUMNS_PROPERTY ) );
+
+    if( job.get( LOB_PATH_PROPERTY ) == null )
+      return;
+
+    try
+      {
+      lobFiles = new LobFiles( job, job.get( LOB_PATH_PROPERTY ) );
+      }
+    catch( IOException exception )
+      {
+      throw new TapException( "unable to get file system for: " + job.get( LOB_PATH_PROPERTY ), exception );
+      }
+
+    lobColumns = new HashSet<String>();
+
+    if( job.getStrings( LOB_COLUMNS_PROPERTY ) == null )
+      return;
+
+    for( String column : job.getStrings( LOB_COLUMNS_PROPERTY ) )
+      lobColumns.add( column.trim().toLowerCase() );
+    }
+
+  private static CodecRegistry getCodecs( JobConf job, String property )
+    {
+    if( job.get( property ) == null )
+      return null;
+
+    try
+      {
+      return (CodecRegistry) Util.deserializeBase64( job.get( property ) );
+      }
+    catch( IOException exception )
+      {
+      throw new TapException( "unable to deserialize codecs", exception );
+      }
+    }
+
+  /**
+   * Method setLobPositions sets which values are paths to files to be streamed into the statement when written.
+   *
+   * @param lobPositions true for each value position streamed from a file
+   */
+  public void setLobPositions( boolean[] lobPositions )
+    {
+    this.lobPositions = lobPositions;
+    }
+
+  /**
+   * Method setCodecs sets the codecs used to write the values, and the column name of each value.
+   *
+   * @param codecs      of type CodecRegistry
+   * @param columnNames of type String[]
+   */
+  public void setCodecs( CodecRegistry codecs, String[] columnNames )
+    {
+    this.sinkCodecs = codecs;
+    this.columnNames = columnNames;
+    this.codecStatement = null;
+    }
+
   public void setTuple( Tuple tuple )
     {
     this.tuple = tuple;
@@ -45,18 +214,313 @@ public class TupleRecord implements DBWritable
     return tuple;
     }
 
+  public int size()
+    {
+    return tuple.size();
+    }
+
+  public Object getValue( int index )
+    {
+    return tuple.get( index );
+    }
+
   public void write( PreparedStatement statement ) throws SQLException
     {
+    TypeCodec[] writeCodecs = getCodecs( statement );
+
     for( int i = 0; i < tuple.size(); i++ )
-      statement.setObject( i + 1, tuple.get( i ) );
+      {
+      Comparable value = tuple.get( i );
+
+      if( value != null && writeCodecs != null && writeCodecs[ i ] != null )
+        {
+        writeCodecs[ i ].encode( statement, i + 1, value );
+        continue;
+        }
+
+      if( value == null || lobPositions == null || !lobPositions[ i ] )
+        {
+        statement.setObject( i + 1, value );
+        continue;
+        }
+
+      if( streams == null )
+        streams = new ArrayList<Closeable>();
+
+      if( job == null )
+        throw new SQLException( "no job configuration to open large object files with" );
+
+      streams.add( LobFiles.bind( job, statement, i + 1, value.toString() ) );
+      }
+    }
+
+  /** Returns the codec of each value written to the given statement, resolved once per statement. */
+  private TypeCodec[] getCodecs( PreparedStatement statement )
+    {
+    if( sinkCodecs == null || columnNames == null )
+      return null;
+
+    if( statement != codecStatement )
+      {
+      statementCodecs = sinkCodecs.getCodecs( statement, columnNames );
+      codecStatement = statement;
+      }
+
+    return statementCodecs;
+    }
+
+  public void configureStreams( JobConf job )
+    {
+    this.job = job;
+    }
+
+  public List<Closeable> takeStreams()
+    {
+    if( streams == null )
+      return Collections.emptyList();
+
+    List<Closeable> result = streams;
+
+    streams = null;
+
+    return result;
     }
 
   public void readFields( ResultSet resultSet ) throws SQLException
     {
+    // every row read by a record comes from the same query
+    if( columnCount == -1 )
+      columnCount = resultSet.getMetaData().getColumnCount();
+
+    if( lobFiles != null && lobTypes == null )
+      lobTypes = LobFiles.getTypes( resultSet.getMetaData(), lobColumns );
+
+    if( dictionarySize > 0 && dictionaries == null )
+      dictionaries = new StringDictionary[columnCount];
+
+    if( codecs != null && readCodecs == null )
+      readCodecs = codecs.getCodecs( resultSet.getMetaData() );
+
+    if( reuse )
+      {
+      prepareTuple( columnCount );
+
+      for( int i = 0; i < columnCount; i++ )
+        tuple.set( i, readValue( resultSet, i ) );
+
+      return;
+      }
+
     tuple = new Tuple();
 
-    for( int i = 0; i < resultSet.getMetaData().getColumnCount(); i++ )
-      tuple.add( (Comparable) resultSet.getObject( i + 1 ) );
+    for( int i = 0; i < columnCount; i++ )
+      tuple.add( readValue( resultSet, i ) );
+    }
+
+  private Comparable readValue( ResultSet resultSet, int i ) throws SQLException
+    {
+    if( lobTypes != null && lobTypes[ i ] != LobFiles.NONE )
+      return lobFiles.read( resultSet, i + 1, lobTypes[ i ] );
+
+    if( readCodecs != null && readCodecs[ i ] != null )
+      return intern( i, readCodecs[ i ].decode( resultSet, i + 1 ) );
+
+    Object value = resultSet.getObject( i + 1 );
+
+    if( value != null && !( value instanceof Comparable ) )
+      throw new SQLException( "column: " + resultSet.getMetaData().getColumnLabel( i + 1 ) + " has a value of type: " + value.getClass().getName() + " that is not Comparable, register a TypeCodec for it" );
+
+    return intern( i, (Comparable) value );
+    }
+
+  private Comparable intern( int column, Comparable value )
+    {
+    if( dictionaries == null || column >= dictionaries.length || !( value instanceof String ) )
+      return value;
+
+    StringDictionary dictionary = dictionaries[ column ];
+
+    if( dictionary == null )
+      dictionary = dictionaries[ column ] = new StringDictionary( dictionarySize );
+
+    if( !dictionary.isEnabled() )
+      return value;
+
+    String shared = dictionary.intern( (String) value );
+
+    if( !dictionary.isEnabled() )
+      LOG.info( "column {} has more than {} distinct values, no longer sharing values", column, dictionarySize );
+
+    return shared;
+    }
+
+  private void prepareTuple( int size )
+    {
+    if( tuple == null || tuple.size() != size )
+      tuple = Tuple.size( size );
     }
 
+  public void write( DataOutput output ) throws IOException
+    {
+    WritableUtils.writeVInt( output, tuple.size() );
+
+    for( int i = 0; i < tuple.size(); i++ )
+      writeValue( output, tuple.get( i ) );
+    }
+
+  public void readFields( DataInput input ) throws IOException
+    {
+    int size = WritableUtils.readVInt( input );
+
+    if( dictionarySize > 0 && dictionaries == null )
+      dictionaries = new StringDictionary[size];
+
+    if( reuse )
+      {
+      prepareTuple( size );
+
+      for( int i = 0; i < size; i++ )
+        tuple.set( i, intern( i, readValue( input ) ) );
+
+      return;
+      }
+
+    tuple = new Tuple();
+
+    for( int i = 0; i < size; i++ )
+      tuple.add( intern( i, readValue( input ) ) );
+    }
+
+  static void writeValue( DataOutput output, Comparable value ) throws IOException
+    {
+    if( value == null )
+      {
+      output.writeByte( NULL );
+      }
+    else if( value instanceof String )
+      {
+      output.writeByte( STRING );
+      WritableUtils.writeString( output, (String) value );
+      }
+    else if( value instanceof Integer )
+      {
+      output.writeByte( INTEGER );
+      WritableUtils.writeVInt( output, (Integer) value );
+      }
+    else if( value instanceof Long )
+      {
+      output.writeByte( LONG );
+      WritableUtils.writeVLong( output, (Long) value );
+      }
+    else if( value instanceof Double )
+      {
+      output.writeByte( DOUBLE );
+      output.writeDouble( (Double) value );
+      }
+    else if( value instanceof Float )
+      {
+      output.writeByte( FLOAT );
+      output.writeFloat( (Float) value );
+      }
+    else if( value instanceof Boolean )
+      {
+      output.writeByte( BOOLEAN );
+      output.writeBoolean( (Boolean) value );
+      }
+    else if( value instanceof Short )
+      {
+      output.writeByte( SHORT );
+      output.writeShort( (Short) value );
+      }
+    else if( value instanceof Byte )
+      {
+      output.writeByte( BYTE );
+      output.writeByte( (Byte) value );
+      }
+    else if( value instanceof BigDecimal )
+      {
+      output.writeByte( DECIMAL );
+      WritableUtils.writeString( output, value.toString() );
+      }
+    else if( value instanceof Timestamp )
+      {
+      output.writeByte( TIMESTAMP );
+      output.writeLong( ( (Timestamp) value ).getTime() );
+      output.writeInt( ( (Timestamp) value ).getNanos() );
+      }
+    else if( value instanceof Date )
+      {
+      output.writeByte( DATE );
+      output.writeLong( ( (Date) value ).getTime() );
+      }
+    else if( value instanceof Time )
+      {
+      output.writeByte( TIME );
+      output.writeLong( ( (Time) value ).getTime() );
+      }
+    else
+      {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream objectOutput = new ObjectOutputStream( bytes );
+
+      objectOutput.writeObject( value );
+      objectOutput.close();
+
+      output.writeByte( SERIALIZED );
+      WritableUtils.writeVInt( output, bytes.size() );
+      output.write( bytes.toByteArray() );
+      }
+    }
+
+  static Comparable readValue( DataInput input ) throws IOException
+    {
+    byte type = input.readByte();
+
+    switch( type )
+      {
+      case NULL:
+        return null;
+      case STRING:
+        return WritableUtils.readString( input );
+      case INTEGER:
+        return WritableUtils.readVInt( input );
+      case LONG:
+        return WritableUtils.readVLong( input );
+      case DOUBLE:
+        return input.readDouble();
+      case FLOAT:
+        return input.readFloat();
+      case BOOLEAN:
+        return input.readBoolean();
+      case SHORT:
+        return input.readShort();
+      case BYTE:
+        return input.readByte();
+      case DECIMAL:
+        return new BigDecimal( WritableUtils.readString( input ) );
+      case TIMESTAMP:
+        Timestamp timestamp = new Timestamp( input.readLong() );
+        timestamp.setNanos( input.readInt() );
+        return timestamp;
+      case DATE:
+        return new Date( input.readLong() );
+      case TIME:
+        return new Time( input.readLong() );
+      case SERIALIZED:
+        byte[] bytes = new byte[WritableUtils.readVInt( input )];
+
+        input.readFully( bytes );
+
+        try
+          {
+          return (Comparable) new ObjectInputStream( new ByteArrayInputStream( bytes ) ).readObject();
+          }
+        catch( ClassNotFoundException exception )
+          {
+          throw new IOException( "unable to read value", exception );
+          }
+      default:
+        throw new IOException( "unknown value type: " + type );
+      }
+    }
   }
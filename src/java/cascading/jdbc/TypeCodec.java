@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Interface TypeCodec converts a column value read into the value held by the Tuple, and converts the Tuple value
+ * back when written.
+ * <p/>
+ * Codecs are registered with a {@link CodecRegistry} by {@link java.sql.Types} type or column name. Implement
+ * equals and hashCode, registries holding equal codecs are equal, as are the Schemes holding them.
+ *
+ * @see CodecRegistry
+ */
+public interface TypeCodec extends Serializable
+  {
+  /**
+   * Reads the given column of the current row.
+   *
+   * @param resultSet the ResultSet to read
+   * @param column    the column index, starting at 1
+   * @return the value to hold in the Tuple, or null
+   */
+  Comparable decode( ResultSet resultSet, int column ) throws SQLException;
+
+  /**
+   * Binds the given Tuple value as the given parameter.
+   *
+   * @param statement the statement to bind
+   * @param index     the parameter index, starting at 1
+   * @param value     the Tuple value, never null
+   */
+  void encode( PreparedStatement statement, int index, Comparable value ) throws SQLException;
+  }
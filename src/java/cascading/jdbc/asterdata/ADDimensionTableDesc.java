@@ -25,7 +25,7 @@ public class ADDimensionTableDesc extends AsterDataTableDesc
   @Override
   protected String getCreateTableFormat()
     {
-    return "CREATE DIMENSION TABLE %s ( %s )";
+    return "CREATE " + getStorageModifier() + "DIMENSION TABLE %s ( %s )" + getStorageOptions();
     }
 
   @Override
@@ -25,7 +25,7 @@ public class ADFactTableDesc extends AsterDataTableDesc
   @Override
   protected String getCreateTableFormat()
     {
-    return "CREATE FACT TABLE %s ( %s )";
+    return "CREATE " + getStorageModifier() + "FACT TABLE %s ( %s )" + getStorageOptions();
     }
 
   @Override
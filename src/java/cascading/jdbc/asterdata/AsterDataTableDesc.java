@@ -51,7 +51,13 @@ public class AsterDataTableDesc extends TableDesc
     return createTableStatement;
     }
 
-  private boolean hasPartitionKey()
+  @Override
+  public String getAnalyzeStatement()
+    {
+    return String.format( "ANALYZE %s", getTableName() );
+    }
+
+    private boolean hasPartitionKey()
     {
     return partitionKey != null && partitionKey.length() != 0;
     }
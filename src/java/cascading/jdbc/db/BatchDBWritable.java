@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+/**
+ * A {@link DBWritable} holding a batch of rows, instead of a single row.
+ * <p/>
+ * The record reader of {@link DBInputFormat} calls {@link #clear()}, then appends rows by calling
+ * {@link #readFields(java.sql.ResultSet)} for each row until the batch is full or the rows run out,
+ * so each record returned holds up to a full batch of rows.
+ */
+public interface BatchDBWritable extends DBWritable
+  {
+  /** Removes all rows from this batch. */
+  void clear();
+
+  /** @return true if no more rows can be appended to this batch */
+  boolean isFull();
+
+  /** @return the number of rows held */
+  int getRows();
+  }
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.UUID;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A queue of row ranges, chunks, shared by all the record readers of a dynamic input through
+ * a directory on the job FileSystem.
+ * <p/>
+ * A reader claims a chunk by writing a temporary file holding the index of the claiming split, and
+ * renaming it to a file named after the chunk. The rename fails if the chunk file exists, as it does
+ * on HDFS, so each chunk is read once, and a claim file always holds its owner. Readers start claiming
+ * at a chunk proportional to their split index to avoid contending for the same files.
+ * <p/>
+ * A retried task attempt first reclaims the chunks claimed by the failed attempts of its split.
+ */
+class DBChunkQueue
+  {
+  /** Field LOG */
+  private static final Logger LOG = LoggerFactory.getLogger( DBChunkQueue.class );
+  /** Field CLAIM_PREFIX, the prefix of the claim file of each chunk */
+  private static final String CLAIM_PREFIX = "chunk-";
+  /** Field TEMPORARY_PREFIX, the prefix of claim files being written */
+  private static final String TEMPORARY_PREFIX = "_claim-";
+
+  private final FileSystem fileSystem;
+  private final Path claimDir;
+  private final int splitIndex;
+  private final int numChunks;
+  private final long count;
+  private final LinkedList<Integer> reclaimed = new LinkedList<Integer>();
+  private int cursor;
+  private int scanned = 0;
+
+  DBChunkQueue( FileSystem fileSystem, Path claimDir, int splitIndex, int numSplits, int numChunks, long count, boolean retry ) throws IOException
+    {
+    this.fileSystem = fileSystem;
+    this.claimDir = claimDir;
+    this.splitIndex = splitIndex;
+    this.numChunks = numChunks;
+    this.count = count;
+    this.cursor = (int) ( (long) splitIndex * numChunks / numSplits );
+
+    if( retry )
+      reclaim();
+    }
+
+  /**
+   * Returns the index of the next chunk claimed by this reader, or -1 if all chunks are claimed.
+   *
+   * @return the chunk index or -1
+   * @throws IOException when the claim directory cannot be written
+   */
+  int claim() throws IOException
+    {
+    if( !reclaimed.isEmpty() )
+      return reclaimed.removeFirst();
+
+    while( scanned < numChunks )
+      {
+      int chunk = cursor;
+
+      cursor = ( cursor + 1 ) % numChunks;
+      scanned++;
+
+      if( tryClaim( chunk ) )
+        return chunk;
+      }
+
+    return -1;
+    }
+
+  /** Returns the index of the first row of the given chunk. */
+  long getStart( int chunk )
+    {
+    return chunk * ( count / numChunks );
+    }
+
+  /** Returns the index after the last row of the given chunk, the last chunk holds the remainder. */
+  long getEnd( int chunk )
+    {
+    return chunk + 1 == numChunks ? count : getStart( chunk + 1 );
+    }
+
+  private boolean tryClaim( int chunk ) throws IOException
+    {
+    Path path = getPath( chunk );
+
+    if( fileSystem.exists( path ) )
+      return false;
+
+    // a temporary file left by an attempt that died before the rename leaves the chunk unclaimed
+    Path temporary = new Path( claimDir, TEMPORARY_PREFIX + chunk + "-" + UUID.randomUUID() );
+    FSDataOutputStream output = fileSystem.create( temporary, false );
+
+    try
+      {
+      output.writeInt( splitIndex );
+      }
+    finally
+      {
+      output.close();
+      }
+
+    if( fileSystem.rename( temporary, path ) )
+      return true;
+
+    fileSystem.delete( temporary, false );
+
+    if( fileSystem.exists( path ) )
+      return false; // claimed by another reader between the test and the rename
+
+    throw new IOException( "unable to claim chunk: " + chunk + ", failed to rename: " + temporary + " to: " + path );
+    }
+
+  private void reclaim() throws IOException
+    {
+    FileStatus[] statuses = fileSystem.listStatus( claimDir );
+
+    if( statuses == null )
+      return;
+
+    for( FileStatus status : statuses )
+      {
+      if( !status.getPath().getName().startsWith( CLAIM_PREFIX ) )
+        continue;
+
+      // claim files are renamed once written, so a short one was not written by this queue
+      if( status.getLen() < 4 )
+        throw new IOException( "claim file is truncated: " + status.getPath() );
+
+      FSDataInputStream input = fileSystem.open( status.getPath() );
+
+      try
+        {
+        if( input.readInt() == splitIndex )
+          reclaimed.add( Integer.parseInt( status.getPath().getName().substring( CLAIM_PREFIX.length() ) ) );
+        }
+      finally
+        {
+        input.close();
+        }
+      }
+
+    LOG.info( "reclaimed {} chunks from previous attempts of split: {}", reclaimed.size(), splitIndex );
+    }
+
+  private Path getPath( int chunk )
+    {
+    return new Path( claimDir, CLAIM_PREFIX + chunk );
+    }
+  }
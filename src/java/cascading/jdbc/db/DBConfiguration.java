@@ -63,6 +63,9 @@ public class DBConfiguration
   /** Input table name */
   public static final String INPUT_TABLE_NAME_PROPERTY = "mapred.jdbc.input.table.name";
 
+  /** Input table names, when reading a set of partitioned tables */
+  public static final String INPUT_TABLE_NAMES_PROPERTY = "mapred.jdbc.input.table.names";
+
   /** Field names in the Input table */
   public static final String INPUT_FIELD_NAMES_PROPERTY = "mapred.jdbc.input.field.names";
 
@@ -75,6 +78,81 @@ public class DBConfiguration
   /** Whole input query, exluding LIMIT...OFFSET */
   public static final String INPUT_QUERY = "mapred.jdbc.input.query";
 
+  /** Format of the statement explaining a split query, like "EXPLAIN %s", the query replaces %s */
+  public static final String INPUT_EXPLAIN_FORMAT_PROPERTY = "mapred.jdbc.input.explain.format";
+
+  /** Regular expression whose first group captures the estimated cost from the plan */
+  public static final String INPUT_EXPLAIN_COST_PATTERN_PROPERTY = "mapred.jdbc.input.explain.cost.pattern";
+
+  /** Regular expression matching a sequential scan in the plan */
+  public static final String INPUT_EXPLAIN_SCAN_PATTERN_PROPERTY = "mapred.jdbc.input.explain.scan.pattern";
+
+  /** The number of rows of the scanned table above which a plan with a sequential scan fails the job */
+  public static final String INPUT_EXPLAIN_SCAN_MAX_ROWS_PROPERTY = "mapred.jdbc.input.explain.scan.rows.max";
+
+  /** The number of chunks claimed dynamically by the readers, 0 for a fixed range of rows per reader */
+  public static final String INPUT_DYNAMIC_CHUNKS_PROPERTY = "mapred.jdbc.input.dynamic.chunks";
+
+  /** The directory on the job FileSystem holding the dynamic chunk claims */
+  public static final String INPUT_DYNAMIC_DIR_PROPERTY = "mapred.jdbc.input.dynamic.dir";
+
+  /** The unique column the input is ordered by, used to resume reading after the last row read */
+  public static final String INPUT_RESUME_KEY_PROPERTY = "mapred.jdbc.input.resume.key";
+
+  /** The number of times a reader resumes reading after a transient failure */
+  public static final String INPUT_RESUME_ATTEMPTS_PROPERTY = "mapred.jdbc.input.resume.attempts";
+
+  /** The milliseconds to wait before resuming, doubled on each attempt */
+  public static final String INPUT_RESUME_BACKOFF_PROPERTY = "mapred.jdbc.input.resume.backoff";
+
+  /** The transaction isolation level of the reader connections, -1 for the driver default */
+  public static final String INPUT_ISOLATION_LEVEL_PROPERTY = "mapred.jdbc.input.isolation.level";
+
+  /** If the reader connections should be marked read only */
+  public static final String INPUT_READ_ONLY_PROPERTY = "mapred.jdbc.input.read.only";
+
+  /** If all readers should import the snapshot exported when planning the splits */
+  public static final String INPUT_SNAPSHOT_PROPERTY = "mapred.jdbc.input.snapshot";
+
+  /** The id of the snapshot exported when planning the splits */
+  public static final String INPUT_SNAPSHOT_ID_PROPERTY = "mapred.jdbc.input.snapshot.id";
+
+  /**
+   * The milliseconds the transaction exporting the snapshot is kept open for the readers to import it, if it is
+   * not released first. Must be longer than the job, readers started after it expires fail
+   */
+  public static final String INPUT_SNAPSHOT_HOLD_PROPERTY = "mapred.jdbc.input.snapshot.hold";
+
+  /** The id of the owner of the snapshots exported when planning the splits, used to release them */
+  public static final String INPUT_SNAPSHOT_OWNER_PROPERTY = "mapred.jdbc.input.snapshot.owner";
+
+  /** The number of seconds a reader query may run before it is cancelled, 0 for no limit */
+  public static final String INPUT_QUERY_TIMEOUT_PROPERTY = "mapred.jdbc.input.query.timeout";
+
+  /** The number of milliseconds a single fetch may take before the reader query is cancelled, 0 for no limit */
+  public static final String INPUT_FETCH_TIMEOUT_PROPERTY = "mapred.jdbc.input.fetch.timeout";
+
+  /** The number of ranges the unread rows of a timed out query are divided into, less than 2 to fail instead */
+  public static final String INPUT_TIMEOUT_SPLITS_PROPERTY = "mapred.jdbc.input.timeout.splits";
+
+  /** The number of times a reader may divide the unread rows of timed out queries */
+  public static final String INPUT_TIMEOUT_REPLANS_PROPERTY = "mapred.jdbc.input.timeout.replans";
+
+  /** The directory caching the rows read by each split query, unset to disable caching */
+  public static final String INPUT_CACHE_DIR_PROPERTY = "mapred.jdbc.input.cache.dir";
+
+  /** The milliseconds cached rows are replayed, -1 for no limit */
+  public static final String INPUT_CACHE_TTL_PROPERTY = "mapred.jdbc.input.cache.ttl";
+
+  /** A token identifying the state of the data, part of the cache key */
+  public static final String INPUT_CACHE_TOKEN_PROPERTY = "mapred.jdbc.input.cache.token";
+
+  /** The names of the properties configuring how the input class decodes rows, their values are part of the cache key */
+  public static final String INPUT_CACHE_KEY_PROPERTIES_PROPERTY = "mapred.jdbc.input.cache.key.properties";
+
+  /** The number of rows each reader fetches ahead on a background thread, 0 to fetch on demand */
+  public static final String INPUT_PREFETCH_PROPERTY = "mapred.jdbc.input.prefetch";
+
   /** The number of records to LIMIT, useful for testing */
   public static final String INPUT_LIMIT = "mapred.jdbc.input.limit";
 
@@ -93,12 +171,30 @@ public class DBConfiguration
   /** Field names in the Output table */
   public static final String OUTPUT_UPDATE_FIELD_NAMES_PROPERTY = "mapred.jdbc.output.update.field.names";
 
+  /** If each row should be routed to INSERT or UPDATE by checking if its update fields exist in the table */
+  public static final String OUTPUT_UPDATE_AUTO_PROPERTY = "mapred.jdbc.output.update.auto";
+
+  /** The number of existing keys held exactly before switching to a Bloom filter */
+  public static final String OUTPUT_UPDATE_AUTO_MAX_KEYS_PROPERTY = "mapred.jdbc.output.update.auto.keys.max";
+
+  /** Field names each task sorts its rows by before writing them, usually the primary key */
+  public static final String OUTPUT_SORT_FIELD_NAMES_PROPERTY = "mapred.jdbc.output.sort.field.names";
+
+  /** The number of rows sorted in memory before a sorted run is spilled to local disk */
+  public static final String OUTPUT_SORT_BUFFER_ROWS_PROPERTY = "mapred.jdbc.output.sort.buffer.rows";
+
   /** The number of statements to batch before executing */
   public static final String BATCH_STATEMENTS_PROPERTY = "mapred.jdbc.batch.statements.num";
 
   /** The number of splits allowed, becomes max concurrent reads. */
   public static final String CONCURRENT_READS_PROPERTY = "mapred.jdbc.concurrent.reads.num";
 
+  /** If JDBC calls should be timed, see {@link DBTrace} */
+  public static final String TRACE_PROPERTY = "mapred.jdbc.trace";
+
+  /** Traced calls taking longer than this number of milliseconds are logged with their SQL */
+  public static final String TRACE_SLOW_MILLIS_PROPERTY = "mapred.jdbc.trace.slow.millis";
+
   /**
    * Sets the DB access related fields in the JobConf.
    *
@@ -132,6 +228,17 @@ public class DBConfiguration
     configureDB( job, driverClass, dbUrl, null, null );
     }
 
+  /**
+   * Sets if the JDBC calls made by the job should be timed and reported, see {@link DBTrace}.
+   *
+   * @param job   the job
+   * @param trace true if calls should be traced
+   */
+  public static void configureTrace( JobConf job, boolean trace )
+    {
+    job.setBoolean( TRACE_PROPERTY, trace );
+    }
+
   private JobConf job;
 
   DBConfiguration( JobConf job )
@@ -156,17 +263,34 @@ public class DBConfiguration
       throw new IOException( "unable to load conection driver", exception );
       }
 
+    Connection connection;
+
     try
       {
       if( job.get( DBConfiguration.USERNAME_PROPERTY ) == null )
-        return DriverManager.getConnection( job.get( DBConfiguration.URL_PROPERTY ) );
+        connection = DriverManager.getConnection( job.get( DBConfiguration.URL_PROPERTY ) );
       else
-        return DriverManager.getConnection( job.get( DBConfiguration.URL_PROPERTY ), job.get( DBConfiguration.USERNAME_PROPERTY ), job.get( DBConfiguration.PASSWORD_PROPERTY ) );
+        connection = DriverManager.getConnection( job.get( DBConfiguration.URL_PROPERTY ), job.get( DBConfiguration.USERNAME_PROPERTY ), job.get( DBConfiguration.PASSWORD_PROPERTY ) );
       }
     catch( SQLException exception )
       {
       throw new IOException( "unable to create connection", exception );
       }
+
+    if( getTrace() )
+      connection = DBTrace.wrap( connection, getTraceSlowMillis() );
+
+    return connection;
+    }
+
+  boolean getTrace()
+    {
+    return job.getBoolean( DBConfiguration.TRACE_PROPERTY, false );
+    }
+
+  long getTraceSlowMillis()
+    {
+    return job.getLong( DBConfiguration.TRACE_SLOW_MILLIS_PROPERTY, 10000 );
     }
 
   String getInputTableName()
@@ -179,6 +303,16 @@ public class DBConfiguration
     job.set( DBConfiguration.INPUT_TABLE_NAME_PROPERTY, tableName );
     }
 
+  String[] getInputTableNames()
+    {
+    return job.getStrings( DBConfiguration.INPUT_TABLE_NAMES_PROPERTY );
+    }
+
+  void setInputTableNames( String... tableNames )
+    {
+    job.setStrings( DBConfiguration.INPUT_TABLE_NAMES_PROPERTY, tableNames );
+    }
+
   String[] getInputFieldNames()
     {
     return job.getStrings( DBConfiguration.INPUT_FIELD_NAMES_PROPERTY );
@@ -283,6 +417,41 @@ public class DBConfiguration
     job.setStrings( DBConfiguration.OUTPUT_UPDATE_FIELD_NAMES_PROPERTY, fieldNames );
     }
 
+  boolean getOutputUpdateAuto()
+    {
+    return job.getBoolean( DBConfiguration.OUTPUT_UPDATE_AUTO_PROPERTY, false );
+    }
+
+  void setOutputUpdateAuto( boolean updateAuto )
+    {
+    job.setBoolean( DBConfiguration.OUTPUT_UPDATE_AUTO_PROPERTY, updateAuto );
+    }
+
+  long getOutputUpdateAutoMaxKeys()
+    {
+    return job.getLong( DBConfiguration.OUTPUT_UPDATE_AUTO_MAX_KEYS_PROPERTY, 1000000 );
+    }
+
+  String[] getOutputSortFieldNames()
+    {
+    return job.getStrings( DBConfiguration.OUTPUT_SORT_FIELD_NAMES_PROPERTY );
+    }
+
+  void setOutputSortFieldNames( String... fieldNames )
+    {
+    job.setStrings( DBConfiguration.OUTPUT_SORT_FIELD_NAMES_PROPERTY, fieldNames );
+    }
+
+  int getOutputSortBufferRows()
+    {
+    return job.getInt( DBConfiguration.OUTPUT_SORT_BUFFER_ROWS_PROPERTY, 100000 );
+    }
+
+  void setOutputSortBufferRows( int bufferRows )
+    {
+    job.setInt( DBConfiguration.OUTPUT_SORT_BUFFER_ROWS_PROPERTY, bufferRows );
+    }
+
   int getBatchStatementsNum()
     {
     return job.getInt( DBConfiguration.BATCH_STATEMENTS_PROPERTY, 1000 );
@@ -293,6 +462,224 @@ public class DBConfiguration
     job.setInt( DBConfiguration.BATCH_STATEMENTS_PROPERTY, batchStatementsNum );
     }
 
+  int getInputIsolationLevel()
+    {
+    return job.getInt( DBConfiguration.INPUT_ISOLATION_LEVEL_PROPERTY, Connection.TRANSACTION_SERIALIZABLE );
+    }
+
+  void setInputIsolationLevel( int isolationLevel )
+    {
+    job.setInt( DBConfiguration.INPUT_ISOLATION_LEVEL_PROPERTY, isolationLevel );
+    }
+
+  boolean getInputReadOnly()
+    {
+    return job.getBoolean( DBConfiguration.INPUT_READ_ONLY_PROPERTY, false );
+    }
+
+  void setInputReadOnly( boolean readOnly )
+    {
+    job.setBoolean( DBConfiguration.INPUT_READ_ONLY_PROPERTY, readOnly );
+    }
+
+  boolean getInputSnapshot()
+    {
+    return job.getBoolean( DBConfiguration.INPUT_SNAPSHOT_PROPERTY, false );
+    }
+
+  void setInputSnapshot( boolean snapshot )
+    {
+    job.setBoolean( DBConfiguration.INPUT_SNAPSHOT_PROPERTY, snapshot );
+    }
+
+  String getInputSnapshotOwner()
+    {
+    return job.get( DBConfiguration.INPUT_SNAPSHOT_OWNER_PROPERTY );
+    }
+
+  void setInputSnapshotOwner( String owner )
+    {
+    if( owner != null )
+      job.set( DBConfiguration.INPUT_SNAPSHOT_OWNER_PROPERTY, owner );
+    }
+
+  int getInputPrefetch()
+    {
+    return job.getInt( DBConfiguration.INPUT_PREFETCH_PROPERTY, 0 );
+    }
+
+  void setInputPrefetch( int depth )
+    {
+    job.setInt( DBConfiguration.INPUT_PREFETCH_PROPERTY, depth );
+    }
+
+  String getInputCacheDir()
+    {
+    return job.get( DBConfiguration.INPUT_CACHE_DIR_PROPERTY );
+    }
+
+  void setInputCacheDir( String cacheDir )
+    {
+    job.set( DBConfiguration.INPUT_CACHE_DIR_PROPERTY, cacheDir );
+    }
+
+  long getInputCacheTimeToLive()
+    {
+    return job.getLong( DBConfiguration.INPUT_CACHE_TTL_PROPERTY, 60 * 60 * 1000L );
+    }
+
+  void setInputCacheTimeToLive( long timeToLive )
+    {
+    job.setLong( DBConfiguration.INPUT_CACHE_TTL_PROPERTY, timeToLive );
+    }
+
+  String getInputCacheToken()
+    {
+    return job.get( DBConfiguration.INPUT_CACHE_TOKEN_PROPERTY );
+    }
+
+  void setInputCacheToken( String token )
+    {
+    if( token != null )
+      job.set( DBConfiguration.INPUT_CACHE_TOKEN_PROPERTY, token );
+    }
+
+  String[] getInputCacheKeyProperties()
+    {
+    return job.getStrings( DBConfiguration.INPUT_CACHE_KEY_PROPERTIES_PROPERTY );
+    }
+
+  void setInputCacheKeyProperties( String... propertyNames )
+    {
+    job.setStrings( DBConfiguration.INPUT_CACHE_KEY_PROPERTIES_PROPERTY, propertyNames );
+    }
+
+  int getInputQueryTimeout()
+    {
+    return job.getInt( DBConfiguration.INPUT_QUERY_TIMEOUT_PROPERTY, 0 );
+    }
+
+  void setInputQueryTimeout( int queryTimeout )
+    {
+    job.setInt( DBConfiguration.INPUT_QUERY_TIMEOUT_PROPERTY, queryTimeout );
+    }
+
+  long getInputFetchTimeout()
+    {
+    return job.getLong( DBConfiguration.INPUT_FETCH_TIMEOUT_PROPERTY, 0 );
+    }
+
+  void setInputFetchTimeout( long fetchTimeout )
+    {
+    job.setLong( DBConfiguration.INPUT_FETCH_TIMEOUT_PROPERTY, fetchTimeout );
+    }
+
+  int getInputTimeoutSplits()
+    {
+    return job.getInt( DBConfiguration.INPUT_TIMEOUT_SPLITS_PROPERTY, 0 );
+    }
+
+  void setInputTimeoutSplits( int timeoutSplits )
+    {
+    job.setInt( DBConfiguration.INPUT_TIMEOUT_SPLITS_PROPERTY, timeoutSplits );
+    }
+
+  int getInputTimeoutReplans()
+    {
+    return job.getInt( DBConfiguration.INPUT_TIMEOUT_REPLANS_PROPERTY, 3 );
+    }
+
+  void setInputTimeoutReplans( int maxReplans )
+    {
+    job.setInt( DBConfiguration.INPUT_TIMEOUT_REPLANS_PROPERTY, maxReplans );
+    }
+
+  long getInputSnapshotHold()
+    {
+    return job.getLong( DBConfiguration.INPUT_SNAPSHOT_HOLD_PROPERTY, 24 * 60 * 60 * 1000L );
+    }
+
+  String getInputResumeKey()
+    {
+    return job.get( DBConfiguration.INPUT_RESUME_KEY_PROPERTY );
+    }
+
+  void setInputResumeKey( String resumeKey )
+    {
+    if( resumeKey != null )
+      job.set( DBConfiguration.INPUT_RESUME_KEY_PROPERTY, resumeKey );
+    }
+
+  int getInputResumeAttempts()
+    {
+    return job.getInt( DBConfiguration.INPUT_RESUME_ATTEMPTS_PROPERTY, 0 );
+    }
+
+  void setInputResumeAttempts( int attempts )
+    {
+    job.setInt( DBConfiguration.INPUT_RESUME_ATTEMPTS_PROPERTY, attempts );
+    }
+
+  long getInputResumeBackoff()
+    {
+    return job.getLong( DBConfiguration.INPUT_RESUME_BACKOFF_PROPERTY, 1000 );
+    }
+
+  void setInputResumeBackoff( long backoff )
+    {
+    job.setLong( DBConfiguration.INPUT_RESUME_BACKOFF_PROPERTY, backoff );
+    }
+
+  int getInputDynamicChunks()
+    {
+    return job.getInt( DBConfiguration.INPUT_DYNAMIC_CHUNKS_PROPERTY, 0 );
+    }
+
+  void setInputDynamicChunks( int numChunks )
+    {
+    job.setInt( DBConfiguration.INPUT_DYNAMIC_CHUNKS_PROPERTY, numChunks );
+    }
+
+  String getInputDynamicDir()
+    {
+    return job.get( DBConfiguration.INPUT_DYNAMIC_DIR_PROPERTY, job.get( "hadoop.tmp.dir", "/tmp" ) + "/jdbc-chunks" );
+    }
+
+  String getInputExplainFormat()
+    {
+    return job.get( DBConfiguration.INPUT_EXPLAIN_FORMAT_PROPERTY );
+    }
+
+  void setInputExplainFormat( String explainFormat )
+    {
+    job.set( DBConfiguration.INPUT_EXPLAIN_FORMAT_PROPERTY, explainFormat );
+    }
+
+  String getInputExplainCostPattern()
+    {
+    return job.get( DBConfiguration.INPUT_EXPLAIN_COST_PATTERN_PROPERTY, "cost=[\\d.]+\\.\\.([\\d.]+)" );
+    }
+
+  String getInputExplainScanPattern()
+    {
+    return job.get( DBConfiguration.INPUT_EXPLAIN_SCAN_PATTERN_PROPERTY );
+    }
+
+  void setInputExplainScanPattern( String scanPattern )
+    {
+    job.set( DBConfiguration.INPUT_EXPLAIN_SCAN_PATTERN_PROPERTY, scanPattern );
+    }
+
+  long getInputExplainScanMaxRows()
+    {
+    return job.getLong( DBConfiguration.INPUT_EXPLAIN_SCAN_MAX_ROWS_PROPERTY, -1 );
+    }
+
+  void setInputExplainScanMaxRows( long maxRows )
+    {
+    job.setLong( DBConfiguration.INPUT_EXPLAIN_SCAN_MAX_ROWS_PROPERTY, maxRows );
+    }
+
   int getMaxConcurrentReadsNum()
     {
     return job.getInt( DBConfiguration.CONCURRENT_READS_PROPERTY, 0 );
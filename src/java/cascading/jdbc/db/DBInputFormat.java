@@ -33,12 +33,33 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientException;
 import java.sql.Statement;
-
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapred.InputFormat;
 import org.apache.hadoop.mapred.InputSplit;
@@ -47,6 +68,7 @@ import org.apache.hadoop.mapred.JobConfigurable;
 import org.apache.hadoop.mapred.RecordReader;
 import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -73,10 +95,32 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
     {
     private ResultSet results;
     private Statement statement;
+    private PreparedStatement resumeStatement;
+    /** Field activeStatement, the statement running the current query, cancelled by the watchdog */
+    private volatile Statement activeStatement;
     private Class<T> inputClass;
     private JobConf job;
     private DBInputSplit split;
+    private DBInputSplit chunk;
+    private DBChunkQueue chunkQueue;
+    private LinkedList<DBInputSplit> pending = new LinkedList<DBInputSplit>();
+    private int replans = 0;
+    private TimerTask watchdog;
+    private volatile long fetchStarted = -1;
+    private volatile boolean cancelled = false;
+    private DBSplitCache cache;
+    private DBSplitCache.Entry cacheEntry;
+    private SequenceFile.Reader cacheReader;
+    private LongWritable cacheKey = new LongWritable();
+    private Reporter reporter;
     private long pos = 0;
+    private long chunkPos = 0;
+    private int rowsRead = 0;
+    private boolean resultsEnded = false;
+    private boolean started = false;
+    private String resumeKey;
+    private boolean resumeByKey;
+    private Object lastKey;
 
     /**
      * @param split The InputSplit to read data for
@@ -88,83 +132,366 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
       this.split = split;
       this.job = job;
 
-      statement = connection.createStatement( ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY );
+      if( split.getSnapshotId() != null )
+        importSnapshot( connection, split.getSnapshotId() );
+
+      statement = createStatement();
+
+      if( dbConf.getInputFetchTimeout() > 0 )
+        startWatchdog( dbConf.getInputFetchTimeout() );
+
+      if( dbConf.getInputCacheDir() != null )
+        {
+        if( Writable.class.isAssignableFrom( inputClass ) )
+          cache = new DBSplitCache( job, dbConf.getInputCacheDir(), dbConf.getInputCacheTimeToLive(), dbConf.getInputCacheToken() );
+        else
+          LOG.warn( "not caching split query rows, input class is not Writable: {}", inputClass.getName() );
+        }
+
+      if( split instanceof DBDynamicInputSplit )
+        chunkQueue = ( (DBDynamicInputSplit) split ).getChunkQueue( job );
+
+      chunk = chunkQueue == null ? split : nextChunk();
+      resumeKey = dbConf.getInputResumeKey();
+      resumeByKey = resumeKey != null && canResumeByKey();
 
       //statement.setFetchSize(Integer.MIN_VALUE);
+      // the first query is run by next(), so a timeout is replanned like any other
+      }
+
+    private Statement createStatement() throws SQLException
+      {
+      Statement statement = connection.createStatement( ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY );
+
+      if( dbConf.getInputQueryTimeout() > 0 )
+        statement.setQueryTimeout( dbConf.getInputQueryTimeout() );
+
+      return statement;
+      }
+
+    /** Cancels the running statement when a single call to next() takes longer than the given milliseconds. */
+    private void startWatchdog( final long fetchTimeout )
+      {
+      watchdog = new TimerTask()
+      {
+      @Override
+      public void run()
+        {
+        long started = fetchStarted;
+
+        if( started == -1 || cancelled || System.currentTimeMillis() - started < fetchTimeout )
+          return;
+
+        LOG.warn( "fetch exceeded timeout of {}ms, cancelling statement", fetchTimeout );
+
+        cancelled = true;
+
+        try
+          {
+          Statement active = activeStatement;
+
+          if( active != null )
+            active.cancel();
+          }
+        catch( SQLException exception )
+          {
+          LOG.warn( "unable to cancel statement", exception );
+          }
+        }
+      };
+
+      getWatchdogTimer().schedule( watchdog, Math.max( 1, fetchTimeout / 4 ), Math.max( 1, fetchTimeout / 4 ) );
+      }
+
+    private boolean isTimeout( SQLException exception )
+      {
+      String state = exception.getSQLState();
+
+      // 57014 is query canceled
+      return cancelled || exception instanceof SQLTimeoutException || "57014".equals( state );
+      }
+
+    /**
+     * Divides the rows of the current chunk not read yet into smaller ranges read next, after the query of
+     * the chunk was cancelled by a timeout.
+     */
+    private void replan( SQLException exception ) throws IOException
+      {
+      int numRanges = dbConf.getInputTimeoutSplits();
+      long start = chunk.getStart() + chunkPos;
+      long end = chunk.getEnd();
+
+      if( numRanges < 2 || replans == dbConf.getInputTimeoutReplans() )
+        throw new IOException( "split query timed out after row: " + start, exception );
+
+      replans++;
+      abandonCache();
+
+      LOG.warn( "split query timed out after row: {}, reading the remaining {} rows as {} ranges", new Object[]{start, end - start, numRanges} );
+
+      try
+        {
+        if( results != null )
+          results.close();
+
+        closeResumeStatement();
+
+        // the transaction may be aborted by the cancel
+        connection.rollback();
+
+        if( split.getSnapshotId() != null )
+          importSnapshot( connection, split.getSnapshotId() );
+        }
+      catch( SQLException rollbackException )
+        {
+        throw new IOException( "unable to recover from timeout", rollbackException );
+        }
+
+      results = null;
+      cancelled = false;
+
+      long rangeSize = Math.max( 1, ( end - start ) / numRanges );
+      LinkedList<DBInputSplit> ranges = new LinkedList<DBInputSplit>();
+
+      for( long rangeStart = start; rangeStart < end; rangeStart += rangeSize )
+        ranges.add( newChunk( rangeStart, Math.min( end, rangeStart + rangeSize ), chunk.getTableName() ) );
+
+      pending.addAll( 0, ranges );
+      }
+
+    private DBInputSplit nextChunk() throws IOException
+      {
+      try
+        {
+        closeResumeStatement();
+        }
+      catch( SQLException exception )
+        {
+        throw new IOException( "unable to close resume statement", exception );
+        }
+
+      if( !pending.isEmpty() )
+        return pending.removeFirst();
+
+      if( chunkQueue == null )
+        return null;
+
+      int index = chunkQueue.claim();
+
+      if( index == -1 )
+        return null;
+
+      LOG.info( "claimed chunk: {}", index );
+
+      return newChunk( chunkQueue.getStart( index ), chunkQueue.getEnd( index ), split.getTableName() );
+      }
+
+    /** Closes the statement of a resume by key, the following queries run on the statement. */
+    private void closeResumeStatement() throws SQLException
+      {
+      if( resumeStatement == null )
+        return;
+
+      activeStatement = null;
+      resumeStatement.close();
+      resumeStatement = null;
+      }
+
+    /** Returns a range of the rows of the split, reading the same snapshot in the same order. */
+    private DBInputSplit newChunk( long start, long end, String tableName )
+      {
+      DBInputSplit chunk = new DBInputSplit( start, end, tableName );
+
+      chunk.setSnapshotId( split.getSnapshotId() );
+
+      return chunk;
+      }
+
+    private void executeQuery() throws SQLException, IOException
+      {
       String query = getSelectQuery();
+
+      chunkPos = 0;
+      lastKey = null;
+
+      if( cache != null )
+        {
+        cacheReader = cache.open( query, inputClass );
+
+        if( cacheReader != null )
+          {
+          results = null;
+          return;
+          }
+        }
+
       try
         {
-        results = statement.executeQuery( query );
+        activeStatement = statement;
+        results = prefetch( statement.executeQuery( query ) );
+        resultsEnded = false;
         }
       catch( SQLException exception )
         {
         LOG.error( "unable to execute select query: " + query, exception );
-        throw new IOException( "unable to execute select query: " + query, exception );
+        throw exception;
         }
+
+      if( cache != null )
+        cacheEntry = cache.create( query, inputClass );
+      }
+
+    private ResultSet prefetch( ResultSet resultSet ) throws SQLException
+      {
+      int depth = dbConf.getInputPrefetch();
+
+      return depth > 0 ? DBPrefetcher.prefetch( resultSet, depth ) : resultSet;
+      }
+
+    private void abandonCache()
+      {
+      if( cacheEntry != null )
+        cacheEntry.abandon();
+
+      cacheEntry = null;
       }
 
     /**
-     * Returns the query for selecting the records,
-     * subclasses can override this for custom behaviour.
+     * Reconnects after a transient failure and continues reading the current chunk after the last row read,
+     * using the resume key if one was configured and is also the ORDER BY clause, or else the row offset.
      */
-    protected String getSelectQuery()
+    private void resume( int attempt ) throws IOException, SQLException
       {
-      StringBuilder query = new StringBuilder();
+      long backoff = dbConf.getInputResumeBackoff() << ( attempt - 1 );
 
-      if( dbConf.getInputQuery() == null )
-        {
-        query.append( "SELECT " );
+      LOG.warn( "resuming after row: {} of chunk starting at: {}, attempt: {}, waiting: {}ms", new Object[]{chunkPos, chunk.getStart(), attempt, backoff} );
 
-        for( int i = 0; i < fieldNames.length; i++ )
-          {
-          query.append( fieldNames[ i ] );
+      try
+        {
+        Thread.sleep( backoff );
+        }
+      catch( InterruptedException exception )
+        {
+        throw new IOException( "interrupted while resuming", exception );
+        }
 
-          if( i != fieldNames.length - 1 )
-            query.append( ", " );
-          }
+      Object resumeFrom = lastKey;
 
-        query.append( " FROM " ).append( tableName );
-        query.append( " AS " ).append( tableName ); //in hsqldb this is necessary
+      closeQuietly();
+      abandonCache();
 
-        if( conditions != null && conditions.length() > 0 )
-          query.append( " WHERE (" ).append( conditions ).append( ")" );
+      chunk = newChunk( chunk.getStart() + chunkPos, chunk.getEnd(), chunk.getTableName() );
+      chunkPos = 0;
 
-        String orderBy = dbConf.getInputOrderBy();
+      try
+        {
+        connection = dbConf.getConnection();
+        }
+      catch( IOException exception )
+        {
+        if( exception.getCause() instanceof SQLException )
+          throw (SQLException) exception.getCause();
 
-        if( orderBy != null && orderBy.length() > 0 )
-          query.append( " ORDER BY " ).append( orderBy );
+        throw exception;
         }
-      else
+
+      configureConnection( connection );
+
+      if( split.getSnapshotId() != null )
+        importSnapshot( connection, split.getSnapshotId() );
+
+      statement = createStatement();
+
+      if( resumeFrom == null || !resumeByKey )
         {
-        query.append( dbConf.getInputQuery() );
+        executeQuery();
+        return;
         }
 
+      String query = getResumeQuery( chunk, resumeKey );
+
+      LOG.info( "resuming with query: {}, after key: {}", query, resumeFrom );
+
+      lastKey = resumeFrom;
+      resumeStatement = connection.prepareStatement( query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY );
+      resumeStatement.setObject( 1, resumeFrom );
+
+      if( dbConf.getInputQueryTimeout() > 0 )
+        resumeStatement.setQueryTimeout( dbConf.getInputQueryTimeout() );
+
+      activeStatement = resumeStatement;
+      results = prefetch( resumeStatement.executeQuery() );
+      resultsEnded = false;
+      }
+
+    private boolean canResumeByKey()
+      {
+      String orderBy = dbConf.getInputOrderBy();
+
+      return dbConf.getInputQuery() == null && orderBy != null && orderBy.trim().equalsIgnoreCase( resumeKey );
+      }
+
+    private void closeQuietly()
+      {
       try
         {
-        query.append( " LIMIT " ).append( split.getLength() );
-        query.append( " OFFSET " ).append( split.getStart() );
+        if( results != null )
+          results.close();
+
+        if( resumeStatement != null )
+          resumeStatement.close();
+
+        statement.close();
+        connection.close();
         }
-      catch( IOException ex )
+      catch( SQLException exception )
         {
-        //ignore, will not throw
+        // ignore, the connection was lost
         }
 
-      return query.toString();
+      results = null;
+      resumeStatement = null;
+      activeStatement = null;
+      }
+
+    /**
+     * Returns the query for selecting the records,
+     * subclasses can override this for custom behaviour.
+     */
+    protected String getSelectQuery()
+      {
+      return DBInputFormat.this.getSelectQuery( chunk );
       }
 
     /** {@inheritDoc} */
     public void close() throws IOException
       {
+      if( watchdog != null )
+        watchdog.cancel();
+
+      abandonCache();
+
+      if( cacheReader != null )
+        cacheReader.close();
+
       try
         {
-        connection.commit();
-        results.close();
+        // closing a prefetched result set stops its fetch thread, which must not share the connection with the commit
+        if( results != null )
+          results.close();
+
+        if( resumeStatement != null )
+          resumeStatement.close();
+
         statement.close();
+        connection.commit();
         }
       catch( SQLException exception )
         {
         throw new IOException( "unable to commit and close", exception );
         }
+
+      DBTrace.report( connection, reporter );
       }
 
     /** {@inheritDoc} */
@@ -188,31 +515,167 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
     /** {@inheritDoc} */
     public float getProgress() throws IOException
       {
-      return pos / (float) split.getLength();
+      return Math.min( 1.0f, pos / (float) split.getLength() );
       }
 
     /** {@inheritDoc} */
     public boolean next( LongWritable key, T value ) throws IOException
       {
-      try
+      int failures = 0;
+
+      while( true )
         {
-        if( !results.next() )
+        try
+          {
+          fetchStarted = System.currentTimeMillis();
+
+          boolean hasNext = nextRow( key, value );
+
+          // the fetch may have completed before the cancel took effect
+          cancelled = false;
+
+          return hasNext;
+          }
+        catch( SQLException exception )
+          {
+          if( chunk != null && isTimeout( exception ) )
+            {
+            replan( exception );
+            continue;
+            }
+
+          if( chunk == null || failures == dbConf.getInputResumeAttempts() || !isTransient( exception ) )
+            throw new IOException( "unable to get next value", exception );
+
+          LOG.warn( "transient failure reading row", exception );
+
+          while( true )
+            {
+            try
+              {
+              resume( ++failures );
+              break;
+              }
+            catch( SQLException resumeException )
+              {
+              if( failures == dbConf.getInputResumeAttempts() || !isTransient( resumeException ) )
+                throw new IOException( "unable to resume reading", resumeException );
+              }
+            }
+          }
+        finally
+          {
+          fetchStarted = -1;
+          }
+        }
+      }
+
+    private boolean nextRow( LongWritable key, T value ) throws IOException, SQLException
+      {
+      if( !started )
+        {
+        started = true;
+
+        if( chunk != null )
+          executeQuery();
+        }
+
+      while( !readRow( value ) )
+        {
+        if( cacheEntry != null )
+          cacheEntry.commit();
+
+        cacheEntry = null;
+
+        if( results != null )
+          results.close();
+
+        results = null;
+
+        if( ( chunk = nextChunk() ) == null )
           return false;
 
-        // Set the key field value as the output key value
-        key.set( pos + split.getStart() );
+        executeQuery();
+        }
 
-        value.readFields( results );
+      // Set the key field value as the output key value
+      key.set( chunkPos + chunk.getStart() );
+
+      pos += rowsRead;
+      chunkPos += rowsRead;
+
+      return true;
+      }
+
+    private boolean readRow( T value ) throws IOException, SQLException
+      {
+      if( cacheReader != null )
+        {
+        if( cacheReader.next( cacheKey, (Writable) value ) )
+          {
+          rowsRead = value instanceof BatchDBWritable ? ( (BatchDBWritable) value ).getRows() : 1;
+          return true;
+          }
+
+        cacheReader.close();
+        cacheReader = null;
 
-        pos++;
+        return false;
         }
-      catch( SQLException exception )
+
+      if( value instanceof BatchDBWritable )
+        {
+        if( !readBatch( (BatchDBWritable) value ) )
+          return false;
+        }
+      else
         {
-        throw new IOException( "unable to get next value", exception );
+        if( results == null || !results.next() )
+          return false;
+
+        value.readFields( results );
+        rowsRead = 1;
+
+        if( resumeByKey )
+          lastKey = results.getObject( resumeKey );
         }
 
+      if( cacheEntry != null )
+        cacheEntry.append( chunkPos, (Writable) value );
+
       return true;
       }
+
+    private boolean readBatch( BatchDBWritable batch ) throws SQLException
+      {
+      if( results == null || resultsEnded )
+        return false;
+
+      Object batchKey = lastKey;
+
+      batch.clear();
+
+      while( !batch.isFull() )
+        {
+        // some drivers fail if next is called again once it returned false
+        if( !results.next() )
+          {
+          resultsEnded = true;
+          break;
+          }
+
+        batch.readFields( results );
+
+        if( resumeByKey )
+          batchKey = results.getObject( resumeKey );
+        }
+
+      // a batch failing part way is read again in full on resume
+      lastKey = batchKey;
+      rowsRead = batch.getRows();
+
+      return rowsRead != 0;
+      }
     }
 
   /** A Class that does nothing, implementing DBWritable */
@@ -244,6 +707,8 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
     {
     private long end = 0;
     private long start = 0;
+    private String tableName;
+    private String snapshotId;
 
     /** Default Constructor */
     public DBInputSplit()
@@ -262,6 +727,19 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
       this.end = end;
       }
 
+    /**
+     * Convenience Constructor
+     *
+     * @param start     the index of the first row to select
+     * @param end       the index of the last row to select
+     * @param tableName the table to select from, overrides the configured input table
+     */
+    public DBInputSplit( long start, long end, String tableName )
+      {
+      this( start, end );
+      this.tableName = tableName;
+      }
+
     /** {@inheritDoc} */
     public String[] getLocations() throws IOException
       {
@@ -281,6 +759,24 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
       return end;
       }
 
+    /** @return The table to select from, or null if the configured input table should be used */
+    public String getTableName()
+      {
+      return tableName;
+      }
+
+    /** @return The id of the exported snapshot to read the rows from, or null if none */
+    public String getSnapshotId()
+      {
+      return snapshotId;
+      }
+
+    /** @param snapshotId the id of the exported snapshot to read the rows from */
+    public void setSnapshotId( String snapshotId )
+      {
+      this.snapshotId = snapshotId;
+      }
+
     /** @return The total row count in this split */
     public long getLength() throws IOException
       {
@@ -292,6 +788,12 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
       {
       start = input.readLong();
       end = input.readLong();
+
+      if( input.readBoolean() )
+        tableName = input.readUTF();
+
+      if( input.readBoolean() )
+        snapshotId = input.readUTF();
       }
 
     /** {@inheritDoc} */
@@ -299,135 +801,963 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
       {
       output.writeLong( start );
       output.writeLong( end );
-      }
-    }
+      output.writeBoolean( tableName != null );
 
-  protected DBConfiguration dbConf;
-  protected Connection connection;
+      if( tableName != null )
+        output.writeUTF( tableName );
 
-  protected String tableName;
-  protected String[] fieldNames;
-  protected String conditions;
-  protected long limit;
-  protected int maxConcurrentReads;
+      output.writeBoolean( snapshotId != null );
 
+      if( snapshotId != null )
+        output.writeUTF( snapshotId );
+      }
+    }
 
-  /** {@inheritDoc} */
-  public void configure( JobConf job )
+  /**
+   * A InputSplit whose rows are not fixed, its reader claims chunks of rows from a queue shared
+   * with all the other splits until none are left.
+   */
+  protected static class DBDynamicInputSplit extends DBInputSplit
     {
-    dbConf = new DBConfiguration( job );
+    private int splitIndex;
+    private int numSplits;
+    private int numChunks;
+    private String claimDir;
 
-    tableName = dbConf.getInputTableName();
-    fieldNames = dbConf.getInputFieldNames();
-    conditions = dbConf.getInputConditions();
-    limit = dbConf.getInputLimit();
-    maxConcurrentReads = dbConf.getMaxConcurrentReadsNum();
-
-    try
+    /** Default Constructor */
+    public DBDynamicInputSplit()
+      {
+      }
+
+    /**
+     * Convenience Constructor
+     *
+     * @param count      the number of rows across all chunks
+     * @param splitIndex the index of this split
+     * @param numSplits  the number of splits sharing the chunks
+     * @param numChunks  the number of chunks
+     * @param claimDir   the directory holding the chunk claims
+     */
+    public DBDynamicInputSplit( long count, int splitIndex, int numSplits, int numChunks, String claimDir )
+      {
+      super( 0, count );
+      this.splitIndex = splitIndex;
+      this.numSplits = numSplits;
+      this.numChunks = numChunks;
+      this.claimDir = claimDir;
+      }
+
+    /** @return The estimated row count in this split */
+    @Override
+    public long getLength() throws IOException
+      {
+      return getEnd() / numSplits;
+      }
+
+    DBChunkQueue getChunkQueue( JobConf job ) throws IOException
+      {
+      Path path = new Path( claimDir );
+      String taskId = job.get( "mapred.task.id" );
+      boolean retry = taskId != null && !taskId.endsWith( "_0" );
+
+      return new DBChunkQueue( path.getFileSystem( job ), path, splitIndex, numSplits, numChunks, getEnd(), retry );
+      }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readFields( DataInput input ) throws IOException
+      {
+      super.readFields( input );
+
+      splitIndex = input.readInt();
+      numSplits = input.readInt();
+      numChunks = input.readInt();
+      claimDir = input.readUTF();
+      }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write( DataOutput output ) throws IOException
+      {
+      super.write( output );
+
+      output.writeInt( splitIndex );
+      output.writeInt( numSplits );
+      output.writeInt( numChunks );
+      output.writeUTF( claimDir );
+      }
+    }
+
+  /** Field coordinators, the open connections holding exported snapshots by id */
+  private static final Map<String, Connection> coordinators = new HashMap<String, Connection>();
+  /** Field snapshotOwners, the owner of each held snapshot by id */
+  private static final Map<String, String> snapshotOwners = new HashMap<String, String>();
+  /** Field coordinatorTimer */
+  private static Timer coordinatorTimer;
+  /** Field watchdogTimer */
+  private static Timer watchdogTimer;
+
+  protected DBConfiguration dbConf;
+  protected Connection connection;
+  /** Field explainConnection, the connection split queries are explained on while planning in a coordinator */
+  private Connection explainConnection;
+  /** Field keyOrderBy, the ORDER BY clause of each table when reading a snapshot */
+  private final Map<String, String> keyOrderBy = new HashMap<String, String>();
+
+  protected String tableName;
+  protected String[] tableNames;
+  protected String[] fieldNames;
+  protected String conditions;
+  protected long limit;
+  protected int maxConcurrentReads;
+
+
+  /** {@inheritDoc} */
+  public void configure( JobConf job )
+    {
+    dbConf = new DBConfiguration( job );
+
+    tableName = dbConf.getInputTableName();
+    tableNames = dbConf.getInputTableNames();
+    fieldNames = dbConf.getInputFieldNames();
+    conditions = dbConf.getInputConditions();
+    limit = dbConf.getInputLimit();
+    maxConcurrentReads = dbConf.getMaxConcurrentReadsNum();
+
+    if( dbConf.getInputQuery() == null )
+      checkResumeKey( dbConf.getInputResumeKey(), fieldNames );
+
+    try
       {
       connection = dbConf.getConnection();
       }
-    catch( IOException exception )
+    catch( IOException exception )
+      {
+      throw new RuntimeException( "unable to create connection", exception.getCause() );
+      }
+
+    configureConnection( connection );
+    }
+
+  protected void configureConnection( Connection connection )
+    {
+    setTransactionIsolationLevel( connection );
+    setReadOnly( connection );
+    setAutoCommit( connection );
+    }
+
+  protected void setAutoCommit( Connection connection )
+    {
+    try
+      {
+      connection.setAutoCommit( false );
+      }
+    catch( Exception exception )
+      {
+      throw new RuntimeException( "unable to set auto commit", exception );
+      }
+    }
+
+  protected void setTransactionIsolationLevel( Connection connection )
+    {
+    int isolationLevel = dbConf.getInputIsolationLevel();
+
+    // keep the driver default
+    if( isolationLevel == -1 )
+      return;
+
+    try
+      {
+      connection.setTransactionIsolation( isolationLevel );
+      }
+    catch( SQLException exception )
+      {
+      throw new RuntimeException( "unable to configure transaction isolation level", exception );
+      }
+    }
+
+  protected void setReadOnly( Connection connection )
+    {
+    if( !dbConf.getInputReadOnly() )
+      return;
+
+    try
+      {
+      connection.setReadOnly( true );
+      }
+    catch( SQLException exception )
+      {
+      // only a hint to the driver
+      LOG.warn( "unable to set connection read only", exception );
+      }
+    }
+
+  /**
+   * Returns the query exporting the snapshot of the current transaction, its single value being the
+   * snapshot id. Subclasses can override this for other dialects, the default is for PostgreSQL.
+   */
+  protected String getSnapshotExportQuery()
+    {
+    return "SELECT pg_export_snapshot()";
+    }
+
+  /**
+   * Returns the statement importing the given snapshot into the current transaction. Subclasses can
+   * override this for other dialects, the default is for PostgreSQL.
+   */
+  protected String getSnapshotImportStatement( String snapshotId )
+    {
+    return "SET TRANSACTION SNAPSHOT '" + snapshotId + "'";
+    }
+
+  /**
+   * Exports the snapshot of the planning transaction, so all readers see the same rows. The transaction
+   * is left open, as the snapshot may only be imported while it is.
+   *
+   * @return the snapshot id
+   * @throws IOException when the snapshot cannot be exported
+   */
+  protected String exportSnapshot() throws IOException
+    {
+    String query = getSnapshotExportQuery();
+
+    try
+      {
+      Statement statement = connection.createStatement();
+      ResultSet results = statement.executeQuery( query );
+
+      if( !results.next() )
+        throw new IOException( "no snapshot id returned by: " + query );
+
+      String snapshotId = results.getString( 1 );
+
+      results.close();
+      statement.close();
+
+      LOG.info( "exported snapshot: {}", snapshotId );
+
+      return snapshotId;
+      }
+    catch( SQLException exception )
+      {
+      throw new IOException( "unable to export snapshot with: " + query, exception );
+      }
+    }
+
+  /**
+   * Imports the given snapshot as the first statement of the transaction of the given connection.
+   * The isolation level is set to REPEATABLE READ so the snapshot is kept for the whole transaction.
+   *
+   * @param connection the reader connection
+   * @param snapshotId the snapshot id
+   * @throws SQLException when the snapshot cannot be imported
+   */
+  protected void importSnapshot( Connection connection, String snapshotId ) throws SQLException
+    {
+    connection.setTransactionIsolation( Connection.TRANSACTION_REPEATABLE_READ );
+
+    Statement statement = connection.createStatement();
+
+    try
+      {
+      statement.execute( getSnapshotImportStatement( snapshotId ) );
+      }
+    catch( SQLException exception )
+      {
+      String message = "unable to import snapshot: " + snapshotId + ", the transaction exporting it has ended, either released or after its hold of " + dbConf.getInputSnapshotHold() + "ms expired";
+
+      throw new SQLException( message, exception.getSQLState(), exception );
+      }
+    finally
+      {
+      statement.close();
+      }
+    }
+
+  /**
+   * Returns the query for selecting the records of the given split,
+   * subclasses can override this for custom behaviour.
+   */
+  protected String getSelectQuery( DBInputSplit split )
+    {
+    StringBuilder query = new StringBuilder();
+
+    if( dbConf.getInputQuery() == null )
+      {
+      query.append( "SELECT " );
+
+      for( int i = 0; i < fieldNames.length; i++ )
+        {
+        query.append( fieldNames[ i ] );
+
+        if( i != fieldNames.length - 1 )
+          query.append( ", " );
+        }
+
+      String table = split.getTableName() != null ? split.getTableName() : tableName;
+
+      query.append( " FROM " ).append( table );
+      query.append( " AS " ).append( table ); //in hsqldb this is necessary
+
+      if( conditions != null && conditions.length() > 0 )
+        query.append( " WHERE (" ).append( conditions ).append( ")" );
+
+      String orderBy = dbConf.getInputOrderBy();
+
+      // rows must be in the same order for every reader for LIMIT/OFFSET ranges to not overlap
+      if( ( orderBy == null || orderBy.length() == 0 ) && split.getSnapshotId() != null )
+        orderBy = getKeyOrderBy( table );
+
+      if( orderBy != null && orderBy.length() > 0 )
+        query.append( " ORDER BY " ).append( orderBy );
+      }
+    else
+      {
+      query.append( dbConf.getInputQuery() );
+      }
+
+    try
+      {
+      query.append( " LIMIT " ).append( split.getLength() );
+      query.append( " OFFSET " ).append( split.getStart() );
+      }
+    catch( IOException ex )
+      {
+      //ignore, will not throw
+      }
+
+    return query.toString();
+    }
+
+  /**
+   * Returns the query for selecting the records of the given split that follow the row whose resume key
+   * value is bound as the only parameter, subclasses can override this for custom behaviour.
+   */
+  protected String getResumeQuery( DBInputSplit split, String keyColumn )
+    {
+    StringBuilder query = new StringBuilder();
+
+    query.append( "SELECT " );
+
+    for( int i = 0; i < fieldNames.length; i++ )
+      {
+      query.append( fieldNames[ i ] );
+
+      if( i != fieldNames.length - 1 )
+        query.append( ", " );
+      }
+
+    String table = split.getTableName() != null ? split.getTableName() : tableName;
+
+    query.append( " FROM " ).append( table );
+    query.append( " AS " ).append( table ); //in hsqldb this is necessary
+    query.append( " WHERE " );
+
+    if( conditions != null && conditions.length() > 0 )
+      query.append( "(" ).append( conditions ).append( ") AND " );
+
+    query.append( keyColumn ).append( " > ?" );
+    query.append( " ORDER BY " ).append( keyColumn );
+
+    try
+      {
+      query.append( " LIMIT " ).append( split.getLength() );
+      }
+    catch( IOException ex )
+      {
+      //ignore, will not throw
+      }
+
+    return query.toString();
+    }
+
+  /**
+   * Returns true if the given exception is likely caused by a lost connection or an aborted transaction,
+   * and reading may be resumed on a new connection.
+   */
+  protected boolean isTransient( SQLException exception )
+    {
+    if( exception instanceof SQLTransientException || exception instanceof SQLRecoverableException )
+      return true;
+
+    String state = exception.getSQLState();
+
+    // connection exceptions and serialization failures
+    return state != null && ( state.startsWith( "08" ) || state.equals( "40001" ) );
+    }
+
+  /** {@inheritDoc} */
+  @SuppressWarnings("unchecked")
+  public RecordReader<LongWritable, T> getRecordReader( InputSplit split, JobConf job, Reporter reporter ) throws IOException
+    {
+
+    Class inputClass = dbConf.getInputClass();
+    try
+      {
+      DBRecordReader reader = new DBRecordReader( (DBInputSplit) split, inputClass, job );
+
+      reader.reporter = reporter;
+
+      return reader;
+      }
+    catch( SQLException exception )
+      {
+      throw new IOException( exception.getMessage(), exception );
+      }
+    }
+
+  /** {@inheritDoc} */
+  public InputSplit[] getSplits( JobConf job, int chunks ) throws IOException
+    {
+    // use the configured value if avail
+    chunks = maxConcurrentReads == 0 ? chunks : maxConcurrentReads;
+
+    if( !dbConf.getInputSnapshot() )
+      return planSplits( job, chunks );
+
+    // plan in a coordinator transaction, so the rows are counted in the snapshot the readers will import
+    Connection planningConnection = connection;
+    Connection coordinator = openCoordinator();
+    String snapshotId = null;
+    InputSplit[] splits;
+
+    try
+      {
+      // a failed explain must not roll back the coordinator transaction
+      explainConnection = planningConnection;
+      connection = coordinator;
+      snapshotId = exportSnapshot();
+      splits = planSplits( job, chunks );
+      }
+    finally
+      {
+      connection = planningConnection;
+      explainConnection = null;
+
+      if( snapshotId == null )
+        closeCoordinator( coordinator );
+      }
+
+    for( InputSplit split : splits )
+      ( (DBInputSplit) split ).setSnapshotId( snapshotId );
+
+    job.set( DBConfiguration.INPUT_SNAPSHOT_ID_PROPERTY, snapshotId );
+
+    holdCoordinator( snapshotId, dbConf.getInputSnapshotOwner(), coordinator, dbConf.getInputSnapshotHold() );
+
+    return splits;
+    }
+
+  /**
+   * Opens the connection whose transaction exports the snapshot. Its isolation level is REPEATABLE READ, so
+   * the rows counted when planning are the rows the readers see.
+   */
+  protected Connection openCoordinator() throws IOException
+    {
+    Connection coordinator = dbConf.getConnection();
+
+    try
+      {
+      coordinator.setTransactionIsolation( Connection.TRANSACTION_REPEATABLE_READ );
+      coordinator.setAutoCommit( false );
+      }
+    catch( SQLException exception )
+      {
+      closeCoordinator( coordinator );
+
+      throw new IOException( "unable to configure snapshot coordinator connection", exception );
+      }
+
+    return coordinator;
+    }
+
+  /**
+   * Keeps the coordinator transaction open, so its exported snapshot can be imported, until the given number
+   * of milliseconds has passed or {@link #releaseSnapshot(String)} or {@link #releaseSnapshots(String)} is called.
+   */
+  private static synchronized void holdCoordinator( final String snapshotId, String owner, Connection coordinator, long holdMillis )
+    {
+    coordinators.put( snapshotId, coordinator );
+
+    if( owner != null )
+      snapshotOwners.put( snapshotId, owner );
+
+    if( coordinatorTimer == null )
+      coordinatorTimer = new Timer( "jdbc snapshot coordinators", true );
+
+    coordinatorTimer.schedule( new TimerTask()
+    {
+    @Override
+    public void run()
+      {
+      releaseSnapshot( snapshotId );
+      }
+    }, holdMillis );
+    }
+
+  /**
+   * Ends the transaction that exported the given snapshot. Readers that have not imported the snapshot yet
+   * will fail to do so.
+   *
+   * @param snapshotId the snapshot id
+   */
+  public static void releaseSnapshot( String snapshotId )
+    {
+    Connection coordinator;
+
+    synchronized( DBInputFormat.class )
+      {
+      coordinator = coordinators.remove( snapshotId );
+      snapshotOwners.remove( snapshotId );
+      }
+
+    if( coordinator == null )
+      return;
+
+    LOG.info( "releasing snapshot: {}", snapshotId );
+
+    closeCoordinator( coordinator );
+    }
+
+  /**
+   * Ends the transactions that exported the snapshots of the given owner, once the readers of those snapshots
+   * have completed.
+   *
+   * @param owner the owner given to {@link #setInputSnapshot(JobConf, boolean, String)}
+   */
+  public static void releaseSnapshots( String owner )
+    {
+    List<String> snapshotIds = new ArrayList<String>();
+
+    synchronized( DBInputFormat.class )
+      {
+      for( Map.Entry<String, String> entry : snapshotOwners.entrySet() )
+        {
+        if( entry.getValue().equals( owner ) )
+          snapshotIds.add( entry.getKey() );
+        }
+      }
+
+    for( String snapshotId : snapshotIds )
+      releaseSnapshot( snapshotId );
+    }
+
+  private static void closeCoordinator( Connection coordinator )
+    {
+    try
+      {
+      coordinator.rollback();
+      coordinator.close();
+      }
+    catch( SQLException exception )
+      {
+      // ignore
+      LOG.warn( "ignoring coordinator close exception", exception );
+      }
+    }
+
+  private static synchronized Timer getWatchdogTimer()
+    {
+    if( watchdogTimer == null )
+      watchdogTimer = new Timer( "jdbc fetch watchdog", true );
+
+    return watchdogTimer;
+    }
+
+  /**
+   * Returns an ORDER BY clause giving the rows of the given table the same order for every reader, the primary
+   * key columns of the table, or all the selected columns if it has no primary key. Subclasses can override this
+   * for custom behaviour.
+   */
+  protected synchronized String getKeyOrderBy( String table )
+    {
+    String orderBy = keyOrderBy.get( table );
+
+    if( orderBy != null )
+      return orderBy;
+
+    List<String> keys = new ArrayList<String>();
+
+    try
+      {
+      DatabaseMetaData metaData = connection.getMetaData();
+
+      for( String name : new String[]{table, table.toUpperCase(), table.toLowerCase()} )
+        {
+        ResultSet results = metaData.getPrimaryKeys( null, null, name );
+        SortedMap<Short, String> columns = new TreeMap<Short, String>();
+
+        while( results.next() )
+          columns.put( results.getShort( "KEY_SEQ" ), results.getString( "COLUMN_NAME" ) );
+
+        results.close();
+
+        if( !columns.isEmpty() )
+          {
+          keys.addAll( columns.values() );
+          break;
+          }
+        }
+      }
+    catch( SQLException exception )
+      {
+      LOG.warn( "unable to get primary key of: " + table, exception );
+      }
+
+    if( keys.isEmpty() )
+      {
+      LOG.warn( "no primary key found for: {}, ordering by all columns", table );
+      keys.addAll( Arrays.asList( fieldNames ) );
+      }
+
+    orderBy = StringUtils.arrayToString( keys.toArray( new String[keys.size()] ) );
+
+    keyOrderBy.put( table, orderBy );
+
+    return orderBy;
+    }
+
+  /** Plans the splits for the given number of chunks, subclasses can override this for custom behaviour. */
+  protected InputSplit[] planSplits( JobConf job, int chunks ) throws IOException
+    {
+    if( tableNames != null && tableNames.length != 0 && dbConf.getInputQuery() == null )
+      return getTableSplits( chunks );
+
+    try
+      {
+      Statement statement = connection.createStatement();
+
+      ResultSet results = statement.executeQuery( getCountQuery() );
+
+      long count = 0;
+
+      while( results.next() )
+        count += results.getLong( 1 );
+
+      if( limit != -1 )
+        count = Math.min( limit, count );
+
+      long chunkSize = ( count / chunks );
+
+      results.close();
+      statement.close();
+
+      int dynamicChunks = dbConf.getInputDynamicChunks();
+
+      if( dynamicChunks > 0 )
+        return getDynamicSplits( job, count, chunks, dynamicChunks );
+
+      InputSplit[] splits = new InputSplit[chunks];
+
+      // Split the rows into n-number of chunks and adjust the last chunk
+      // accordingly
+      for( int i = 0; i < chunks; i++ )
+        {
+        DBInputSplit split;
+
+        if( i + 1 == chunks )
+          split = new DBInputSplit( i * chunkSize, count );
+        else
+          split = new DBInputSplit( i * chunkSize, i * chunkSize + chunkSize );
+
+        splits[ i ] = split;
+        }
+
+      explainSplit( (DBInputSplit) splits[ chunks - 1 ], count, chunks );
+
+      return splits;
+      }
+    catch( SQLException e )
       {
-      throw new RuntimeException( "unable to create connection", exception.getCause() );
+      throw new IOException( e.getMessage() );
       }
-
-    configureConnection( connection );
     }
 
-  protected void configureConnection( Connection connection )
+  /**
+   * Plans splits that share the given number of chunks through a claim directory on the job FileSystem,
+   * so a reader slowed by an expensive range of rows reads fewer chunks than the others.
+   * <p/>
+   * Claim directories older than a day are removed, as the readers cannot know when all chunks were read.
+   */
+  protected InputSplit[] getDynamicSplits( JobConf job, long count, int chunks, int dynamicChunks ) throws IOException
     {
-    setTransactionIsolationLevel( connection );
-    setAutoCommit( connection );
+    int numChunks = (int) Math.max( 1, Math.min( dynamicChunks, count ) );
+    Path root = new Path( dbConf.getInputDynamicDir() );
+    FileSystem fileSystem = root.getFileSystem( job );
+
+    removeExpiredClaims( fileSystem, root );
+
+    Path claimDir = new Path( root, System.currentTimeMillis() + "-" + Math.abs( new Random().nextInt() ) );
+
+    if( !fileSystem.mkdirs( claimDir ) )
+      throw new IOException( "unable to create chunk claim directory: " + claimDir );
+
+    LOG.info( "rows: {}, chunks: {}, claims: {}", new Object[]{count, numChunks, claimDir} );
+
+    String claimPath = fileSystem.makeQualified( claimDir ).toString();
+    InputSplit[] splits = new InputSplit[chunks];
+
+    for( int i = 0; i < chunks; i++ )
+      splits[ i ] = new DBDynamicInputSplit( count, i, chunks, numChunks, claimPath );
+
+    explainSplit( new DBInputSplit( ( numChunks - 1 ) * ( count / numChunks ), count ), count, numChunks );
+
+    return splits;
     }
 
-  protected void setAutoCommit( Connection connection )
+  private void removeExpiredClaims( FileSystem fileSystem, Path root ) throws IOException
     {
-    try
-      {
-      connection.setAutoCommit( false );
-      }
-    catch( Exception exception )
+    FileStatus[] statuses = fileSystem.listStatus( root );
+
+    if( statuses == null )
+      return;
+
+    long expired = System.currentTimeMillis() - 24L * 60 * 60 * 1000;
+
+    for( FileStatus status : statuses )
       {
-      throw new RuntimeException( "unable to set auto commit", exception );
+      if( status.isDir() && status.getModificationTime() < expired )
+        fileSystem.delete( status.getPath(), true );
       }
     }
 
-  protected void setTransactionIsolationLevel( Connection connection )
+  /**
+   * Plans the splits across all the configured input tables at once. The row count of every table is
+   * retrieved with a single query, and the available chunks are handed out proportional to the size
+   * of each table. Empty tables receive no splits.
+   */
+  protected InputSplit[] getTableSplits( int chunks ) throws IOException
     {
+    long[] counts = new long[tableNames.length];
+    long total = 0;
+
     try
       {
-      connection.setTransactionIsolation( Connection.TRANSACTION_SERIALIZABLE );
+      Statement statement = connection.createStatement();
+
+      ResultSet results = statement.executeQuery( getTablesCountQuery() );
+
+      while( results.next() )
+        counts[ results.getInt( 1 ) ] = results.getLong( 2 );
+
+      results.close();
+      statement.close();
       }
     catch( SQLException exception )
       {
-      throw new RuntimeException( "unable to configure transaction isolation level", exception );
+      throw new IOException( "unable to count rows in tables", exception );
+      }
+
+    for( int i = 0; i < counts.length; i++ )
+      {
+      if( limit != -1 )
+        counts[ i ] = Math.min( limit - total, counts[ i ] );
+
+      total += counts[ i ];
       }
+
+    List<InputSplit> splits = new ArrayList<InputSplit>();
+    DBInputSplit largestSplit = null;
+    long largestCount = 0;
+
+    for( int i = 0; i < tableNames.length; i++ )
+      {
+      long count = counts[ i ];
+
+      if( count == 0 )
+        continue;
+
+      int tableChunks = (int) Math.max( 1, Math.round( chunks * ( (double) count / total ) ) );
+      long chunkSize = count / tableChunks;
+
+      if( count > largestCount )
+        {
+        largestSplit = new DBInputSplit( ( tableChunks - 1 ) * chunkSize, count, tableNames[ i ] );
+        largestCount = count;
+        }
+
+      LOG.info( "table: {}, rows: {}, splits: {}", new Object[]{tableNames[ i ], count, tableChunks} );
+
+      for( int j = 0; j < tableChunks; j++ )
+        {
+        if( j + 1 == tableChunks )
+          splits.add( new DBInputSplit( j * chunkSize, count, tableNames[ i ] ) );
+        else
+          splits.add( new DBInputSplit( j * chunkSize, j * chunkSize + chunkSize, tableNames[ i ] ) );
+        }
+      }
+
+    // the last split of the largest table stands for all the splits
+    if( largestSplit != null )
+      explainSplit( largestSplit, largestCount, splits.size() );
+
+    return splits.toArray( new InputSplit[splits.size()] );
     }
 
-  /** {@inheritDoc} */
-  @SuppressWarnings("unchecked")
-  public RecordReader<LongWritable, T> getRecordReader( InputSplit split, JobConf job, Reporter reporter ) throws IOException
+  /**
+   * Runs the configured EXPLAIN statement on the query of a representative split, logging the plan and the
+   * estimated cost of each split. Only one split is explained, the last one, as it holds the most rows, the
+   * remainder, at the largest offset. Plans of the other splits may differ.
+   * <p/>
+   * If a sequential scan pattern is configured and found in the plan, a warning is logged, or an IOException
+   * is thrown when the scanned table holds more than the configured number of rows. The table size is given by
+   * {@link #getTableRows(String)}, as the rows read may be filtered by the conditions or limit.
+   *
+   * @param split     the representative split
+   * @param rows      the number of rows read, after the conditions and limit
+   * @param numSplits the number of splits
+   * @throws IOException when the plan scans too many rows
+   */
+  protected void explainSplit( DBInputSplit split, long rows, int numSplits ) throws IOException
     {
+    String explainFormat = dbConf.getInputExplainFormat();
+
+    if( explainFormat == null || explainFormat.length() == 0 )
+      return;
+
+    String query = String.format( explainFormat, getSelectQuery( split ) );
+    Connection connection = explainConnection != null ? explainConnection : this.connection;
+    String plan;
 
-    Class inputClass = dbConf.getInputClass();
     try
       {
-      return new DBRecordReader( (DBInputSplit) split, inputClass, job );
+      plan = getPlan( connection, query );
       }
     catch( SQLException exception )
       {
-      throw new IOException( exception.getMessage(), exception );
+      LOG.warn( "unable to explain split query: " + query, exception );
+
+      try
+        {
+        connection.rollback();
+        }
+      catch( SQLException rollbackException )
+        {
+        // ignore
+        }
+
+      return;
       }
+
+    LOG.info( "plan for split query: {}\n{}", query, plan );
+
+    Matcher costMatcher = Pattern.compile( dbConf.getInputExplainCostPattern() ).matcher( plan );
+
+    if( costMatcher.find() && costMatcher.groupCount() != 0 )
+      LOG.info( "estimated cost per split: {}, splits: {}", costMatcher.group( 1 ), numSplits );
+
+    String scanPattern = dbConf.getInputExplainScanPattern();
+
+    if( scanPattern == null || !Pattern.compile( scanPattern ).matcher( plan ).find() )
+      return;
+
+    long maxRows = dbConf.getInputExplainScanMaxRows();
+    String table = split.getTableName() != null ? split.getTableName() : tableName;
+
+    // the rows read never exceed the table size, which is only counted when it may exceed the limit
+    if( maxRows != -1 && rows <= maxRows && dbConf.getInputQuery() == null )
+      rows = getTableRows( table );
+
+    if( maxRows != -1 && rows > maxRows )
+      throw new IOException( "split query plan has a sequential scan over a table of " + rows + " rows, more than the allowed " + maxRows + ": " + query );
+
+    LOG.warn( "split query plan has a sequential scan over a table of {} rows: {}", rows, query );
     }
 
-  /** {@inheritDoc} */
-  public InputSplit[] getSplits( JobConf job, int chunks ) throws IOException
+  /**
+   * Returns the number of rows in the given table, regardless of the input conditions, compared to the
+   * allowed number of rows of a sequential scan. Subclasses can override this to return the estimate kept
+   * by the database instead, like pg_class.reltuples on PostgreSQL, as counting rows may scan the table.
+   *
+   * @param table the table scanned
+   * @return the number of rows
+   * @throws IOException when the rows cannot be counted
+   */
+  protected long getTableRows( String table ) throws IOException
     {
-    // use the configured value if avail
-    chunks = maxConcurrentReads == 0 ? chunks : maxConcurrentReads;
+    Connection connection = explainConnection != null ? explainConnection : this.connection;
 
     try
       {
       Statement statement = connection.createStatement();
 
-      ResultSet results = statement.executeQuery( getCountQuery() );
+      try
+        {
+        ResultSet results = statement.executeQuery( "SELECT COUNT(*) FROM " + table );
 
-      long count = 0;
+        results.next();
 
-      while( results.next() )
-        count += results.getLong( 1 );
+        long count = results.getLong( 1 );
 
-      if( limit != -1 )
-        count = Math.min( limit, count );
+        results.close();
 
-      long chunkSize = ( count / chunks );
+        return count;
+        }
+      finally
+        {
+        statement.close();
+        }
+      }
+    catch( SQLException exception )
+      {
+      throw new IOException( "unable to count rows in: " + table, exception );
+      }
+    }
 
-      results.close();
-      statement.close();
+  private String getPlan( Connection connection, String query ) throws SQLException
+    {
+    Statement statement = connection.createStatement();
 
-      InputSplit[] splits = new InputSplit[chunks];
+    try
+      {
+      ResultSet results = statement.executeQuery( query );
+      int columns = results.getMetaData().getColumnCount();
+      StringBuilder plan = new StringBuilder();
 
-      // Split the rows into n-number of chunks and adjust the last chunk
-      // accordingly
-      for( int i = 0; i < chunks; i++ )
+      while( results.next() )
         {
-        DBInputSplit split;
+        for( int i = 1; i <= columns; i++ )
+          {
+          if( i != 1 )
+            plan.append( ' ' );
 
-        if( i + 1 == chunks )
-          split = new DBInputSplit( i * chunkSize, count );
-        else
-          split = new DBInputSplit( i * chunkSize, i * chunkSize + chunkSize );
+          plan.append( results.getString( i ) );
+          }
 
-        splits[ i ] = split;
+        plan.append( '\n' );
         }
 
-      return splits;
+      results.close();
+
+      return plan.toString();
       }
-    catch( SQLException e )
+    finally
       {
-      throw new IOException( e.getMessage() );
+      statement.close();
+      }
+    }
+
+  /**
+   * Returns the query for getting the number of rows in each of the input tables in one
+   * round trip, subclasses can override this for custom behaviour. Each row must hold the
+   * index of the table followed by its count.
+   */
+  protected String getTablesCountQuery()
+    {
+    StringBuilder query = new StringBuilder();
+
+    for( int i = 0; i < tableNames.length; i++ )
+      {
+      if( i != 0 )
+        query.append( " UNION ALL " );
+
+      query.append( "SELECT " ).append( i ).append( ", COUNT(*) FROM " ).append( tableNames[ i ] );
+
+      if( conditions != null && conditions.length() > 0 )
+        query.append( " WHERE " ).append( conditions );
       }
+
+    return query.toString();
     }
 
   /**
@@ -511,4 +1841,234 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
 
     dbConf.setMaxConcurrentReadsNum( concurrentReads );
     }
+
+  /**
+   * Sets the tables to read from when the input is spread across a set of identically structured
+   * tables, for example tables partitioned by date. Must be called after
+   * {@link #setInput(org.apache.hadoop.mapred.JobConf, Class, String, String, String, long, int, String...)}.
+   *
+   * @param job        The job
+   * @param tableNames the tables to read data from
+   */
+  public static void setInputTables( JobConf job, String... tableNames )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setInputTableNames( tableNames );
+    }
+
+  /**
+   * Sets the statement used to explain a representative split query when the splits are planned. The
+   * query replaces the %s in the given format, for example "EXPLAIN %s" for PostgreSQL and MySQL,
+   * or "EXPLAIN PLAN FOR %s" for HSQLDB.
+   *
+   * @param job           The job
+   * @param explainFormat the format of the EXPLAIN statement
+   */
+  public static void setInputExplain( JobConf job, String explainFormat )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setInputExplainFormat( explainFormat );
+    }
+
+  /**
+   * Sets a regular expression matching a sequential scan in the explained plan, and the number of rows of the
+   * scanned table above which such a plan fails the job when the splits are planned, however few rows the input
+   * conditions select. Use -1 to only log a warning.
+   *
+   * @param job         The job
+   * @param scanPattern the regular expression matching a sequential scan, like "Seq Scan"
+   * @param maxRows     the number of rows of a table allowed to be scanned
+   */
+  public static void setInputExplainScanLimit( JobConf job, String scanPattern, long maxRows )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setInputExplainScanPattern( scanPattern );
+    dbConf.setInputExplainScanMaxRows( maxRows );
+    }
+
+  /**
+   * Reads the input as the given number of chunks claimed dynamically by the readers, instead of a fixed
+   * range of rows per reader, so skewed or slow ranges are balanced across the readers. Speculative
+   * execution of map tasks is disabled, as the chunks read by an attempt cannot be read by another.
+   * <p/>
+   * Not used when reading a set of partitioned tables.
+   *
+   * @param job       The job
+   * @param numChunks the number of chunks, 0 to disable
+   */
+  public static void setInputDynamic( JobConf job, int numChunks )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setInputDynamicChunks( numChunks );
+
+    if( numChunks > 0 )
+      job.setBoolean( "mapred.map.tasks.speculative.execution", false );
+    }
+
+  /**
+   * Sets the number of times a record reader reconnects and resumes reading its split after a transient
+   * failure, like a lost connection, instead of failing the task.
+   * <p/>
+   * If a resume key is given and is also the ORDER BY clause of the input, reading resumes with the rows whose
+   * key is greater than the last key read, otherwise it resumes at the offset of the next row. The resume key
+   * must be one of the selected columns.
+   *
+   * @param job         The job
+   * @param resumeKey   the unique column the input is ordered by, or null
+   * @param maxAttempts the number of times to resume
+   * @param backoff     the milliseconds to wait before the first attempt, doubled on each attempt
+   */
+  public static void setInputResume( JobConf job, String resumeKey, int maxAttempts, long backoff )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    if( dbConf.getInputQuery() == null )
+      checkResumeKey( resumeKey, dbConf.getInputFieldNames() );
+
+    dbConf.setInputResumeKey( resumeKey );
+    dbConf.setInputResumeAttempts( maxAttempts );
+    dbConf.setInputResumeBackoff( backoff );
+    }
+
+  /** Fails if the given resume key is not one of the given selected field names, when both are known. */
+  private static void checkResumeKey( String resumeKey, String[] fieldNames )
+    {
+    if( resumeKey == null || fieldNames == null )
+      return;
+
+    for( String fieldName : fieldNames )
+      {
+      if( fieldName.equalsIgnoreCase( resumeKey ) )
+        return;
+      }
+
+    throw new IllegalArgumentException( "resume key: " + resumeKey + " is not a selected column: " + Arrays.toString( fieldNames ) );
+    }
+
+  /**
+   * Sets the transaction isolation level of the reader connections, and if they should be marked read only.
+   * The default level is {@link Connection#TRANSACTION_SERIALIZABLE}, use -1 to keep the driver default.
+   *
+   * @param job            The job
+   * @param isolationLevel one of the {@link Connection} TRANSACTION_ levels, or -1
+   * @param readOnly       true if the connections should be read only
+   */
+  public static void setInputIsolation( JobConf job, int isolationLevel, boolean readOnly )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setInputIsolationLevel( isolationLevel );
+    dbConf.setInputReadOnly( readOnly );
+    }
+
+  /**
+   * Sets if the snapshot of the transaction planning the splits is exported, and imported by every reader,
+   * so all splits read the same state of the table without the cost of SERIALIZABLE transactions.
+   * See {@link #getSnapshotExportQuery()} for the supported dialects.
+   *
+   * @param job      The job
+   * @param snapshot true if an exported snapshot should be shared by the readers
+   */
+  public static void setInputSnapshot( JobConf job, boolean snapshot )
+    {
+    setInputSnapshot( job, snapshot, null );
+    }
+
+  /**
+   * Sets if the snapshot of the transaction planning the splits is exported, and imported by every reader.
+   * The transactions exporting the snapshots are held until {@link #releaseSnapshots(String)} is called with
+   * the given owner, or until the {@link DBConfiguration#INPUT_SNAPSHOT_HOLD_PROPERTY} timeout, 24 hours by
+   * default, expires. The timeout is only a safety net for owners never released, and must be longer than the
+   * job, as readers started after it expires fail.
+   *
+   * @param job      The job
+   * @param snapshot true if an exported snapshot should be shared by the readers
+   * @param owner    the id the snapshots are released by, may be null
+   */
+  public static void setInputSnapshot( JobConf job, boolean snapshot, String owner )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setInputSnapshot( snapshot );
+    dbConf.setInputSnapshotOwner( owner );
+    }
+
+  /**
+   * Sets the timeouts of the record readers. A query running longer than queryTimeout seconds, or a call
+   * to next() taking longer than fetchTimeout milliseconds, is cancelled. The unread rows of the cancelled
+   * query are then read as timeoutSplits smaller ranges, up to maxReplans times per reader, or the reader
+   * fails if timeoutSplits is less than 2.
+   *
+   * @param job           The job
+   * @param queryTimeout  the query timeout in seconds, 0 for none
+   * @param fetchTimeout  the fetch timeout in milliseconds, 0 for none
+   * @param timeoutSplits the number of ranges the unread rows are divided into
+   * @param maxReplans    the number of times a reader may divide its unread rows
+   */
+  public static void setInputTimeout( JobConf job, int queryTimeout, long fetchTimeout, int timeoutSplits, int maxReplans )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setInputQueryTimeout( queryTimeout );
+    dbConf.setInputFetchTimeout( fetchTimeout );
+    dbConf.setInputTimeoutSplits( timeoutSplits );
+    dbConf.setInputTimeoutReplans( maxReplans );
+    }
+
+  /**
+   * Caches the rows of each split query in a SequenceFile under the given directory, so reading the same
+   * query again within the time to live replays the file instead of querying the database. The input class
+   * must be Writable, like {@link cascading.jdbc.TupleRecord}.
+   * <p/>
+   * The token is part of the cache key, use a value that changes with the data, like a high watermark,
+   * to never replay stale rows.
+   *
+   * @param job        The job
+   * @param cacheDir   the directory on the job FileSystem holding the cached rows
+   * @param timeToLive the milliseconds cached rows are replayed, -1 for no limit
+   * @param token      the token identifying the state of the data, or null
+   */
+  public static void setInputCache( JobConf job, String cacheDir, long timeToLive, String token )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setInputCacheDir( cacheDir );
+    dbConf.setInputCacheTimeToLive( timeToLive );
+    dbConf.setInputCacheToken( token );
+    }
+
+  /**
+   * Sets the names of the properties configuring how the input class decodes rows. Their values, with the
+   * name of the input class, are part of the cache key, so rows cached by one decoding are never replayed
+   * into another.
+   *
+   * @param job           The job
+   * @param propertyNames the names of the properties read by the input class
+   */
+  public static void setInputCacheKeyProperties( JobConf job, String... propertyNames )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setInputCacheKeyProperties( propertyNames );
+    }
+
+  /**
+   * Sets the number of rows each record reader fetches ahead on a background thread, so fetching rows
+   * from the database overlaps with processing the rows already fetched. Use 0 to fetch rows on demand.
+   * <p/>
+   * Rows are read with ResultSet.getObject, and converted when read with other getters.
+   *
+   * @param job   The job
+   * @param depth the number of rows fetched ahead
+   */
+  public static void setInputPrefetch( JobConf job, int depth )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setInputPrefetch( depth );
+    }
   }
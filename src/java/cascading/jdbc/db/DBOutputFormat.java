@@ -29,12 +29,18 @@
 
 package cascading.jdbc.db;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -58,17 +64,28 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
   {
   private static final Log LOG = LogFactory.getLog( DBOutputFormat.class );
 
+  /** Field MAX_OPEN_STREAMS, the number of bound streams that forces the current batch to be executed */
+  private static final int MAX_OPEN_STREAMS = 64;
+
+  /** Field job, the configuration of the task writing */
+  private JobConf job;
+
   /** A RecordWriter that writes the reduce output to a SQL table */
   protected class DBRecordWriter implements RecordWriter<K, V>
     {
     private Connection connection;
     private PreparedStatement insertStatement;
     private PreparedStatement updateStatement;
+    private PreparedStatement existsStatement;
+    private KeyFilter existingKeys;
+    private DBParameterRecorder parameterRecorder;
+    private int numKeys;
     private final int statementsBeforeExecute;
 
     private long statementsAdded = 0;
     private long insertStatementsCurrent = 0;
     private long updateStatementsCurrent = 0;
+    private List<Closeable> openStreams = new ArrayList<Closeable>();
 
     protected DBRecordWriter( Connection connection, PreparedStatement insertStatement, PreparedStatement updateStatement, int statementsBeforeExecute )
       {
@@ -78,6 +95,22 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
       this.statementsBeforeExecute = statementsBeforeExecute;
       }
 
+    /**
+     * Creates a DBRecordWriter that routes each key to the INSERT or UPDATE statement depending
+     * on whether the last numKeys values it binds to the UPDATE statement exist in the table.
+     *
+     * @param existsStatement a query binding the numKeys update field values, returning a row if they exist
+     * @param existingKeys    the keys known to exist in the table
+     */
+    protected DBRecordWriter( Connection connection, PreparedStatement insertStatement, PreparedStatement updateStatement, int statementsBeforeExecute, PreparedStatement existsStatement, KeyFilter existingKeys, int numKeys )
+      {
+      this( connection, insertStatement, updateStatement, statementsBeforeExecute );
+      this.existsStatement = existsStatement;
+      this.existingKeys = existingKeys;
+      this.numKeys = numKeys;
+      this.parameterRecorder = new DBParameterRecorder( updateStatement );
+      }
+
     /** {@inheritDoc} */
     public void close( Reporter reporter ) throws IOException
       {
@@ -91,6 +124,9 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
         if( updateStatement != null )
           updateStatement.close();
 
+        if( existsStatement != null )
+          existsStatement.close();
+
         connection.commit();
         }
       catch( SQLException exception )
@@ -101,6 +137,16 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
         }
       finally
         {
+        closeStreams();
+
+        if( reporter != null )
+          {
+          DBTrace trace = DBTrace.getTrace( connection );
+
+          if( trace != null )
+            trace.report( reporter );
+          }
+
         try
           {
           connection.close();
@@ -112,6 +158,22 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
         }
       }
 
+    /** Rolls back the rows written and releases the connection, after the task failed. */
+    void abort()
+      {
+      rollBack();
+      closeStreams();
+
+      try
+        {
+        connection.close();
+        }
+      catch( SQLException exception )
+        {
+        LOG.warn( "unable to close connection", exception );
+        }
+      }
+
     private void executeBatch() throws IOException
       {
       try
@@ -157,6 +219,25 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
 
         createThrowMessage( "unable to execute update batch", updateStatementsCurrent, exception );
         }
+
+      closeStreams();
+      }
+
+    private void closeStreams()
+      {
+      for( Closeable stream : openStreams )
+        {
+        try
+          {
+          stream.close();
+          }
+        catch( IOException exception )
+          {
+          LOG.warn( "ignoring stream close exception", exception );
+          }
+        }
+
+      openStreams.clear();
       }
 
     private void rollBack()
@@ -195,6 +276,12 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
     /** {@inheritDoc} */
     public synchronized void write( K key, V value ) throws IOException
       {
+      if( existingKeys != null )
+        value = exists( key ) ? value : null;
+
+      if( key instanceof StreamingDBWritable )
+        ( (StreamingDBWritable) key ).configureStreams( job );
+
       try
         {
         if( value == null )
@@ -214,12 +301,90 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
         {
         throw new IOException( "unable to add batch statement", exception );
         }
+      finally
+        {
+        if( key instanceof StreamingDBWritable )
+          openStreams.addAll( ( (StreamingDBWritable) key ).takeStreams() );
+        }
 
       statementsAdded++;
 
-      if( statementsAdded % statementsBeforeExecute == 0 )
+      if( statementsAdded % statementsBeforeExecute == 0 || openStreams.size() >= MAX_OPEN_STREAMS )
         executeBatch();
       }
+
+    /**
+     * Returns true if the update field values of the given key exist, remembering them either way. The values
+     * are compared as bound to the UPDATE statement, so after any codec, and converted to the key column types.
+     */
+    private boolean exists( K key ) throws IOException
+      {
+      Object[] parameters;
+
+      try
+        {
+        parameters = parameterRecorder.record( key );
+        }
+      catch( SQLException exception )
+        {
+        throw new IOException( "unable to read key values", exception );
+        }
+      finally
+        {
+        // streams bound while recording are closed with those of the batch
+        if( key instanceof StreamingDBWritable )
+          openStreams.addAll( ( (StreamingDBWritable) key ).takeStreams() );
+        }
+
+      if( parameters.length < numKeys )
+        throw new IOException( "key bound " + parameters.length + " values, expected at least: " + numKeys );
+
+      Object[] values = new Object[numKeys];
+
+      System.arraycopy( parameters, parameters.length - numKeys, values, 0, numKeys );
+
+      values = existingKeys.coerce( values );
+
+      if( !existingKeys.mightContain( values ) )
+        {
+        existingKeys.add( values );
+        return false;
+        }
+
+      if( existingKeys.isExact() )
+        return true;
+
+      boolean exists = queryExists( values );
+
+      // a false positive may still be pending in the current insert batch
+      if( !exists && insertStatementsCurrent != 0 )
+        {
+        executeBatch();
+        exists = queryExists( values );
+        }
+
+      return exists;
+      }
+
+    private boolean queryExists( Object[] values ) throws IOException
+      {
+      try
+        {
+        for( int i = 0; i < values.length; i++ )
+          existsStatement.setObject( i + 1, values[ i ] );
+
+        ResultSet resultSet = existsStatement.executeQuery();
+        boolean exists = resultSet.next();
+
+        resultSet.close();
+
+        return exists;
+        }
+      catch( SQLException exception )
+        {
+        throw new IOException( "unable to check if key exists", exception );
+        }
+      }
     }
 
   /**
@@ -321,6 +486,85 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
     return query.toString();
     }
 
+  /**
+   * Constructs the query used to check if a row with the given update field values exists.
+   *
+   * @param table       the table to query
+   * @param updateNames the fields identifying a row
+   */
+  protected String constructExistsQuery( String table, String[] updateNames )
+    {
+    StringBuilder query = new StringBuilder();
+
+    query.append( "SELECT 1 FROM " ).append( table ).append( " WHERE " );
+
+    for( int i = 0; i < updateNames.length; i++ )
+      {
+      query.append( updateNames[ i ] );
+      query.append( " = ?" );
+
+      if( i != updateNames.length - 1 )
+        query.append( " and " );
+      }
+
+    return query.toString();
+    }
+
+  /**
+   * Streams the update field values of every row in the table into a {@link KeyFilter}, an exact one if the
+   * table holds no more than maxKeys rows, otherwise a Bloom filter.
+   */
+  protected KeyFilter loadExistingKeys( Connection connection, String table, String[] updateNames, long maxKeys, int fetchSize ) throws IOException
+    {
+    String countQuery = "SELECT COUNT(*) FROM " + table;
+    String keysQuery = "SELECT " + StringUtils.arrayToString( updateNames ) + " FROM " + table;
+
+    try
+      {
+      Statement statement = connection.createStatement();
+      ResultSet resultSet = statement.executeQuery( countQuery );
+
+      resultSet.next();
+
+      long count = resultSet.getLong( 1 );
+
+      resultSet.close();
+
+      KeyFilter keys = count > maxKeys ? new KeyFilter( count ) : new KeyFilter();
+
+      LOG.info( "loading " + count + " existing keys from: " + table + ", exact: " + keys.isExact() );
+
+      statement.setFetchSize( fetchSize );
+      resultSet = statement.executeQuery( keysQuery );
+
+      int[] columnTypes = new int[updateNames.length];
+
+      for( int i = 0; i < columnTypes.length; i++ )
+        columnTypes[ i ] = resultSet.getMetaData().getColumnType( i + 1 );
+
+      keys.setColumnTypes( columnTypes );
+
+      while( resultSet.next() )
+        {
+        Object[] values = new Object[updateNames.length];
+
+        for( int i = 0; i < values.length; i++ )
+          values[ i ] = resultSet.getObject( i + 1 );
+
+        keys.add( values );
+        }
+
+      resultSet.close();
+      statement.close();
+
+      return keys;
+      }
+    catch( SQLException exception )
+      {
+      throw new IOException( "unable to load existing keys with: " + keysQuery, exception );
+      }
+    }
+
   /** {@inheritDoc} */
   public void checkOutputSpecs( FileSystem filesystem, JobConf job ) throws IOException
     {
@@ -329,18 +573,26 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
   /** {@inheritDoc} */
   public RecordWriter<K, V> getRecordWriter( FileSystem filesystem, JobConf job, String name, Progressable progress ) throws IOException
     {
+    this.job = job;
+
     DBConfiguration dbConf = new DBConfiguration( job );
 
     String tableName = dbConf.getOutputTableName();
     String[] fieldNames = dbConf.getOutputFieldNames();
     String[] updateNames = dbConf.getOutputUpdateFieldNames();
     int batchStatements = dbConf.getBatchStatementsNum();
+    boolean updateAuto = dbConf.getOutputUpdateAuto();
+
+    if( updateAuto && updateNames == null )
+      throw new IOException( "update field names are required to route between insert and update" );
 
     Connection connection = dbConf.getConnection();
 
     configureConnection( connection );
 
-    String sqlInsert = constructInsertQuery( tableName, fieldNames );
+    // when routing, every key is laid out as an update, value fields first then update fields
+    String[] insertNames = updateAuto ? getUpdateOrder( fieldNames, updateNames ) : fieldNames;
+    String sqlInsert = constructInsertQuery( tableName, insertNames );
     PreparedStatement insertPreparedStatement;
 
     try
@@ -365,7 +617,66 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
       throw new IOException( "unable to create statement for: " + sqlUpdate, exception );
       }
 
-    return new DBRecordWriter( connection, insertPreparedStatement, updatePreparedStatement, batchStatements );
+    if( !updateAuto )
+      return sortRecordWriter( new DBRecordWriter( connection, insertPreparedStatement, updatePreparedStatement, batchStatements ), job, dbConf );
+
+    KeyFilter existingKeys = loadExistingKeys( connection, tableName, updateNames, dbConf.getOutputUpdateAutoMaxKeys(), batchStatements );
+    String sqlExists = constructExistsQuery( tableName, updateNames );
+    PreparedStatement existsPreparedStatement;
+
+    try
+      {
+      existsPreparedStatement = connection.prepareStatement( sqlExists );
+      }
+    catch( SQLException exception )
+      {
+      throw new IOException( "unable to create statement for: " + sqlExists, exception );
+      }
+
+    return sortRecordWriter( new DBRecordWriter( connection, insertPreparedStatement, updatePreparedStatement, batchStatements, existsPreparedStatement, existingKeys, updateNames.length ), job, dbConf );
+    }
+
+  private RecordWriter<K, V> sortRecordWriter( RecordWriter<K, V> writer, JobConf job, DBConfiguration dbConf ) throws IOException
+    {
+    String[] sortNames = dbConf.getOutputSortFieldNames();
+
+    if( sortNames == null )
+      return writer;
+
+    String[] fieldNames = dbConf.getOutputFieldNames();
+    String[] updateNames = dbConf.getOutputUpdateFieldNames();
+
+    // keys hold their values in update order whenever there are update fields
+    List<String> keyNames = Arrays.asList( updateNames != null ? getUpdateOrder( fieldNames, updateNames ) : fieldNames );
+    int[] sortPositions = new int[sortNames.length];
+
+    for( int i = 0; i < sortNames.length; i++ )
+      {
+      sortPositions[ i ] = keyNames.indexOf( sortNames[ i ] );
+
+      if( sortPositions[ i ] == -1 )
+        throw new IOException( "sort field: " + sortNames[ i ] + " is not an output field: " + keyNames );
+      }
+
+    LOG.info( "sorting rows by: " + Arrays.asList( sortNames ) );
+
+    return new DBSortedRecordWriter<K, V>( writer, job, sortPositions, dbConf.getOutputSortBufferRows() );
+    }
+
+  private String[] getUpdateOrder( String[] fieldNames, String[] updateNames )
+    {
+    List<String> updateNamesList = Arrays.asList( updateNames );
+    List<String> names = new ArrayList<String>();
+
+    for( String fieldName : fieldNames )
+      {
+      if( !updateNamesList.contains( fieldName ) )
+        names.add( fieldName );
+      }
+
+    names.addAll( updateNamesList );
+
+    return names.toArray( new String[names.size()] );
     }
 
   protected void configureConnection( Connection connection )
@@ -415,4 +726,48 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
     if( batchSize != -1 )
       dbConf.setBatchStatementsNum( batchSize );
     }
+
+  /**
+   * Sets if each key should be routed to the INSERT or UPDATE statement by checking if its update field
+   * values already exist in the table, instead of by the value being null. Must be called after
+   * {@link #setOutput(org.apache.hadoop.mapred.JobConf, Class, String, String[], String[], int)}.
+   * <p/>
+   * Each task loads the existing keys when it starts, holding them exactly, or as a Bloom filter if
+   * there are more than {@link DBConfiguration#OUTPUT_UPDATE_AUTO_MAX_KEYS_PROPERTY}. Bloom filter
+   * matches are confirmed with a per row query.
+   *
+   * @param job        The job
+   * @param updateAuto true if keys should be routed by the existing keys
+   */
+  public static void setUpdateAuto( JobConf job, boolean updateAuto )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setOutputUpdateAuto( updateAuto );
+    }
+
+  /**
+   * Sets the output fields, usually the primary key of the table, each task sorts its rows by before
+   * writing them, so rows are inserted in index order. Must be called after
+   * {@link #setOutput(org.apache.hadoop.mapred.JobConf, Class, String, String[], String[], int)}.
+   * <p/>
+   * Each task holds up to bufferRows rows in memory, spilling sorted runs to local disk when full, and
+   * merging the runs when closed. Keys must implement {@link IndexedDBWritable} and Writable.
+   * <p/>
+   * Only whether a value is null is kept, a key written with a non-null value is updated with the values
+   * of the key itself, as the keys written by {@link cascading.jdbc.JDBCScheme} are.
+   *
+   * @param job            The job
+   * @param sortFieldNames the output field names to sort by
+   * @param bufferRows     the number of rows sorted in memory, or -1 for the default
+   */
+  public static void setOutputSort( JobConf job, String[] sortFieldNames, int bufferRows )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setOutputSortFieldNames( sortFieldNames );
+
+    if( bufferRows != -1 )
+      dbConf.setOutputSortBufferRows( bufferRows );
+    }
   }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the parameter values a {@link DBWritable} binds to a statement, so the values of a row can be read
+ * in the form the driver receives them, after any conversion done by the writable, like a codec.
+ * <p/>
+ * The recording statement answers getParameterMetaData and getConnection from the given statement, so
+ * writables resolve the same conversions as when writing to it. Nothing is executed.
+ */
+class DBParameterRecorder implements InvocationHandler
+  {
+  private final PreparedStatement statement;
+  private final PreparedStatement recorder;
+  private final List<Object> values = new ArrayList<Object>();
+
+  /** @param statement the statement the writable is otherwise written to */
+  DBParameterRecorder( PreparedStatement statement )
+    {
+    this.statement = statement;
+    this.recorder = (PreparedStatement) Proxy.newProxyInstance( PreparedStatement.class.getClassLoader(), new Class[]{PreparedStatement.class}, this );
+    }
+
+  /**
+   * Writes the given writable to the recording statement.
+   *
+   * @param writable the writable to record
+   * @return the bound values, by parameter index starting at 0
+   * @throws SQLException when the writable fails to bind its values
+   */
+  Object[] record( DBWritable writable ) throws SQLException
+    {
+    values.clear();
+
+    writable.write( recorder );
+
+    return values.toArray();
+    }
+
+  public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable
+    {
+    String name = method.getName();
+
+    if( name.startsWith( "set" ) && args != null && args.length >= 2 && args[ 0 ] instanceof Integer )
+      {
+      int index = (Integer) args[ 0 ] - 1;
+
+      while( values.size() <= index )
+        values.add( null );
+
+      values.set( index, name.equals( "setNull" ) ? null : args[ 1 ] );
+
+      return null;
+      }
+
+    if( name.equals( "clearParameters" ) )
+      {
+      values.clear();
+      return null;
+      }
+
+    if( name.equals( "getParameterMetaData" ) || name.equals( "getConnection" ) )
+      {
+      try
+        {
+        return method.invoke( statement, args );
+        }
+      catch( InvocationTargetException exception )
+        {
+        throw exception.getCause();
+        }
+      }
+
+    if( name.equals( "equals" ) && args != null && args.length == 1 )
+      return proxy == args[ 0 ];
+
+    if( name.equals( "hashCode" ) && args == null )
+      return System.identityHashCode( proxy );
+
+    if( name.equals( "toString" ) && args == null )
+      return "recording " + statement;
+
+    throw new SQLException( "not supported while recording parameters: " + name );
+    }
+  }
@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads the rows of a {@link ResultSet} on a background thread into a bounded queue, so fetching rows
+ * from the database overlaps with the processing of the rows already fetched.
+ * <p/>
+ * The rows are read with getObject and handed out through a ResultSet view. Row getters of the view,
+ * by column index or label, are served from the current prefetched row, converting the value to the
+ * requested type. As the underlying ResultSet and its connection are in use by the background thread, the
+ * few other methods the view supports are served from values read up front, and all others are rejected.
+ */
+class DBPrefetcher implements Runnable, InvocationHandler
+  {
+  /** Field END marks the last row */
+  private static final Object END = new Object();
+  /** Field NON_ROW_GETTERS, getters not returning a column value */
+  private static final Set<String> NON_ROW_GETTERS = new HashSet<String>( Arrays.asList( "getMetaData", "getStatement", "getFetchSize", "getFetchDirection", "getType", "getConcurrency", "getWarnings", "getCursorName", "getHoldability", "getRow" ) );
+
+  private final ResultSet resultSet;
+  private final Statement statement;
+  private final ResultSetMetaData metaData;
+  private final int columns;
+  private final BlockingQueue<Object> queue;
+  private final Thread thread;
+  private volatile boolean closed = false;
+  private Object[] current;
+  private boolean finished = false;
+  private boolean wasNull = false;
+  private int row = 0;
+
+  /**
+   * Starts prefetching the rows of the given ResultSet, and returns the view the rows are read from.
+   *
+   * @param resultSet the ResultSet to read
+   * @param depth     the maximum number of rows held
+   * @return a ResultSet view
+   * @throws SQLException when the result set meta data cannot be read
+   */
+  static ResultSet prefetch( ResultSet resultSet, int depth ) throws SQLException
+    {
+    DBPrefetcher prefetcher = new DBPrefetcher( resultSet, depth );
+
+    prefetcher.thread.start();
+
+    return (ResultSet) Proxy.newProxyInstance( ResultSet.class.getClassLoader(), new Class[]{ResultSet.class}, prefetcher );
+    }
+
+  private DBPrefetcher( ResultSet resultSet, int depth ) throws SQLException
+    {
+    this.resultSet = resultSet;
+    this.statement = resultSet.getStatement();
+    this.metaData = resultSet.getMetaData();
+    this.columns = metaData.getColumnCount();
+    this.queue = new ArrayBlockingQueue<Object>( depth );
+    this.thread = new Thread( this, "jdbc prefetch" );
+    this.thread.setDaemon( true );
+    }
+
+  public void run()
+    {
+    try
+      {
+      while( !closed && resultSet.next() )
+        {
+        Object[] row = new Object[columns];
+
+        for( int i = 0; i < columns; i++ )
+          row[ i ] = resultSet.getObject( i + 1 );
+
+        queue.put( row );
+        }
+
+      if( !closed )
+        queue.put( END );
+      }
+    catch( SQLException exception )
+      {
+      fail( exception );
+      }
+    catch( InterruptedException exception )
+      {
+      // the fetch thread is never interrupted by close, see close()
+      }
+    catch( Throwable throwable )
+      {
+      // the reader must never wait on a thread that died
+      fail( new SQLException( "unable to prefetch rows", throwable ) );
+      }
+    }
+
+  private void fail( SQLException exception )
+    {
+    if( closed )
+      return;
+
+    try
+      {
+      queue.put( exception );
+      }
+    catch( InterruptedException interruptedException )
+      {
+      // closed
+      }
+    }
+
+  public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable
+    {
+    String name = method.getName();
+
+    if( name.equals( "next" ) )
+      return next();
+
+    if( name.equals( "close" ) )
+      {
+      close();
+      return null;
+      }
+
+    if( name.equals( "isClosed" ) )
+      return closed;
+
+    if( name.equals( "wasNull" ) )
+      return wasNull;
+
+    if( name.equals( "getMetaData" ) )
+      return metaData;
+
+    if( name.equals( "findColumn" ) )
+      return findColumn( (String) args[ 0 ] );
+
+    if( name.equals( "equals" ) && args != null && args.length == 1 )
+      return proxy == args[ 0 ];
+
+    if( name.equals( "hashCode" ) && args == null )
+      return System.identityHashCode( proxy );
+
+    if( name.equals( "toString" ) && args == null )
+      return "prefetched " + resultSet;
+
+    if( name.startsWith( "get" ) && !NON_ROW_GETTERS.contains( name ) && args != null && args.length > 0 )
+      {
+      int index = args[ 0 ] instanceof String ? findColumn( (String) args[ 0 ] ) : (Integer) args[ 0 ];
+
+      return getValue( name, index );
+      }
+
+    if( name.equals( "getStatement" ) )
+      return statement;
+
+    if( name.equals( "getRow" ) )
+      return current == null ? 0 : row;
+
+    if( name.equals( "getType" ) )
+      return ResultSet.TYPE_FORWARD_ONLY;
+
+    if( name.equals( "getConcurrency" ) )
+      return ResultSet.CONCUR_READ_ONLY;
+
+    if( name.equals( "getWarnings" ) )
+      return null;
+
+    if( name.equals( "clearWarnings" ) )
+      return null;
+
+    // the underlying result set is not thread safe, and is in use by the fetch thread
+    throw new SQLException( "not supported by a prefetched result set: " + name );
+    }
+
+  private boolean next() throws SQLException
+    {
+    if( finished )
+      return false;
+
+    Object item;
+
+    try
+      {
+      item = queue.take();
+      }
+    catch( InterruptedException exception )
+      {
+      throw new SQLException( "interrupted while waiting for rows" );
+      }
+
+    if( item instanceof SQLException )
+      {
+      finished = true;
+      throw (SQLException) item;
+      }
+
+    if( item == END )
+      {
+      finished = true;
+      current = null;
+      return false;
+      }
+
+    current = (Object[]) item;
+    row++;
+
+    return true;
+    }
+
+  private void close() throws SQLException
+    {
+    if( closed )
+      return;
+
+    // interrupting the fetch thread inside a driver call may close an interruptible socket channel,
+    // so the queue is drained until the thread sees the flag and returns from its current call
+    closed = true;
+
+    boolean interrupted = false;
+
+    while( thread.isAlive() )
+      {
+      queue.clear();
+
+      try
+        {
+        thread.join( 10 );
+        }
+      catch( InterruptedException exception )
+        {
+        interrupted = true;
+        }
+      }
+
+    if( interrupted )
+      Thread.currentThread().interrupt();
+
+    queue.clear();
+    resultSet.close();
+    }
+
+  private int findColumn( String label ) throws SQLException
+    {
+    for( int i = 1; i <= columns; i++ )
+      {
+      if( metaData.getColumnLabel( i ).equalsIgnoreCase( label ) )
+        return i;
+      }
+
+    throw new SQLException( "unknown column: " + label );
+    }
+
+  private Object getValue( String getter, int index ) throws SQLException
+    {
+    if( current == null )
+      throw new SQLException( "no current row" );
+
+    Object value = current[ index - 1 ];
+
+    wasNull = value == null;
+
+    if( getter.equals( "getObject" ) )
+      return value;
+
+    if( getter.equals( "getString" ) || getter.equals( "getNString" ) )
+      return value == null ? null : value.toString();
+
+    if( getter.equals( "getBoolean" ) )
+      {
+      if( value == null )
+        return false;
+
+      if( value instanceof Boolean )
+        return value;
+
+      if( value instanceof Number )
+        return ( (Number) value ).intValue() != 0;
+
+      return value.toString().equals( "1" ) || value.toString().equalsIgnoreCase( "true" );
+      }
+
+    if( getter.equals( "getBigDecimal" ) )
+      return value == null || value instanceof BigDecimal ? value : new BigDecimal( value.toString() );
+
+    if( getter.equals( "getInt" ) || getter.equals( "getLong" ) || getter.equals( "getShort" ) || getter.equals( "getByte" ) || getter.equals( "getDouble" ) || getter.equals( "getFloat" ) )
+      return getNumber( getter, value );
+
+    if( getter.equals( "getTimestamp" ) && value instanceof java.util.Date && !( value instanceof Timestamp ) )
+      return new Timestamp( ( (java.util.Date) value ).getTime() );
+
+    if( getter.equals( "getDate" ) && value instanceof java.util.Date && !( value instanceof java.sql.Date ) )
+      return new java.sql.Date( ( (java.util.Date) value ).getTime() );
+
+    if( getter.equals( "getTime" ) && value instanceof java.util.Date && !( value instanceof Time ) )
+      return new Time( ( (java.util.Date) value ).getTime() );
+
+    return value;
+    }
+
+  private Object getNumber( String getter, Object value )
+    {
+    Number number;
+
+    if( value == null )
+      number = 0;
+    else if( value instanceof Number )
+      number = (Number) value;
+    else if( value instanceof Boolean )
+      number = (Boolean) value ? 1 : 0;
+    else
+      number = new BigDecimal( value.toString().trim() );
+
+    if( getter.equals( "getInt" ) )
+      return number.intValue();
+
+    if( getter.equals( "getLong" ) )
+      return number.longValue();
+
+    if( getter.equals( "getShort" ) )
+      return number.shortValue();
+
+    if( getter.equals( "getByte" ) )
+      return number.byteValue();
+
+    if( getter.equals( "getDouble" ) )
+      return number.doubleValue();
+
+    return number.floatValue();
+    }
+  }
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.fs.LocalDirAllocator;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A RecordWriter that sorts all the keys of a task by the values at the given positions, usually the
+ * primary key of the table, before handing them to the given writer. Inserting in key order touches
+ * each index page once, instead of splitting pages and contending for locks across the whole index.
+ * <p/>
+ * Keys must implement {@link IndexedDBWritable} and {@link Writable}. Keys are held serialized, up to
+ * the given number of rows, then sorted and spilled as a run to a file in the task local directories,
+ * mapred.local.dir. On close, the runs are merged and written in order.
+ * <p/>
+ * Values are not held. A key written with a non-null value is handed to the writer with itself as the
+ * value, routing it to the UPDATE statement, as for the keys written by {@link DBOutputFormat}.
+ */
+class DBSortedRecordWriter<K extends DBWritable, V> implements RecordWriter<K, V>
+  {
+  /** Field LOG */
+  private static final Logger LOG = LoggerFactory.getLogger( DBSortedRecordWriter.class );
+
+  /** Field localDirs, the task local directories runs are spilled to */
+  private static final LocalDirAllocator localDirs = new LocalDirAllocator( "mapred.local.dir" );
+  /** Field count, so runs of the same task are unique */
+  private static final AtomicLong count = new AtomicLong();
+
+  /** Holds a buffered key, serialized, and the values it is sorted by. */
+  private static class Row
+    {
+    final Comparable[] sortValues;
+    final byte[] key;
+    final boolean update;
+
+    Row( Comparable[] sortValues, byte[] key, boolean update )
+      {
+      this.sortValues = sortValues;
+      this.key = key;
+      this.update = update;
+      }
+    }
+
+  /** Holds the current key of a spilled run while merging. */
+  private class Run
+    {
+    final DataInputStream input;
+    K key;
+    Comparable[] sortValues;
+    boolean update;
+
+    Run( File file ) throws IOException
+      {
+      this.input = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+      this.key = newKey();
+      }
+
+    boolean next() throws IOException
+      {
+      try
+        {
+        update = input.readBoolean();
+        }
+      catch( EOFException exception )
+        {
+        input.close();
+        return false;
+        }
+
+      WritableUtils.readVInt( input );
+      ( (Writable) key ).readFields( input );
+      sortValues = getSortValues( key );
+
+      return true;
+      }
+    }
+
+  private final Comparator<Comparable[]> valuesComparator = new Comparator<Comparable[]>()
+  {
+  @SuppressWarnings("unchecked")
+  public int compare( Comparable[] lhs, Comparable[] rhs )
+    {
+    for( int i = 0; i < lhs.length; i++ )
+      {
+      if( lhs[ i ] == rhs[ i ] )
+        continue;
+
+      // nulls first
+      if( lhs[ i ] == null )
+        return -1;
+
+      if( rhs[ i ] == null )
+        return 1;
+
+      int result = lhs[ i ].compareTo( rhs[ i ] );
+
+      if( result != 0 )
+        return result;
+      }
+
+    return 0;
+    }
+  };
+
+  private final RecordWriter<K, V> writer;
+  private final JobConf job;
+  private final int[] sortPositions;
+  private final int bufferRows;
+  private final List<Row> buffer = new ArrayList<Row>();
+  private final List<File> runs = new ArrayList<File>();
+  private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+  private Class<? extends K> keyClass;
+
+  /**
+   * @param writer        the writer the sorted keys are handed to
+   * @param job           the job, used to create key instances
+   * @param sortPositions the positions of the key values to sort by
+   * @param bufferRows    the number of keys held in memory before spilling
+   */
+  DBSortedRecordWriter( RecordWriter<K, V> writer, JobConf job, int[] sortPositions, int bufferRows )
+    {
+    this.writer = writer;
+    this.job = job;
+    this.sortPositions = sortPositions;
+    this.bufferRows = bufferRows;
+    }
+
+  /** {@inheritDoc} */
+  @SuppressWarnings("unchecked")
+  public void write( K key, V value ) throws IOException
+    {
+    if( !( key instanceof IndexedDBWritable ) || !( key instanceof Writable ) )
+      throw new IOException( "sorted writes require keys implementing IndexedDBWritable and Writable, got: " + key.getClass().getName() );
+
+    if( keyClass == null )
+      keyClass = (Class<? extends K>) key.getClass();
+
+    // keys may be reused by the caller, so they are copied by serializing
+    bytes.reset();
+    ( (Writable) key ).write( new DataOutputStream( bytes ) );
+
+    // the value only routes the key to the UPDATE statement when not null
+    buffer.add( new Row( getSortValues( key ), bytes.toByteArray(), value != null ) );
+
+    if( buffer.size() >= bufferRows )
+      spill();
+    }
+
+  /** {@inheritDoc} */
+  public void close( Reporter reporter ) throws IOException
+    {
+    boolean written = false;
+
+    try
+      {
+      if( runs.isEmpty() )
+        writeBuffer();
+      else
+        merge();
+
+      written = true;
+      }
+    finally
+      {
+      for( File run : runs )
+        {
+        if( !run.delete() )
+          LOG.warn( "unable to delete sort run: {}", run );
+        }
+
+      if( written )
+        writer.close( reporter );
+      else
+        abort( reporter );
+      }
+    }
+
+  /** Releases the writer after a failure, without committing the rows written so far when possible. */
+  private void abort( Reporter reporter )
+    {
+    if( writer instanceof DBOutputFormat.DBRecordWriter )
+      {
+      ( (DBOutputFormat.DBRecordWriter) writer ).abort();
+      return;
+      }
+
+    try
+      {
+      writer.close( reporter );
+      }
+    catch( IOException exception )
+      {
+      LOG.warn( "unable to close writer", exception );
+      }
+    }
+
+  private void sortBuffer()
+    {
+    Collections.sort( buffer, new Comparator<Row>()
+    {
+    public int compare( Row lhs, Row rhs )
+      {
+      return valuesComparator.compare( lhs.sortValues, rhs.sortValues );
+      }
+    } );
+    }
+
+  private void writeBuffer() throws IOException
+    {
+    if( buffer.isEmpty() )
+      return;
+
+    sortBuffer();
+
+    K key = newKey();
+
+    for( Row row : buffer )
+      {
+      ( (Writable) key ).readFields( new DataInputStream( new ByteArrayInputStream( row.key ) ) );
+      writeSorted( key, row.update );
+      }
+
+    buffer.clear();
+    }
+
+  private void spill() throws IOException
+    {
+    sortBuffer();
+
+    String name = "jdbc-sort-" + job.get( "mapred.task.id", "local" ) + "-" + count.incrementAndGet() + ".run";
+    File file = new File( localDirs.getLocalPathForWrite( name, job ).toUri().getPath() );
+
+    runs.add( file );
+
+    LOG.info( "spilling {} sorted rows to: {}", buffer.size(), file );
+
+    DataOutputStream output = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) );
+
+    try
+      {
+      for( Row row : buffer )
+        {
+        output.writeBoolean( row.update );
+        WritableUtils.writeVInt( output, row.key.length );
+        output.write( row.key );
+        }
+      }
+    finally
+      {
+      output.close();
+      }
+
+    buffer.clear();
+    }
+
+  private void merge() throws IOException
+    {
+    if( !buffer.isEmpty() )
+      spill();
+
+    LOG.info( "merging {} sorted runs", runs.size() );
+
+    PriorityQueue<Run> queue = new PriorityQueue<Run>( runs.size(), new Comparator<Run>()
+    {
+    public int compare( Run lhs, Run rhs )
+      {
+      return valuesComparator.compare( lhs.sortValues, rhs.sortValues );
+      }
+    } );
+
+    List<Run> opened = new ArrayList<Run>();
+
+    try
+      {
+      for( File file : runs )
+        {
+        Run run = new Run( file );
+
+        opened.add( run );
+
+        if( run.next() )
+          queue.add( run );
+        }
+
+      while( !queue.isEmpty() )
+        {
+        Run run = queue.poll();
+
+        writeSorted( run.key, run.update );
+
+        if( run.next() )
+          queue.add( run );
+        }
+      }
+    finally
+      {
+      for( Run run : opened )
+        run.input.close();
+      }
+    }
+
+  @SuppressWarnings("unchecked")
+  private void writeSorted( K key, boolean update ) throws IOException
+    {
+    writer.write( key, update ? (V) key : null );
+    }
+
+  private K newKey()
+    {
+    return ReflectionUtils.newInstance( keyClass, job );
+    }
+
+  private Comparable[] getSortValues( K key )
+    {
+    IndexedDBWritable record = (IndexedDBWritable) key;
+    Comparable[] values = new Comparable[sortPositions.length];
+
+    for( int i = 0; i < sortPositions.length; i++ )
+      values[ i ] = (Comparable) record.getValue( sortPositions[ i ] );
+
+    return values;
+    }
+  }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.JobConf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the rows returned by split queries in SequenceFiles, so reading the same query again replays
+ * the file instead of querying the database.
+ * <p/>
+ * A file is named after the hash of the connection URL, the value class and the properties configuring how
+ * it decodes rows, the query, and an optional token, like a high watermark, that changes when the cached rows
+ * become stale. Files older than the time to live
+ * are ignored. Rows are written to a temporary file, renamed once the query is fully read, so failed
+ * reads are never replayed.
+ */
+class DBSplitCache
+  {
+  /** Field LOG */
+  private static final Logger LOG = LoggerFactory.getLogger( DBSplitCache.class );
+
+  private final JobConf job;
+  private final FileSystem fileSystem;
+  private final Path cacheDir;
+  private final long timeToLive;
+  private final String token;
+
+  /** Holds the writer of a cache file being filled. */
+  class Entry
+    {
+    private final SequenceFile.Writer writer;
+    private final Path tempPath;
+    private final Path path;
+    private final LongWritable key = new LongWritable();
+
+    Entry( SequenceFile.Writer writer, Path tempPath, Path path )
+      {
+      this.writer = writer;
+      this.tempPath = tempPath;
+      this.path = path;
+      }
+
+    void append( long position, Writable value ) throws IOException
+      {
+      key.set( position );
+      writer.append( key, value );
+      }
+
+    void commit() throws IOException
+      {
+      writer.close();
+
+      // another task may have cached the same query first
+      if( fileSystem.exists( path ) || !fileSystem.rename( tempPath, path ) )
+        fileSystem.delete( tempPath, false );
+      else
+        LOG.info( "cached split query rows in: {}", path );
+      }
+
+    void abandon()
+      {
+      try
+        {
+        writer.close();
+        fileSystem.delete( tempPath, false );
+        }
+      catch( IOException exception )
+        {
+        LOG.warn( "unable to remove cache file: " + tempPath, exception );
+        }
+      }
+    }
+
+  DBSplitCache( JobConf job, String cacheDir, long timeToLive, String token ) throws IOException
+    {
+    this.job = job;
+    this.cacheDir = new Path( cacheDir );
+    this.fileSystem = this.cacheDir.getFileSystem( job );
+    this.timeToLive = timeToLive;
+    this.token = token;
+    }
+
+  /**
+   * Returns a reader of the cached rows of the given query, or null if there are none, or they expired.
+   *
+   * @param query      the split query
+   * @param valueClass the Writable class of the rows
+   * @return a SequenceFile.Reader or null
+   * @throws IOException when the cache cannot be read
+   */
+  SequenceFile.Reader open( String query, Class valueClass ) throws IOException
+    {
+    Path path = getPath( query, valueClass );
+
+    if( !fileSystem.exists( path ) )
+      return null;
+
+    FileStatus status = fileSystem.getFileStatus( path );
+
+    if( timeToLive >= 0 && System.currentTimeMillis() - status.getModificationTime() > timeToLive )
+      {
+      LOG.info( "removing expired cache file: {}", path );
+      fileSystem.delete( path, false );
+      return null;
+      }
+
+    LOG.info( "replaying split query rows from: {}", path );
+
+    return new SequenceFile.Reader( fileSystem, path, job );
+    }
+
+  /**
+   * Creates an entry the rows of the given query are written to while they are read.
+   *
+   * @param query      the split query
+   * @param valueClass the Writable class of the rows
+   * @return an Entry
+   * @throws IOException when the cache cannot be written
+   */
+  Entry create( String query, Class valueClass ) throws IOException
+    {
+    Path path = getPath( query, valueClass );
+    Path tempPath = new Path( cacheDir, path.getName() + "-" + job.get( "mapred.task.id", Long.toString( System.nanoTime() ) ) + ".tmp" );
+    SequenceFile.Writer writer = SequenceFile.createWriter( fileSystem, job, tempPath, LongWritable.class, valueClass );
+
+    return new Entry( writer, tempPath, path );
+    }
+
+  private Path getPath( String query, Class valueClass )
+    {
+    StringBuilder key = new StringBuilder();
+
+    key.append( job.get( DBConfiguration.URL_PROPERTY ) ).append( "\n" );
+    key.append( valueClass.getName() ).append( "\n" );
+
+    String[] keyProperties = job.getStrings( DBConfiguration.INPUT_CACHE_KEY_PROPERTIES_PROPERTY );
+
+    if( keyProperties != null )
+      {
+      for( String name : keyProperties )
+        key.append( name ).append( "=" ).append( job.get( name, "" ) ).append( "\n" );
+      }
+
+    key.append( query ).append( "\n" ).append( token == null ? "" : token );
+
+    return new Path( cacheDir, "split-" + hash( key.toString() ) );
+    }
+
+  private static String hash( String value )
+    {
+    try
+      {
+      byte[] digest = MessageDigest.getInstance( "MD5" ).digest( value.getBytes( "UTF-8" ) );
+      StringBuilder builder = new StringBuilder();
+
+      for( byte b : digest )
+        builder.append( String.format( "%02x", b ) );
+
+      return builder.toString();
+      }
+    catch( NoSuchAlgorithmException exception )
+      {
+      throw new IllegalStateException( "MD5 not available", exception );
+      }
+    catch( UnsupportedEncodingException exception )
+      {
+      throw new IllegalStateException( "UTF-8 not available", exception );
+      }
+    }
+  }
@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Records the time spent in JDBC calls by wrapping a {@link Connection}, and the {@link Statement},
+ * {@link PreparedStatement} and {@link ResultSet} instances created from it, in dynamic proxies.
+ * <p/>
+ * Calls to executeQuery, executeUpdate, execute, executeBatch, next, commit and rollback are timed
+ * into a histogram per call and SQL shape. The shape is the SQL statement with literals replaced by
+ * '?', so all the split queries of a table share one shape. Single calls slower than the configured
+ * threshold are logged with their full SQL.
+ * <p/>
+ * Totals per call are reported as counters in the {@link #COUNTER_GROUP} group, and the histograms
+ * are logged when the connection is closed, or when {@link #log()} is called.
+ */
+public class DBTrace
+  {
+  private static final Log LOG = LogFactory.getLog( DBTrace.class );
+
+  /** The counter group the call totals are reported in */
+  public static final String COUNTER_GROUP = "JDBC Trace";
+
+  /** Field histograms, keyed by call and SQL shape */
+  private final Map<String, Histogram> histograms = new LinkedHashMap<String, Histogram>();
+  /** Field reported, the call totals already sent to a Reporter */
+  private final Map<String, long[]> reported = new HashMap<String, long[]>();
+  /** Field slowNanos */
+  private final long slowNanos;
+
+  /** Holds the number of calls and their durations, in power of two microsecond buckets. */
+  static class Histogram
+    {
+    final String call;
+    final long[] buckets = new long[32];
+    long count;
+    long totalNanos;
+    long maxNanos;
+
+    Histogram( String call )
+      {
+      this.call = call;
+      }
+
+    void add( long nanos )
+      {
+      long micros = nanos / 1000;
+      int bucket = micros == 0 ? 0 : Math.min( 64 - Long.numberOfLeadingZeros( micros ), buckets.length - 1 );
+
+      buckets[ bucket ]++;
+      count++;
+      totalNanos += nanos;
+      maxNanos = Math.max( maxNanos, nanos );
+      }
+
+    /** Returns the upper bound, in microseconds, of the bucket holding the given percentile. */
+    long percentile( double percentile )
+      {
+      long target = (long) Math.ceil( count * percentile );
+      long seen = 0;
+
+      for( int i = 0; i < buckets.length; i++ )
+        {
+        seen += buckets[ i ];
+
+        if( seen >= target )
+          return 1L << i;
+        }
+
+      return 1L << ( buckets.length - 1 );
+      }
+    }
+
+  /**
+   * Wraps the given connection so all calls made through it are traced.
+   *
+   * @param connection  the connection to wrap
+   * @param slowMillis  calls taking longer are logged with their SQL, -1 to disable
+   * @return the traced connection
+   */
+  public static Connection wrap( Connection connection, long slowMillis )
+    {
+    if( getTrace( connection ) != null )
+      return connection;
+
+    DBTrace trace = new DBTrace( slowMillis );
+
+    return (Connection) trace.proxy( Connection.class, connection, null, null );
+    }
+
+  /**
+   * Returns the DBTrace of a connection returned by {@link #wrap(Connection, long)}, or null
+   * if the connection is not traced.
+   *
+   * @param connection the connection
+   * @return the DBTrace or null
+   */
+  public static DBTrace getTrace( Connection connection )
+    {
+    if( connection == null || !Proxy.isProxyClass( connection.getClass() ) )
+      return null;
+
+    InvocationHandler handler = Proxy.getInvocationHandler( connection );
+
+    if( !( handler instanceof TraceHandler ) )
+      return null;
+
+    return ( (TraceHandler) handler ).getTrace();
+    }
+
+  /**
+   * Reports the call totals of the given connection to the reporter and logs its histograms,
+   * if the connection is traced.
+   *
+   * @param connection the connection
+   * @param reporter   the reporter, may be null
+   */
+  public static void report( Connection connection, Reporter reporter )
+    {
+    DBTrace trace = getTrace( connection );
+
+    if( trace == null )
+      return;
+
+    if( reporter != null )
+      trace.report( reporter );
+
+    trace.log();
+    }
+
+  DBTrace( long slowMillis )
+    {
+    this.slowNanos = slowMillis < 0 ? -1 : slowMillis * 1000000L;
+    }
+
+  /**
+   * Increments the call counters of the given reporter by the calls made since the last report.
+   *
+   * @param reporter the reporter
+   */
+  public synchronized void report( Reporter reporter )
+    {
+    Map<String, long[]> totals = new LinkedHashMap<String, long[]>();
+
+    for( Histogram histogram : histograms.values() )
+      {
+      long[] total = totals.get( histogram.call );
+
+      if( total == null )
+        totals.put( histogram.call, total = new long[2] );
+
+      total[ 0 ] += histogram.count;
+      total[ 1 ] += histogram.totalNanos;
+      }
+
+    for( Map.Entry<String, long[]> entry : totals.entrySet() )
+      {
+      long[] previous = reported.get( entry.getKey() );
+
+      if( previous == null )
+        previous = new long[2];
+
+      long[] total = entry.getValue();
+
+      reporter.incrCounter( COUNTER_GROUP, entry.getKey() + " calls", total[ 0 ] - previous[ 0 ] );
+      reporter.incrCounter( COUNTER_GROUP, entry.getKey() + " millis", total[ 1 ] / 1000000L - previous[ 1 ] / 1000000L );
+
+      reported.put( entry.getKey(), total );
+      }
+    }
+
+  /** Logs a summary line for each call and SQL shape. */
+  public synchronized void log()
+    {
+    if( histograms.isEmpty() )
+      return;
+
+    StringBuilder builder = new StringBuilder( "jdbc call summary:" );
+
+    for( Map.Entry<String, Histogram> entry : histograms.entrySet() )
+      {
+      Histogram histogram = entry.getValue();
+
+      builder.append( "\n  " ).append( entry.getKey() );
+      builder.append( " count=" ).append( histogram.count );
+      builder.append( " total_ms=" ).append( histogram.totalNanos / 1000000L );
+      builder.append( " max_ms=" ).append( histogram.maxNanos / 1000000L );
+      builder.append( " p50_us<=" ).append( histogram.percentile( 0.50 ) );
+      builder.append( " p99_us<=" ).append( histogram.percentile( 0.99 ) );
+      }
+
+    LOG.info( builder.toString() );
+    }
+
+  /**
+   * Records a call, the key being the call followed by the shape of its SQL, computed once by the caller
+   * so no regular expressions run per call.
+   */
+  synchronized void record( String call, String key, String sql, long nanos )
+    {
+    Histogram histogram = histograms.get( key );
+
+    if( histogram == null )
+      histograms.put( key, histogram = new Histogram( call ) );
+
+    histogram.add( nanos );
+
+    if( slowNanos != -1 && nanos >= slowNanos )
+      LOG.warn( "slow jdbc call: " + call + ", millis: " + nanos / 1000000L + ( sql == null ? "" : ", sql: " + sql ) );
+    }
+
+  /**
+   * Returns the given SQL statement with its string and numeric literals replaced by '?'.
+   *
+   * @param sql the SQL statement
+   * @return the shape of the statement
+   */
+  static String getShape( String sql )
+    {
+    String shape = sql.replaceAll( "'([^']|'')*'", "?" );
+
+    shape = shape.replaceAll( "\\b\\d+(\\.\\d+)?\\b", "?" );
+    shape = shape.replaceAll( "\\s+", " " ).trim();
+
+    if( shape.length() > 200 )
+      shape = shape.substring( 0, 200 ) + "...";
+
+    return shape;
+    }
+
+  private Object proxy( Class type, Object target, String sql, String shape )
+    {
+    return Proxy.newProxyInstance( type.getClassLoader(), new Class[]{type}, new TraceHandler( target, sql, shape ) );
+    }
+
+  /** Times the calls made on a JDBC object, and wraps the JDBC objects it returns. */
+  private class TraceHandler implements InvocationHandler
+    {
+    private final Object target;
+    private String sql;
+    private String shape;
+    /** the last call made and its key, as one array so threads always see a matching pair */
+    private volatile String[] lastKey;
+
+    TraceHandler( Object target, String sql, String shape )
+      {
+      this.target = target;
+      this.sql = sql;
+      this.shape = shape == null && sql != null ? getShape( sql ) : shape;
+      }
+
+    DBTrace getTrace()
+      {
+      return DBTrace.this;
+      }
+
+    public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable
+      {
+      String name = method.getName();
+
+      if( name.equals( "equals" ) && args != null && args.length == 1 )
+        return proxy == args[ 0 ];
+
+      if( name.equals( "hashCode" ) && args == null )
+        return System.identityHashCode( proxy );
+
+      String callSql = sql;
+      String callShape = shape;
+
+      if( args != null && args.length > 0 && args[ 0 ] instanceof String && target instanceof Statement && !( target instanceof PreparedStatement ) )
+        {
+        callSql = (String) args[ 0 ];
+        callShape = getShape( callSql );
+
+        if( name.equals( "addBatch" ) )
+          {
+          sql = callSql;
+          shape = callShape;
+          lastKey = null;
+          }
+        }
+
+      boolean timed = isTimed( name );
+      long start = timed ? System.nanoTime() : 0;
+      Object result;
+
+      try
+        {
+        result = method.invoke( target, args );
+        }
+      catch( InvocationTargetException exception )
+        {
+        throw exception.getCause();
+        }
+      finally
+        {
+        if( timed )
+          record( name, getKey( name, callShape ), target instanceof Connection ? null : callSql, System.nanoTime() - start );
+        }
+
+      if( result instanceof PreparedStatement && name.equals( "prepareStatement" ) )
+        return proxy( PreparedStatement.class, result, (String) args[ 0 ], null );
+
+      if( result instanceof Statement && name.equals( "createStatement" ) )
+        return proxy( Statement.class, result, null, null );
+
+      if( result instanceof ResultSet && ( name.equals( "executeQuery" ) || name.equals( "getResultSet" ) ) )
+        return proxy( ResultSet.class, result, callSql, callShape );
+
+      if( target instanceof Connection && name.equals( "close" ) )
+        log();
+
+      return result;
+      }
+
+    private String getKey( String call, String callShape )
+      {
+      if( target instanceof Connection || callShape == null )
+        return call;
+
+      if( callShape != shape )
+        return call + " " + callShape;
+
+      String[] last = lastKey;
+
+      if( last != null && last[ 0 ].equals( call ) )
+        return last[ 1 ];
+
+      last = new String[]{call, call + " " + shape};
+      lastKey = last;
+
+      return last[ 1 ];
+      }
+
+    private boolean isTimed( String name )
+      {
+      if( target instanceof ResultSet )
+        return name.equals( "next" );
+
+      if( target instanceof Statement )
+        return name.startsWith( "execute" );
+
+      return name.equals( "commit" ) || name.equals( "rollback" );
+      }
+    }
+  }
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+/**
+ * A {@link DBWritable} whose values can be read back by position, in the same order
+ * they are bound to the statement by {@link #write(java.sql.PreparedStatement)}.
+ * <p/>
+ * Some features of {@link DBOutputFormat}, like sorting the rows before they are written,
+ * require the key to implement this interface.
+ */
+public interface IndexedDBWritable extends DBWritable
+  {
+  /** @return the number of values held */
+  int size();
+
+  /**
+   * @param index the position of the value, starting at 0
+   * @return the value at the given position
+   */
+  Object getValue( int index );
+  }
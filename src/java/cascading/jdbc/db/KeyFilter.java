@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Holds the set of keys known to exist in a table, either exactly, or as a Bloom filter
+ * when there are too many keys to hold in memory.
+ * <p/>
+ * Keys are compared by an encoding of each value tagged with its kind, so a null never
+ * matches a String, and numbers match by numeric value regardless of their Java type, so
+ * {@code 1}, {@code 1L} and {@code 1.0} are the same key. Dates match by their time in
+ * milliseconds, and any sub-millisecond nanoseconds of a Timestamp. A String never matches
+ * a number, so values written should first be converted with {@link #coerce(Object[])} to the
+ * kind of the column values read by the driver, given by {@link #setColumnTypes(int[])}.
+ */
+public class KeyFilter
+  {
+  /** Field NULL, the tag of a null value */
+  private static final char NULL = 'N';
+  /** Field STRING, the tag of a String value */
+  private static final char STRING = 'S';
+  /** Field NUMBER, the tag of a numeric value */
+  private static final char NUMBER = '#';
+  /** Field DATE, the tag of a Date value */
+  private static final char DATE = 'D';
+  /** Field OTHER, the tag of any other value, followed by its class name */
+  private static final char OTHER = 'O';
+
+  /** Field keys, null if a Bloom filter is used */
+  private Set<String> keys;
+  /** Field bits */
+  private BitSet bits;
+  /** Field numBits */
+  private int numBits;
+  /** Field numHashes */
+  private int numHashes;
+  /** Field columnTypes, the {@link Types} of each key column, null if unknown */
+  private int[] columnTypes;
+
+  /** Creates an exact KeyFilter. */
+  public KeyFilter()
+    {
+    keys = new HashSet<String>();
+    }
+
+  /**
+   * Creates a Bloom filter KeyFilter, sized for the given number of keys at roughly a one
+   * percent false positive rate.
+   *
+   * @param expectedKeys the number of keys expected to be added
+   */
+  public KeyFilter( long expectedKeys )
+    {
+    numBits = (int) Math.min( Integer.MAX_VALUE - 1, Math.max( 64, expectedKeys * 10 ) );
+    numHashes = 7;
+    bits = new BitSet( numBits );
+    }
+
+  /** @return true if {@link #mightContain(Object[])} never returns false positives */
+  public boolean isExact()
+    {
+    return keys != null;
+    }
+
+  /** @param columnTypes the {@link Types} of each key column, as read by the driver */
+  public void setColumnTypes( int[] columnTypes )
+    {
+    this.columnTypes = columnTypes;
+    }
+
+  /**
+   * Converts the given key values to the kind of the key column values read by the driver, for example
+   * the String {@code "1"} parsed from a text file to a number for an INTEGER column. Values that do
+   * not convert are returned as is.
+   *
+   * @param values the key column values to convert
+   * @return the converted values
+   */
+  public Object[] coerce( Object[] values )
+    {
+    if( columnTypes == null )
+      return values;
+
+    Object[] result = new Object[values.length];
+
+    for( int i = 0; i < values.length; i++ )
+      result[ i ] = coerce( values[ i ], columnTypes[ i ] );
+
+    return result;
+    }
+
+  private static Object coerce( Object value, int sqlType )
+    {
+    if( value == null )
+      return null;
+
+    try
+      {
+      switch( sqlType )
+        {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+        case Types.BIGINT:
+        case Types.REAL:
+        case Types.FLOAT:
+        case Types.DOUBLE:
+        case Types.NUMERIC:
+        case Types.DECIMAL:
+          return value instanceof String ? new BigDecimal( ( (String) value ).trim() ) : value;
+
+        case Types.CHAR:
+        case Types.VARCHAR:
+        case Types.LONGVARCHAR:
+          return value instanceof Number ? value.toString() : value;
+
+        case Types.DATE:
+          if( value instanceof String )
+            return java.sql.Date.valueOf( ( (String) value ).trim() );
+
+          return value instanceof Number ? new java.sql.Date( ( (Number) value ).longValue() ) : value;
+
+        case Types.TIME:
+          if( value instanceof String )
+            return Time.valueOf( ( (String) value ).trim() );
+
+          return value instanceof Number ? new Time( ( (Number) value ).longValue() ) : value;
+
+        case Types.TIMESTAMP:
+          if( value instanceof String )
+            return Timestamp.valueOf( ( (String) value ).trim() );
+
+          return value instanceof Number ? new Timestamp( ( (Number) value ).longValue() ) : value;
+
+        default:
+          return value;
+        }
+      }
+    catch( IllegalArgumentException exception )
+      {
+      // includes NumberFormatException, the value is compared as is and will not match
+      return value;
+      }
+    }
+
+  /** @param values the key column values to add */
+  public void add( Object[] values )
+    {
+    String key = toKey( values );
+
+    if( keys != null )
+      {
+      keys.add( key );
+      return;
+      }
+
+    int hash1 = key.hashCode();
+    int hash2 = hash( hash1 );
+
+    for( int i = 0; i < numHashes; i++ )
+      bits.set( index( hash1, hash2, i ) );
+    }
+
+  /**
+   * @param values the key column values to test
+   * @return false if the key was never added, true if it was, or may have been if not exact
+   */
+  public boolean mightContain( Object[] values )
+    {
+    String key = toKey( values );
+
+    if( keys != null )
+      return keys.contains( key );
+
+    int hash1 = key.hashCode();
+    int hash2 = hash( hash1 );
+
+    for( int i = 0; i < numHashes; i++ )
+      {
+      if( !bits.get( index( hash1, hash2, i ) ) )
+        return false;
+      }
+
+    return true;
+    }
+
+  private int index( int hash1, int hash2, int i )
+    {
+    return ( ( hash1 + i * hash2 ) & Integer.MAX_VALUE ) % numBits;
+    }
+
+  private static int hash( int value )
+    {
+    value ^= ( value >>> 16 );
+    value *= 0x85ebca6b;
+    value ^= ( value >>> 13 );
+    value *= 0xc2b2ae35;
+    value ^= ( value >>> 16 );
+
+    return value;
+    }
+
+  private static String toKey( Object[] values )
+    {
+    StringBuilder builder = new StringBuilder();
+
+    for( Object value : values )
+      appendValue( builder, value );
+
+    return builder.toString();
+    }
+
+  /** Appends the tag and length prefixed text of the given value, so concatenated values never collide. */
+  private static void appendValue( StringBuilder builder, Object value )
+    {
+    if( value == null )
+      {
+      builder.append( NULL );
+      return;
+      }
+
+    char tag;
+    String text;
+    BigDecimal decimal = value instanceof Number ? toDecimal( (Number) value ) : null;
+
+    if( value instanceof String )
+      {
+      tag = STRING;
+      text = (String) value;
+      }
+    else if( decimal != null )
+      {
+      tag = NUMBER;
+      // stripTrailingZeros does not strip zero
+      text = decimal.signum() == 0 ? "0" : decimal.stripTrailingZeros().toPlainString();
+      }
+    else if( value instanceof Date )
+      {
+      tag = DATE;
+      text = Long.toString( ( (Date) value ).getTime() );
+
+      if( value instanceof Timestamp && ( (Timestamp) value ).getNanos() % 1000000 != 0 )
+        text += "." + ( (Timestamp) value ).getNanos() % 1000000;
+      }
+    else
+      {
+      tag = OTHER;
+      text = value.getClass().getName() + ":" + value;
+      }
+
+    builder.append( tag ).append( text.length() ).append( ':' ).append( text );
+    }
+
+  /** Returns the exact value of the given number, or null if it has none, like NaN or an unknown Number type. */
+  private static BigDecimal toDecimal( Number value )
+    {
+    if( value instanceof BigDecimal )
+      return (BigDecimal) value;
+
+    if( value instanceof BigInteger )
+      return new BigDecimal( (BigInteger) value );
+
+    if( value instanceof Double || value instanceof Float )
+      {
+      double doubleValue = value.doubleValue();
+
+      if( Double.isNaN( doubleValue ) || Double.isInfinite( doubleValue ) )
+        return null;
+
+      // the shortest decimal form, so 0.1f matches 0.1
+      return new BigDecimal( value.toString() );
+      }
+
+    if( value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte )
+      return BigDecimal.valueOf( value.longValue() );
+
+    return null;
+    }
+  }
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.Closeable;
+import java.util.List;
+
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * A {@link DBWritable} that may bind streams to the statement in {@link #write(java.sql.PreparedStatement)},
+ * for example to write large objects without holding them in memory.
+ * <p/>
+ * Drivers may read a bound stream as late as when the batch is executed, so {@link DBOutputFormat}
+ * takes the streams after each write, and closes them once the batch holding them has been executed.
+ */
+public interface StreamingDBWritable extends DBWritable
+  {
+  /**
+   * Returns the streams bound by the last call to write, and forgets them.
+   *
+   * @return the open streams, never null
+   */
+  List<Closeable> takeStreams();
+
+  /**
+   * Sets the job configuration the streams bound by the next call to write are opened with, called before
+   * each write.
+   *
+   * @param job the job configuration of the writer
+   */
+  void configureStreams( JobConf job );
+  }
@@ -12,21 +12,58 @@
 
 package cascading.jdbc;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import cascading.ClusterTestCase;
 import cascading.flow.Flow;
 import cascading.flow.FlowConnector;
+import cascading.flow.FlowException;
+import cascading.jdbc.db.DBConfiguration;
+import cascading.jdbc.db.DBInputFormat;
+import cascading.jdbc.db.DBOutputFormat;
+import cascading.jdbc.db.KeyFilter;
 import cascading.operation.Identity;
+import cascading.operation.aggregator.Average;
+import cascading.operation.aggregator.Count;
+import cascading.operation.aggregator.Sum;
 import cascading.operation.regex.RegexSplitter;
 import cascading.pipe.Each;
+import cascading.pipe.Every;
+import cascading.pipe.GroupBy;
 import cascading.pipe.Pipe;
 import cascading.scheme.TextLine;
 import cascading.tap.Lfs;
 import cascading.tap.SinkMode;
 import cascading.tap.Tap;
+import cascading.tap.TapException;
 import cascading.tuple.Fields;
 import cascading.tuple.TupleEntryIterator;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
 import org.hsqldb.Server;
 
 /**
@@ -35,6 +72,11 @@ import org.hsqldb.Server;
 public class JDBCTest extends ClusterTestCase
   {
   String inputFile = "src/test/data/small.txt";
+  String url = "jdbc:hsqldb:hsql://localhost/testing";
+  String driver = "org.hsqldb.jdbcDriver";
+  String[] columnNames = {"num", "lower", "upper"};
+  String[] columnDefs = {"VARCHAR(100) NOT NULL", "VARCHAR(100) NOT NULL", "VARCHAR(100) NOT NULL"};
+  String[] primaryKeys = {"num", "lower"};
   private Server server;
 
   public JDBCTest()
@@ -188,6 +230,906 @@ public class JDBCTest extends ClusterTestCase
     verifySink( readFlow, 13 );
     }
 
+  public void testJDBCPartitioned() throws IOException
+    {
+    Tap source = new Lfs( new TextLine(), inputFile );
+
+    Pipe parsePipe = new Each( "insert", new Fields( "line" ), new RegexSplitter( new Fields( "num", "lower", "upper" ), "\\s" ) );
+
+    String url = "jdbc:hsqldb:hsql://localhost/testing";
+    String driver = "org.hsqldb.jdbcDriver";
+    String[] columnNames = {"num", "lower", "upper"};
+    String[] columnDefs = {"VARCHAR(100) NOT NULL", "VARCHAR(100) NOT NULL", "VARCHAR(100) NOT NULL"};
+    String[] primaryKeys = {"num", "lower"};
+
+    // CREATE ONE TABLE PER DAY
+
+    for( String day : new String[]{"20090101", "20090102", "20090103"} )
+      {
+      TableDesc tableDesc = new TableDesc( "testingpart_" + day, columnNames, columnDefs, primaryKeys );
+      Tap replaceTap = new JDBCTap( url, driver, tableDesc, new JDBCScheme( columnNames ), SinkMode.REPLACE );
+
+      Flow parseFlow = new FlowConnector( getProperties() ).connect( source, replaceTap, parsePipe );
+
+      parseFlow.complete();
+
+      verifySink( parseFlow, 13 );
+      }
+
+    // READ THE LAST TWO DAYS AS A SINGLE SOURCE
+
+    PartitionedJDBCTap partitionedTap = new PartitionedJDBCTap( url, driver, "TESTINGPART_%", new JDBCScheme( columnNames ) );
+    partitionedTap.setPartitionRange( "testingpart_20090102", "testingpart_20090103" );
+
+    Tap sink = new Lfs( new TextLine(), "build/test/jdbcpartitioned", SinkMode.REPLACE );
+
+    Pipe copyPipe = new Each( "read", new Identity() );
+
+    Flow copyFlow = new FlowConnector( getProperties() ).connect( partitionedTap, sink, copyPipe );
+
+    copyFlow.complete();
+
+    verifySink( copyFlow, 26 );
+    }
+
+  public void testJDBCDynamic() throws IOException
+    {
+    Tap source = new Lfs( new TextLine(), inputFile );
+
+    Pipe parsePipe = new Each( "insert", new Fields( "line" ), new RegexSplitter( new Fields( "num", "lower", "upper" ), "\\s" ) );
+
+    String url = "jdbc:hsqldb:hsql://localhost/testing";
+    String driver = "org.hsqldb.jdbcDriver";
+    String[] columnNames = {"num", "lower", "upper"};
+    String[] columnDefs = {"VARCHAR(100) NOT NULL", "VARCHAR(100) NOT NULL", "VARCHAR(100) NOT NULL"};
+    String[] primaryKeys = {"num", "lower"};
+    TableDesc tableDesc = new TableDesc( "testingdynamic", columnNames, columnDefs, primaryKeys );
+    Tap replaceTap = new JDBCTap( url, driver, tableDesc, new JDBCScheme( columnNames, new String[]{"num", "lower"} ), SinkMode.REPLACE );
+
+    Flow parseFlow = new FlowConnector( getProperties() ).connect( source, replaceTap, parsePipe );
+
+    parseFlow.complete();
+
+    verifySink( parseFlow, 13 );
+
+    // READ THE ROWS AS CHUNKS CLAIMED BY TWO READERS
+
+    JDBCTap dynamicTap = new JDBCTap( url, driver, tableDesc, new JDBCScheme( columnNames, new String[]{"num", "lower"} ) );
+    dynamicTap.setConcurrentReads( 2 );
+    dynamicTap.setDynamicChunks( 5 );
+
+    Tap sink = new Lfs( new TextLine(), "build/test/jdbcdynamic", SinkMode.REPLACE );
+
+    Flow copyFlow = new FlowConnector( getProperties() ).connect( dynamicTap, sink, new Each( "read", new Identity() ) );
+
+    copyFlow.complete();
+
+    verifySink( copyFlow, 13 );
+    }
+
+  public void testJDBCDynamicSnapshot() throws IOException
+    {
+    TableDesc tableDesc = new TableDesc( "testingsnapshot", columnNames, columnDefs, primaryKeys );
+    loadTable( tableDesc, new JDBCScheme( columnNames ) );
+
+    // READ CHUNKS CLAIMED BY TWO READERS FROM A SHARED SNAPSHOT
+
+    JDBCScheme scheme = new JDBCScheme( SnapshotInputFormat.class, DBOutputFormat.class, columnNames, null, null, null );
+    JDBCTap snapshotTap = new JDBCTap( url, driver, tableDesc, scheme );
+    snapshotTap.setConcurrentReads( 2 );
+    snapshotTap.setDynamicChunks( 5 );
+    snapshotTap.setSnapshot( true );
+
+    Tap sink = new Lfs( new TextLine(), "build/test/jdbcsnapshot", SinkMode.REPLACE );
+
+    Flow copyFlow = new FlowConnector( getProperties() ).connect( snapshotTap, sink, new Each( "read", new Identity() ) );
+
+    copyFlow.addListener( new JDBCFlowListener() );
+
+    copyFlow.complete();
+
+    verifySink( copyFlow, 13 );
+    }
+
+  public void testJDBCFirstQueryTimeout() throws IOException
+    {
+    TableDesc tableDesc = new TableDesc( "testingtimeout", columnNames, columnDefs, primaryKeys );
+    loadTable( tableDesc, new JDBCScheme( columnNames ) );
+
+    // THE FIRST QUERY STALLS PAST THE FETCH TIMEOUT, THE ROWS ARE READ AS SMALLER RANGES
+
+    Map<Object, Object> properties = new HashMap<Object, Object>( getProperties() );
+    properties.put( DBConfiguration.INPUT_FETCH_TIMEOUT_PROPERTY, "100" );
+    properties.put( DBConfiguration.INPUT_TIMEOUT_SPLITS_PROPERTY, "2" );
+
+    JDBCScheme scheme = new JDBCScheme( StallingInputFormat.class, DBOutputFormat.class, columnNames, null, null, null );
+    JDBCTap timeoutTap = new JDBCTap( url, driver, tableDesc, scheme );
+
+    Tap sink = new Lfs( new TextLine(), "build/test/jdbctimeout", SinkMode.REPLACE );
+
+    Flow copyFlow = new FlowConnector( properties ).connect( timeoutTap, sink, new Each( "read", new Identity() ) );
+
+    StallingInputFormat.stall.set( true );
+
+    copyFlow.complete();
+
+    verifySink( copyFlow, 13 );
+    }
+
+  public void testJDBCPrefetch() throws IOException
+    {
+    TableDesc tableDesc = new TableDesc( "testingprefetch", columnNames, columnDefs, primaryKeys );
+    loadTable( tableDesc, new JDBCScheme( columnNames ) );
+
+    // READ THE ROWS AHEAD ON A BACKGROUND THREAD
+
+    JDBCTap prefetchTap = new JDBCTap( url, driver, tableDesc, new JDBCScheme( columnNames, new String[]{"num", "lower"} ) );
+    prefetchTap.setPrefetch( 4 );
+
+    Tap sink = new Lfs( new TextLine(), "build/test/jdbcprefetch", SinkMode.REPLACE );
+
+    Flow copyFlow = new FlowConnector( getProperties() ).connect( prefetchTap, sink, new Each( "read", new Identity() ) );
+
+    copyFlow.complete();
+
+    verifySink( copyFlow, 13 );
+
+    // PREFETCHING DOES NOT STREAM LARGE OBJECTS
+
+    JDBCScheme lobScheme = new JDBCScheme( columnNames );
+    lobScheme.setLobPath( "build/test/jdbcprefetchlobs" );
+
+    JDBCTap lobTap = new JDBCTap( url, driver, tableDesc, lobScheme );
+    lobTap.setPrefetch( 4 );
+
+    try
+      {
+      lobTap.sourceInit( new JobConf() );
+      fail( "prefetched large objects" );
+      }
+    catch( TapException exception )
+      {
+      // expected
+      }
+    }
+
+  public void testJDBCUpdateAuto() throws IOException
+    {
+    Tap source = new Lfs( new TextLine(), inputFile );
+
+    Pipe parsePipe = new Each( "insert", new Fields( "line" ), new RegexSplitter( new Fields( "num", "lower", "upper" ), "\\s" ) );
+
+    String url = "jdbc:hsqldb:hsql://localhost/testing";
+    String driver = "org.hsqldb.jdbcDriver";
+    String tableName = "testingtableauto";
+    String[] columnNames = {"num", "lower", "upper"};
+    String[] columnDefs = {"VARCHAR(100) NOT NULL", "VARCHAR(100) NOT NULL", "VARCHAR(100) NOT NULL"};
+    String[] primaryKeys = {"num", "lower"};
+    TableDesc tableDesc = new TableDesc( tableName, columnNames, columnDefs, primaryKeys );
+
+    // INSERT INTO AN EMPTY TABLE, THEN UPDATE THE SAME ROWS
+
+    for( int i = 0; i < 2; i++ )
+      {
+      JDBCScheme jdbcScheme = new JDBCScheme( columnNames, null, new String[]{"num", "lower"} );
+      jdbcScheme.setUpdateAuto( true );
+
+      Tap tap = new JDBCTap( url, driver, tableDesc, jdbcScheme, i == 0 ? SinkMode.REPLACE : SinkMode.APPEND );
+
+      Flow flow = new FlowConnector( getProperties() ).connect( source, tap, parsePipe );
+
+      flow.complete();
+
+      verifySink( flow, 13 );
+      }
+    }
+
+  public void testJDBCUpdateAutoTyped() throws IOException
+    {
+    // THE NUM KEY VALUES ARE PARSED AS STRINGS, AND READ BACK FROM THE TABLE AS INTEGERS
+
+    Tap source = new Lfs( new TextLine(), inputFile );
+
+    Pipe parsePipe = new Each( "insert", new Fields( "line" ), new RegexSplitter( new Fields( "num", "lower", "upper" ), "\\s" ) );
+
+    String[] typedDefs = {"INTEGER NOT NULL", "VARCHAR(100) NOT NULL", "VARCHAR(100) NOT NULL"};
+    TableDesc tableDesc = new TableDesc( "testingtableautotyped", columnNames, typedDefs, primaryKeys );
+
+    for( int i = 0; i < 2; i++ )
+      {
+      JDBCScheme jdbcScheme = new JDBCScheme( columnNames, null, new String[]{"num", "lower"} );
+      jdbcScheme.setUpdateAuto( true );
+
+      Tap tap = new JDBCTap( url, driver, tableDesc, jdbcScheme, i == 0 ? SinkMode.REPLACE : SinkMode.APPEND );
+
+      Flow flow = new FlowConnector( getProperties() ).connect( source, tap, parsePipe );
+
+      flow.complete();
+
+      verifySink( flow, 13 );
+      }
+    }
+
+  public void testJDBCCache() throws IOException
+    {
+    // THE ROWS ARE COUNTED FROM A COPY, SO THE CACHED TABLE CAN BE DROPPED
+
+    loadTable( new TableDesc( "testingcache", columnNames, columnDefs, primaryKeys ), new JDBCScheme( columnNames ) );
+    loadTable( new TableDesc( "testingcachecount", columnNames, columnDefs, primaryKeys ), new JDBCScheme( columnNames ) );
+
+    String cacheDir = "build/test/jdbccache/" + System.currentTimeMillis();
+
+    Flow fillFlow = readCached( cacheDir, -1, 0 );
+
+    fillFlow.complete();
+
+    verifySink( fillFlow, 13 );
+
+    new JDBCTap( url, driver, new JDBCScheme( columnNames ) ).executeUpdate( "DROP TABLE testingcache" );
+
+    // REPLAYED WITHIN THE TIME TO LIVE
+
+    Flow replayFlow = readCached( cacheDir, -1, 0 );
+
+    replayFlow.complete();
+
+    verifySink( replayFlow, 13 );
+
+    // NOT REPLAYED INTO RECORDS DECODING ROWS DIFFERENTLY, OR ONCE EXPIRED
+
+    for( Flow flow : new Flow[]{readCached( cacheDir, -1, 16 ), readCached( cacheDir, 1, 0 )} )
+      {
+      try
+        {
+        flow.complete();
+        fail( "rows replayed" );
+        }
+      catch( FlowException exception )
+        {
+        // expected, the table was dropped
+        }
+      }
+    }
+
+  private Flow readCached( String cacheDir, long timeToLive, int dictionarySize ) throws IOException
+    {
+    JDBCScheme scheme = new JDBCScheme( columnNames, "select num, lower, upper from testingcache", "select count(*) from testingcachecount" );
+
+    scheme.setDictionarySize( dictionarySize );
+
+    JDBCTap tap = new JDBCTap( url, driver, scheme );
+
+    tap.setCache( cacheDir, timeToLive, null );
+
+    Tap sink = new Lfs( new TextLine(), "build/test/jdbccache-read", SinkMode.REPLACE );
+
+    return new FlowConnector( getProperties() ).connect( tap, sink, new Each( "read", new Identity() ) );
+    }
+
+  public void testJDBCCodecs() throws IOException
+    {
+    String[] codecNames = {"id", "ts", "price"};
+    String[] codecDefs = {"VARCHAR(10) NOT NULL", "TIMESTAMP", "DECIMAL(30,2)"};
+    String[] longDefs = {"VARCHAR(10) NOT NULL", "BIGINT", "BIGINT"};
+    String[] codecKeys = {"id"};
+    CodecRegistry codecs = new CodecRegistry()
+      .register( Types.TIMESTAMP, new CodecRegistry.EpochMillisCodec( Types.TIMESTAMP ) )
+      .register( "price", new CodecRegistry.ScaledLongCodec( 2 ) );
+
+    JDBCScheme sourceScheme = new JDBCScheme( codecNames );
+    sourceScheme.setCodecRegistry( codecs );
+
+    JDBCTap sourceTap = createTable( new TableDesc( "testingcodec", codecNames, codecDefs, codecKeys ), sourceScheme );
+
+    sourceTap.executeUpdate( "INSERT INTO testingcodec VALUES ('1', '2009-01-02 03:04:05.678', 12.34)" );
+    sourceTap.executeUpdate( "INSERT INTO testingcodec VALUES ('2', '1970-01-01 00:00:00.0', -0.01)" );
+    sourceTap.executeUpdate( "INSERT INTO testingcodec VALUES ('3', NULL, NULL)" );
+
+    // DECODED INTO EPOCH MILLIS AND CENTS, WRITTEN AS IS
+
+    JDBCTap longTap = new JDBCTap( url, driver, new TableDesc( "testingcodeclong", codecNames, longDefs, codecKeys ), new JDBCScheme( codecNames ), SinkMode.REPLACE );
+
+    Flow decodeFlow = new FlowConnector( getProperties() ).connect( sourceTap, longTap, new Each( "decode", new Identity() ) );
+
+    decodeFlow.complete();
+
+    List<Object[]> rows = longTap.executeQuery( "select ts, price from testingcodeclong where id = '1'", -1 );
+
+    assertEquals( "wrong epoch millis", Timestamp.valueOf( "2009-01-02 03:04:05.678" ).getTime(), ( (Number) rows.get( 0 )[ 0 ] ).longValue() );
+    assertEquals( "wrong cents", 1234L, ( (Number) rows.get( 0 )[ 1 ] ).longValue() );
+
+    // ENCODED BACK BY INSERT, THEN BY UPDATE, RESOLVING THE CODECS OF EACH STATEMENT
+
+    for( int i = 0; i < 2; i++ )
+      {
+      JDBCScheme copyScheme = new JDBCScheme( codecNames, null, i == 0 ? null : codecKeys );
+      copyScheme.setCodecRegistry( codecs );
+
+      JDBCTap copyTap = new JDBCTap( url, driver, new TableDesc( "testingcodeccopy", codecNames, codecDefs, codecKeys ), copyScheme, i == 0 ? SinkMode.REPLACE : SinkMode.APPEND );
+
+      Flow encodeFlow = new FlowConnector( getProperties() ).connect( longTap, copyTap, new Each( "encode", new Identity() ) );
+
+      encodeFlow.complete();
+
+      List<Object[]> expected = copyTap.executeQuery( "select id, ts, price from testingcodec order by id", -1 );
+      List<Object[]> actual = copyTap.executeQuery( "select id, ts, price from testingcodeccopy order by id", -1 );
+
+      assertEquals( "wrong number of rows", expected.size(), actual.size() );
+
+      for( int j = 0; j < expected.size(); j++ )
+        assertTrue( "rows differ: " + Arrays.toString( actual.get( j ) ), Arrays.equals( expected.get( j ), actual.get( j ) ) );
+      }
+
+    // A SCALED VALUE OVERFLOWING A LONG FAILS THE READ
+
+    JDBCTap overflowTap = createTable( new TableDesc( "testingcodecoverflow", codecNames, codecDefs, codecKeys ), sourceScheme );
+
+    overflowTap.executeUpdate( "INSERT INTO testingcodecoverflow VALUES ('1', NULL, 100000000000000000000.00)" );
+
+    Tap sink = new Lfs( new TextLine(), "build/test/jdbccodecoverflow", SinkMode.REPLACE );
+
+    Flow overflowFlow = new FlowConnector( getProperties() ).connect( overflowTap, sink, new Each( "read", new Identity() ) );
+
+    try
+      {
+      overflowFlow.complete();
+      fail( "overflowing value read" );
+      }
+    catch( FlowException exception )
+      {
+      // expected
+      }
+    }
+
+  private JDBCTap createTable( TableDesc tableDesc, JDBCScheme scheme )
+    {
+    JDBCTap tap = new JDBCTap( url, driver, tableDesc, scheme );
+
+    tap.executeUpdate( "DROP TABLE " + tableDesc.getTableName() + " IF EXISTS" );
+    tap.executeUpdate( tableDesc.getCreateTableStatement() );
+
+    return tap;
+    }
+
+  public void testJDBCColumnBatch() throws IOException, SQLException
+    {
+    String[] batchDefs = {"INTEGER NOT NULL", "VARCHAR(100) NOT NULL", "VARCHAR(100)"};
+    TableDesc tableDesc = new TableDesc( "testingbatch", columnNames, batchDefs, primaryKeys );
+    JDBCTap tap = loadTable( tableDesc, new JDBCScheme( columnNames ) );
+
+    tap.executeUpdate( "UPDATE testingbatch SET upper = NULL WHERE num = 5" );
+
+    // READ AS COLUMNS, NULLS AS BITS AND STRINGS AS DICTIONARY CODES
+
+    Connection connection = tap.createConnection();
+    Statement statement = connection.createStatement();
+    ResultSet resultSet = statement.executeQuery( "select num, lower, upper from testingbatch order by num, lower" );
+    ColumnBatch batch = new ColumnBatch();
+
+    while( resultSet.next() )
+      batch.readFields( resultSet );
+
+    resultSet.close();
+
+    assertEquals( "wrong number of rows", 13, batch.getRows() );
+    assertEquals( "wrong number", 5, batch.getLong( 12, 0 ) );
+    assertEquals( "wrong number of distinct values", 5, batch.getDictionary( 1 ).size() );
+    assertEquals( "codes differ", batch.getCode( 0, 1 ), batch.getCode( 10, 1 ) );
+    assertEquals( "wrong value", "a", batch.getString( 10, 1 ) );
+    assertTrue( "not null", batch.isNull( 12, 2 ) );
+    assertFalse( "null", batch.isNull( 9, 2 ) );
+    assertNull( "not null", batch.getTuple( 12, null ).get( 2 ) );
+
+    // THE SAME ROWS AFTER A WRITABLE ROUND TRIP, INTO A BATCH HOLDING OTHER LABELS
+
+    ResultSet aliased = statement.executeQuery( "select num as n, lower as l, upper as u from testingbatch" );
+    ColumnBatch copy = new ColumnBatch();
+
+    aliased.next();
+    copy.readFields( aliased );
+    aliased.close();
+    statement.close();
+    connection.close();
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream( bytes );
+
+    batch.write( output );
+    output.close();
+
+    copy.readFields( new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) );
+
+    assertEquals( "wrong column name", "NUM", copy.getColumnName( 0 ) );
+    assertEquals( "wrong number of rows", 13, copy.getRows() );
+
+    for( int row = 0; row < batch.getRows(); row++ )
+      assertEquals( "rows differ", batch.getTuple( row, null ), copy.getTuple( row, null ) );
+
+    // UNROLLED INTO ROWS, CACHED, AND REPLAYED ONCE THE SOURCE ROWS CHANGED
+
+    String cacheDir = "build/test/jdbcbatchcache/" + System.currentTimeMillis();
+
+    for( String table : new String[]{"testingbatchcopy", "testingbatchreplay"} )
+      {
+      JDBCScheme batchScheme = new JDBCScheme( columnNames );
+      batchScheme.setColumnBatch( new Fields( "batch" ), 4 );
+
+      JDBCTap batchTap = new JDBCTap( url, driver, tableDesc, batchScheme );
+
+      batchTap.setCache( cacheDir, -1, null );
+
+      JDBCTap copyTap = new JDBCTap( url, driver, new TableDesc( table, columnNames, batchDefs, primaryKeys ), new JDBCScheme( columnNames ), SinkMode.REPLACE );
+
+      Pipe pipe = new Each( "unroll", new ColumnBatchRows( new Fields( "num", "lower", "upper" ) ) );
+
+      Flow flow = new FlowConnector( getProperties() ).connect( batchTap, copyTap, pipe );
+
+      flow.complete();
+
+      tap.executeUpdate( "UPDATE testingbatch SET upper = 'changed'" );
+      }
+
+    verifySameRows( tap, "testingbatchcopy", "testingbatchreplay" );
+    assertEquals( "wrong number of nulls", 3, tap.executeQuery( "select * from testingbatchreplay where upper is null", -1 ).size() );
+    }
+
+  public void testJDBCResume() throws IOException
+    {
+    String[] resumeNames = {"id", "val"};
+    TableDesc tableDesc = new TableDesc( "testingresume", resumeNames, new String[]{"INTEGER NOT NULL", "VARCHAR(100)"}, new String[]{"id"} );
+    JDBCTap tap = createTable( tableDesc, new JDBCScheme( resumeNames ) );
+
+    for( int i = 1; i <= 13; i++ )
+      tap.executeUpdate( "INSERT INTO testingresume VALUES (" + i + ", 'value " + i + "')" );
+
+    // BY KEY, THEN BY OFFSET, THE CONNECTION CLOSED ONCE, THEN TWICE IN A ROW WITH BACKOFF
+
+    for( String resumeKey : new String[]{"id", null} )
+      {
+      assertEquals( "rows lost or duplicated", 13, readResumed( resumeKey, 3, 5 ).size() );
+      assertEquals( "rows lost or duplicated", 13, readResumed( resumeKey, 3, 5, 6 ).size() );
+      }
+
+    try
+      {
+      readResumed( "id", 1, 5, 6 );
+      fail( "resumed more than the attempts" );
+      }
+    catch( IOException exception )
+      {
+      // expected
+      }
+    }
+
+  /** Reads testingresume with a record closing the connection under the reader at the given reads. */
+  private List<Integer> readResumed( String resumeKey, int maxAttempts, Integer... dropAt ) throws IOException
+    {
+    JobConf job = new JobConf();
+
+    DBConfiguration.configureDB( job, driver, url );
+    DBInputFormat.setInput( job, DroppingRecord.class, "testingresume", null, "id", -1, 1, "id", "val" );
+    DBInputFormat.setInputResume( job, resumeKey, maxAttempts, 10 );
+
+    DroppingRecord.reads.set( 0 );
+    DroppingRecord.dropAt.clear();
+    Collections.addAll( DroppingRecord.dropAt, dropAt );
+
+    DBInputFormat<DroppingRecord> format = new DBInputFormat<DroppingRecord>();
+
+    format.configure( job );
+
+    InputSplit[] splits = format.getSplits( job, 1 );
+    RecordReader<LongWritable, DroppingRecord> reader = format.getRecordReader( splits[ 0 ], job, Reporter.NULL );
+    LongWritable key = reader.createKey();
+    DroppingRecord value = reader.createValue();
+    List<Integer> ids = new ArrayList<Integer>();
+
+    try
+      {
+      while( reader.next( key, value ) )
+        ids.add( ( (Number) value.getTuple().get( 0 ) ).intValue() );
+      }
+    finally
+      {
+      reader.close();
+      }
+
+    for( int i = 0; i < ids.size(); i++ )
+      assertEquals( "wrong row", i + 1, (int) ids.get( i ) );
+
+    return ids;
+    }
+
+  public void testJDBCReuse() throws IOException
+    {
+    // INSERT THE SAME ROWS WITH AND WITHOUT REUSE
+
+    TableDesc defaultDesc = new TableDesc( "testingdefault", columnNames, columnDefs, primaryKeys );
+    loadTable( defaultDesc, new JDBCScheme( columnNames ) );
+
+    JDBCScheme reuseScheme = new JDBCScheme( columnNames );
+    reuseScheme.setReuse( true );
+
+    TableDesc reuseDesc = new TableDesc( "testingreuse", columnNames, columnDefs, primaryKeys );
+    JDBCTap reuseTap = loadTable( reuseDesc, reuseScheme );
+
+    verifySameRows( reuseTap, "testingdefault", "testingreuse" );
+
+    // READ WITH REUSE
+
+    Tap sink = new Lfs( new TextLine(), "build/test/jdbcreuse", SinkMode.REPLACE );
+
+    Flow copyFlow = new FlowConnector( getProperties() ).connect( reuseTap, sink, new Each( "read", new Identity() ) );
+
+    copyFlow.complete();
+
+    verifySink( copyFlow, 13 );
+
+    // UPDATE THE SAME ROWS WITH AND WITHOUT REUSE, SETTING UPPER TO THE LOWER VALUE
+
+    Pipe updatePipe = new Each( "update", new Fields( "line" ), new RegexSplitter( new Fields( "num", "lower", "upper" ), "\\s" ) );
+    updatePipe = new Each( updatePipe, new Fields( "num", "lower" ), new Identity(), Fields.RESULTS );
+    updatePipe = new Each( updatePipe, new Fields( "lower" ), new Identity( new Fields( "upper" ) ), Fields.ALL );
+
+    for( TableDesc tableDesc : new TableDesc[]{defaultDesc, reuseDesc} )
+      {
+      JDBCScheme updateScheme = new JDBCScheme( columnNames, null, new String[]{"num", "lower"} );
+      updateScheme.setReuse( tableDesc == reuseDesc );
+
+      Tap updateTap = new JDBCTap( url, driver, tableDesc, updateScheme, SinkMode.APPEND );
+
+      Flow updateFlow = new FlowConnector( getProperties() ).connect( new Lfs( new TextLine(), inputFile ), updateTap, updatePipe );
+
+      updateFlow.complete();
+
+      verifySink( updateFlow, 13 );
+      }
+
+    verifySameRows( reuseTap, "testingdefault", "testingreuse" );
+
+    assertEquals( "wrong number of updated rows", 13, reuseTap.executeQuery( "select * from testingreuse where upper = lower", -1 ).size() );
+    }
+
+  public void testJDBCLobRoundTrip() throws IOException
+    {
+    String[] lobNames = {"num", "data"};
+    String[] lobDefs = {"VARCHAR(100) NOT NULL", "LONGVARBINARY"};
+
+    JDBCScheme lobScheme = new JDBCScheme( lobNames );
+    lobScheme.setLobPath( "build/test/jdbclobs" );
+    lobScheme.setLobColumns( "data" );
+
+    TableDesc sourceDesc = new TableDesc( "testinglob", lobNames, lobDefs, new String[]{"num"} );
+    JDBCTap sourceTap = new JDBCTap( url, driver, sourceDesc, lobScheme, SinkMode.REPLACE );
+
+    JobConf conf = new JobConf();
+
+    sourceTap.deletePath( conf );
+    sourceTap.makeDirs( conf );
+
+    for( int i = 1; i <= 3; i++ )
+      {
+      StringBuilder data = new StringBuilder();
+
+      for( byte b : ( "large object " + i ).getBytes( "UTF-8" ) )
+        data.append( String.format( "%02x", b ) );
+
+      sourceTap.executeUpdate( "insert into testinglob values ('" + i + "', '" + data + "')" );
+      }
+
+    // STREAM THE VALUES INTO FILES, THEN FROM THE FILES INTO THE COPY
+
+    TableDesc copyDesc = new TableDesc( "testinglobcopy", lobNames, lobDefs, new String[]{"num"} );
+    JDBCTap copyTap = new JDBCTap( url, driver, copyDesc, lobScheme, SinkMode.REPLACE );
+
+    Flow copyFlow = new FlowConnector( getProperties() ).connect( sourceTap, copyTap, new Each( "copy", new Identity() ) );
+
+    copyFlow.complete();
+
+    verifySink( copyFlow, 3 );
+
+    List<Object[]> expected = sourceTap.executeQuery( "select num, data from testinglob order by num", -1 );
+    List<Object[]> actual = copyTap.executeQuery( "select num, data from testinglobcopy order by num", -1 );
+
+    assertEquals( "wrong number of rows", expected.size(), actual.size() );
+
+    for( int i = 0; i < expected.size(); i++ )
+      assertTrue( "values differ", Arrays.equals( (byte[]) expected.get( i )[ 1 ], (byte[]) actual.get( i )[ 1 ] ) );
+    }
+
+  public void testJDBCSortedWrites() throws IOException
+    {
+    TableDesc tableDesc = new TableDesc( "testingsorted", columnNames, columnDefs, primaryKeys );
+
+    // INSERT SORTED, SPILLING RUNS OF 4 ROWS
+
+    JDBCTap sortedTap = new JDBCTap( url, driver, tableDesc, new JDBCScheme( columnNames ), SinkMode.REPLACE );
+    sortedTap.setSortedWrites( true );
+    sortedTap.setSortBufferRows( 4 );
+
+    Pipe parsePipe = new Each( "insert", new Fields( "line" ), new RegexSplitter( new Fields( "num", "lower", "upper" ), "\\s" ) );
+
+    Flow insertFlow = new FlowConnector( getProperties() ).connect( new Lfs( new TextLine(), inputFile ), sortedTap, parsePipe );
+
+    insertFlow.complete();
+
+    verifySink( insertFlow, 13 );
+
+    // UPDATE SORTED, SETTING UPPER TO THE LOWER VALUE
+
+    Pipe updatePipe = new Each( "update", new Fields( "line" ), new RegexSplitter( new Fields( "num", "lower", "upper" ), "\\s" ) );
+    updatePipe = new Each( updatePipe, new Fields( "num", "lower" ), new Identity(), Fields.RESULTS );
+    updatePipe = new Each( updatePipe, new Fields( "lower" ), new Identity( new Fields( "upper" ) ), Fields.ALL );
+
+    JDBCTap updateTap = new JDBCTap( url, driver, tableDesc, new JDBCScheme( columnNames, null, new String[]{"num", "lower"} ), SinkMode.APPEND );
+    updateTap.setSortedWrites( true );
+    updateTap.setSortBufferRows( 4 );
+
+    Flow updateFlow = new FlowConnector( getProperties() ).connect( new Lfs( new TextLine(), inputFile ), updateTap, updatePipe );
+
+    updateFlow.complete();
+
+    verifySink( updateFlow, 13 );
+
+    assertEquals( "wrong number of updated rows", 13, updateTap.executeQuery( "select * from testingsorted where upper = lower", -1 ).size() );
+    }
+
+  public void testJDBCDeferIndexes() throws IOException
+    {
+    // THE PRIMARY KEY AND INDEX ARE ADDED ONCE THE FLOW COMPLETES
+
+    TableDesc tableDesc = new TableDesc( "testingdefer", columnNames, columnDefs, primaryKeys );
+    tableDesc.addIndex( "testingdefer_upper", "upper" );
+    tableDesc.setDeferIndexes( true );
+    tableDesc.setAnalyze( true );
+
+    JDBCTap tap = new JDBCTap( url, driver, tableDesc, new JDBCScheme( columnNames ), SinkMode.REPLACE );
+
+    Pipe parsePipe = new Each( "insert", new Fields( "line" ), new RegexSplitter( new Fields( "num", "lower", "upper" ), "\\s" ) );
+
+    Flow flow = new FlowConnector( getProperties() ).connect( new Lfs( new TextLine(), inputFile ), tap, parsePipe );
+
+    flow.addListener( new JDBCFlowListener() );
+
+    flow.complete();
+
+    verifySink( flow, 13 );
+
+    assertEquals( "wrong number of primary key columns", 2, getPrimaryKeyColumns( tap, "TESTINGDEFER" ) );
+    assertTrue( "missing index", hasIndex( tap, "TESTINGDEFER_UPPER" ) );
+
+    // NOTHING IS ADDED WHEN THE FLOW FAILS, THE LOWER VALUES ARE NOT INTEGERS
+
+    String[] failingDefs = {"VARCHAR(100) NOT NULL", "INTEGER NOT NULL", "VARCHAR(100) NOT NULL"};
+    TableDesc failingDesc = new TableDesc( "testingdeferfail", columnNames, failingDefs, primaryKeys );
+    failingDesc.addIndex( "testingdeferfail_upper", "upper" );
+    failingDesc.setDeferIndexes( true );
+
+    JDBCTap failingTap = new JDBCTap( url, driver, failingDesc, new JDBCScheme( columnNames ), SinkMode.REPLACE );
+
+    Flow failingFlow = new FlowConnector( getProperties() ).connect( new Lfs( new TextLine(), inputFile ), failingTap, parsePipe );
+
+    failingFlow.addListener( new JDBCFlowListener() );
+
+    try
+      {
+      failingFlow.complete();
+      fail( "flow did not fail" );
+      }
+    catch( FlowException exception )
+      {
+      // expected
+      }
+
+    assertEquals( "primary key added", 0, getPrimaryKeyColumns( failingTap, "TESTINGDEFERFAIL" ) );
+    assertFalse( "index added", hasIndex( failingTap, "TESTINGDEFERFAIL_UPPER" ) );
+    }
+
+  public void testJDBCReplaceStrategies() throws IOException
+    {
+    TableDesc tableDesc = new DeletingTableDesc( "testingreplace", columnNames, columnDefs, primaryKeys );
+
+    loadTable( tableDesc, new JDBCScheme( columnNames ) );
+
+    // THE PRIMARY KEY REJECTS THE SECOND LOAD UNLESS THE TABLE WAS EMPTIED
+
+    JDBCTap truncateTap = new JDBCTap( url, driver, tableDesc, new JDBCScheme( columnNames ), SinkMode.REPLACE );
+
+    truncateTap.setReplaceStrategy( JDBCTap.ReplaceStrategy.TRUNCATE );
+
+    Pipe parsePipe = new Each( "insert", new Fields( "line" ), new RegexSplitter( new Fields( "num", "lower", "upper" ), "\\s" ) );
+
+    Flow truncateFlow = new FlowConnector( getProperties() ).connect( new Lfs( new TextLine(), inputFile ), truncateTap, parsePipe );
+
+    truncateFlow.complete();
+
+    verifySink( truncateFlow, 13 );
+
+    // THE SWAPPED TABLE HOLDS THE UPPER VALUES IN THE LOWER COLUMN
+
+    JDBCTap swapTap = new JDBCTap( url, driver, tableDesc, new JDBCScheme( columnNames ), SinkMode.REPLACE );
+
+    swapTap.setReplaceStrategy( JDBCTap.ReplaceStrategy.SWAP );
+
+    Pipe swapPipe = new Each( "insert", new Fields( "line" ), new RegexSplitter( new Fields( "num", "upper", "lower" ), "\\s" ) );
+
+    swapPipe = new Each( swapPipe, new Fields( "num", "lower", "upper" ), new Identity() );
+
+    Flow swapFlow = new FlowConnector( getProperties() ).connect( new Lfs( new TextLine(), inputFile ), swapTap, swapPipe );
+
+    swapFlow.addListener( new JDBCFlowListener() );
+
+    swapFlow.complete();
+
+    verifySink( swapFlow, 13 );
+
+    assertEquals( "table not swapped", 13, swapTap.executeQuery( "select * from testingreplace where lower < upper", -1 ).size() );
+    assertFalse( "shadow table left", hasTable( swapTap, "TESTINGREPLACE_SHADOW" ) );
+    assertFalse( "old table left", hasTable( swapTap, "TESTINGREPLACE_OLD" ) );
+    }
+
+  public void testJDBCPushDown() throws IOException
+    {
+    TableDesc tableDesc = new TableDesc( "testingpushdown", columnNames, columnDefs, primaryKeys );
+    JDBCTap tap = loadTable( tableDesc, new JDBCScheme( columnNames ) );
+
+    // THE FILTER READS A COLUMN THE FOLLOWING EACH DOES NOT SELECT
+
+    Pipe pipe = new Pipe( "read" );
+    pipe = new Each( pipe, new Fields( "num" ), new SQLExpressionFilter( "$0.equals( \"1\" )", String.class, "num <> '1'" ) );
+    pipe = new Each( pipe, new Fields( "lower" ), new Identity(), Fields.RESULTS );
+
+    Map<String, Tap> sources = JDBCPlanner.pushDown( Collections.<String, Tap>singletonMap( "read", tap ), pipe );
+
+    Tap sink = new Lfs( new TextLine(), "build/test/jdbcpushdown", SinkMode.REPLACE );
+
+    Flow flow = new FlowConnector( getProperties() ).connect( sources, sink, pipe );
+
+    flow.complete();
+
+    verifySink( flow, 10 );
+    }
+
+  public void testJDBCExecuteInDatabase() throws IOException
+    {
+    TableDesc tableDesc = new TableDesc( "testingsql", columnNames, columnDefs, primaryKeys );
+    JDBCTap source = loadTable( tableDesc, new JDBCScheme( columnNames ) );
+
+    // COPY
+
+    TableDesc copyDesc = new TableDesc( "testingsqlcopy", columnNames, columnDefs, primaryKeys );
+    JDBCTap copyTap = new JDBCTap( url, driver, copyDesc, new JDBCScheme( columnNames ), SinkMode.REPLACE );
+
+    assertTrue( "not run as sql", JDBCPlanner.executeInDatabase( source, copyTap, new Pipe( "copy" ) ) );
+    assertEquals( "wrong number of rows", 13, copyTap.executeQuery( "select * from testingsqlcopy", -1 ).size() );
+
+    // FILTER, ONLY WHEN EXACT
+
+    SQLExpressionFilter filter = new SQLExpressionFilter( "$0.equals( \"1\" )", String.class, "num <> '1'" );
+    Pipe filterPipe = new Each( new Pipe( "filter" ), new Fields( "num" ), filter );
+
+    assertFalse( "inexact filter run as sql", JDBCPlanner.executeInDatabase( source, copyTap, filterPipe ) );
+
+    filter.setExact( true );
+
+    assertTrue( "not run as sql", JDBCPlanner.executeInDatabase( source, copyTap, filterPipe ) );
+    assertEquals( "wrong number of rows", 10, copyTap.executeQuery( "select * from testingsqlcopy", -1 ).size() );
+
+    // AGGREGATE
+
+    String[] aggregateNames = {"lower", "cnt", "avgnum", "sumnum"};
+    String[] aggregateDefs = {"VARCHAR(100) NOT NULL", "INTEGER", "DOUBLE", "DOUBLE"};
+    TableDesc aggregateDesc = new TableDesc( "testingsqlagg", aggregateNames, aggregateDefs, new String[]{"lower"} );
+    JDBCScheme aggregateScheme = new JDBCScheme( new Fields( "lower", "count", "average", "sum" ), aggregateNames );
+    JDBCTap aggregateTap = new JDBCTap( url, driver, aggregateDesc, aggregateScheme, SinkMode.REPLACE );
+
+    Pipe aggregatePipe = new GroupBy( new Pipe( "aggregate" ), new Fields( "lower" ) );
+    aggregatePipe = new Every( aggregatePipe, new Count() );
+    aggregatePipe = new Every( aggregatePipe, new Fields( "num" ), new Average() );
+    aggregatePipe = new Every( aggregatePipe, new Fields( "num" ), new Sum() );
+
+    assertTrue( "not run as sql", JDBCPlanner.executeInDatabase( source, aggregateTap, aggregatePipe ) );
+
+    // SUM READS THE VARCHAR NUM COLUMN AS NUMBERS, AS THE SUM AGGREGATOR DOES
+
+    List<Object[]> rows = aggregateTap.executeQuery( "select cnt, avgnum, sumnum from testingsqlagg where lower = 'a'", -1 );
+
+    assertEquals( "wrong number of groups", 5, aggregateTap.executeQuery( "select * from testingsqlagg", -1 ).size() );
+    assertEquals( "wrong count", 2, ( (Number) rows.get( 0 )[ 0 ] ).intValue() );
+    assertEquals( "wrong average", 3.0, ( (Number) rows.get( 0 )[ 1 ] ).doubleValue() );
+    assertEquals( "wrong sum", 6.0, ( (Number) rows.get( 0 )[ 2 ] ).doubleValue() );
+    }
+
+  public void testJDBCLookup() throws IOException
+    {
+    TableDesc tableDesc = new TableDesc( "testinglookup", columnNames, columnDefs, primaryKeys );
+    JDBCTap tap = loadTable( tableDesc, new JDBCScheme( columnNames ) );
+
+    JDBCLookup lookup = new JDBCLookup( new Fields( "value" ), tap, "lower", new String[]{"upper"} );
+    lookup.setTimeToLive( 10 );
+
+    JDBCLookup.Context context = lookup.openContext();
+
+    try
+      {
+      assertEquals( "not a miss", JDBCLookup.Counters.Misses, lookup.fetch( context, "a", 0 ) );
+      assertEquals( "wrong value", "A", context.values.get( 0 ) );
+      assertEquals( "not a hit", JDBCLookup.Counters.Hits, lookup.fetch( context, "a", 5 ) );
+      assertEquals( "wrong value", "A", context.values.get( 0 ) );
+
+      assertEquals( "not a miss", JDBCLookup.Counters.Misses, lookup.fetch( context, "z", 5 ) );
+      assertNull( "found missing key", context.values );
+      assertEquals( "not a negative hit", JDBCLookup.Counters.NegativeHits, lookup.fetch( context, "z", 10 ) );
+      assertNull( "found missing key", context.values );
+
+      // EXPIRED ENTRIES ARE LOOKED UP AGAIN
+
+      assertEquals( "not expired", JDBCLookup.Counters.Misses, lookup.fetch( context, "a", 11 ) );
+      assertEquals( "wrong value", "A", context.values.get( 0 ) );
+      }
+    finally
+      {
+      lookup.closeContext( context );
+      }
+    }
+
+  public void testKeyFilter()
+    {
+    KeyFilter filter = new KeyFilter();
+
+    filter.add( new Object[]{null, "a"} );
+    filter.add( new Object[]{1, "b"} );
+
+    assertTrue( "missing null key", filter.mightContain( new Object[]{null, "a"} ) );
+    assertFalse( "null matched string", filter.mightContain( new Object[]{"null", "a"} ) );
+    assertTrue( "missing numeric key", filter.mightContain( new Object[]{new BigDecimal( "1.0" ), "b"} ) );
+    assertTrue( "missing numeric key", filter.mightContain( new Object[]{1L, "b"} ) );
+    assertFalse( "number matched string", filter.mightContain( new Object[]{"1", "b"} ) );
+    }
+
+  private JDBCTap loadTable( TableDesc tableDesc, JDBCScheme scheme ) throws IOException
+    {
+    Tap source = new Lfs( new TextLine(), inputFile );
+
+    Pipe parsePipe = new Each( "insert", new Fields( "line" ), new RegexSplitter( new Fields( "num", "lower", "upper" ), "\\s" ) );
+
+    JDBCTap tap = new JDBCTap( url, driver, tableDesc, scheme, SinkMode.REPLACE );
+
+    Flow parseFlow = new FlowConnector( getProperties() ).connect( source, tap, parsePipe );
+
+    parseFlow.complete();
+
+    verifySink( parseFlow, 13 );
+
+    return tap;
+    }
+
+  private void verifySameRows( JDBCTap tap, String expectedTable, String actualTable )
+    {
+    List<Object[]> expected = tap.executeQuery( "select num, lower, upper from " + expectedTable + " order by num, lower", -1 );
+    List<Object[]> actual = tap.executeQuery( "select num, lower, upper from " + actualTable + " order by num, lower", -1 );
+
+    assertEquals( "wrong number of rows", expected.size(), actual.size() );
+
+    for( int i = 0; i < expected.size(); i++ )
+      assertTrue( "rows differ: " + Arrays.toString( actual.get( i ) ), Arrays.equals( expected.get( i ), actual.get( i ) ) );
+    }
+
+  private int getPrimaryKeyColumns( JDBCTap tap, String tableName )
+    {
+    return tap.executeQuery( "select * from INFORMATION_SCHEMA.SYSTEM_PRIMARYKEYS where TABLE_NAME = '" + tableName + "'", -1 ).size();
+    }
+
+  private boolean hasIndex( JDBCTap tap, String indexName )
+    {
+    return !tap.executeQuery( "select * from INFORMATION_SCHEMA.SYSTEM_INDEXINFO where INDEX_NAME = '" + indexName + "'", -1 ).isEmpty();
+    }
+
+  private boolean hasTable( JDBCTap tap, String tableName )
+    {
+    return !tap.executeQuery( "select * from INFORMATION_SCHEMA.SYSTEM_TABLES where TABLE_NAME = '" + tableName + "'", -1 ).isEmpty();
+    }
+
   private void verifySink( Flow flow, int expects ) throws IOException
     {
     int count = 0;
@@ -205,4 +1147,79 @@ public class JDBCTest extends ClusterTestCase
     assertEquals( "wrong number of values", expects, count );
     }
 
+  /** Method stall is called by HSQLDB for the first query of {@link StallingInputFormat}. */
+  public static int stall() throws InterruptedException
+    {
+    Thread.sleep( 1000 );
+
+    throw new IllegalStateException( "stalled query" );
+    }
+
+  /** Class StallingInputFormat runs a query failing after the fetch timeout first. */
+  public static class StallingInputFormat extends DBInputFormat
+    {
+    static final AtomicBoolean stall = new AtomicBoolean( false );
+
+    @Override
+    protected String getSelectQuery( DBInputSplit split )
+      {
+      if( stall.getAndSet( false ) )
+        return "CALL \"cascading.jdbc.JDBCTest.stall\"()";
+
+      return super.getSelectQuery( split );
+      }
+    }
+
+  /** Class DeletingTableDesc empties the table with DELETE, keeping the test independent of TRUNCATE support. */
+  public static class DeletingTableDesc extends TableDesc
+    {
+    public DeletingTableDesc( String tableName, String[] columnNames, String[] columnDefs, String[] primaryKeys )
+      {
+      super( tableName, columnNames, columnDefs, primaryKeys );
+      }
+
+    @Override
+    protected String getTruncateTableFormat()
+      {
+      return "DELETE FROM %s";
+      }
+    }
+
+  /** Class DroppingRecord closes the connection under the reader, failing the read, at the given reads. */
+  public static class DroppingRecord extends TupleRecord
+    {
+    static final Set<Integer> dropAt = Collections.synchronizedSet( new HashSet<Integer>() );
+    static final AtomicInteger reads = new AtomicInteger();
+
+    @Override
+    public void readFields( ResultSet resultSet ) throws SQLException
+      {
+      if( dropAt.remove( reads.incrementAndGet() ) )
+        {
+        resultSet.getStatement().getConnection().close();
+
+        // 08003 is connection does not exist
+        throw new SQLException( "connection closed", "08003" );
+        }
+
+      super.readFields( resultSet );
+      }
+    }
+
+  /** Class SnapshotInputFormat stands in HSQLDB statements for the PostgreSQL snapshot export and import. */
+  public static class SnapshotInputFormat extends DBInputFormat
+    {
+    @Override
+    protected String getSnapshotExportQuery()
+      {
+      return "CALL 'testing'";
+      }
+
+    @Override
+    protected String getSnapshotImportStatement( String snapshotId )
+      {
+      return "SET AUTOCOMMIT FALSE";
+      }
+    }
+
   }